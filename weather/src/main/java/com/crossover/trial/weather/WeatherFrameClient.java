@@ -0,0 +1,168 @@
+package com.crossover.trial.weather;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.crossover.trial.weather.endpoint.collector.WeatherFrameListener;
+import com.crossover.trial.weather.endpoint.collector.WeatherFrames;
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
+
+/**
+ * A client of the binary TCP collector, see {@link WeatherFrameListener}.
+ * Data points are encoded into a buffer of frames which is sent when it is
+ * full or flushed, so frames are pipelined on a single connection and their
+ * results are read back a buffer at a time.
+ *
+ * The server has to be started with the
+ * {@link WeatherFrameListener#PORT_PROPERTY} system property, e.g.
+ * <code>-Dweather.frame.port=9091</code>.
+ *
+ * @author burak
+ */
+public class WeatherFrameClient implements Closeable {
+
+	/** default port of the binary collector */
+	public static final int DEFAULT_PORT = 9091;
+
+	/** maximum number of frames sent before their results are read */
+	private static final int MAX_PIPELINED_FRAMES = 1024;
+
+	private static final WeatherUpdateResult[] RESULTS = WeatherUpdateResult
+			.values();
+
+	private final SocketChannel channel;
+
+	/** frames to send */
+	private final ByteBuffer frames = ByteBuffer
+			.allocateDirect(MAX_PIPELINED_FRAMES * WeatherFrames.FRAME_SIZE);
+
+	/** results of the sent frames */
+	private final ByteBuffer results = ByteBuffer
+			.allocateDirect(MAX_PIPELINED_FRAMES);
+
+	/** results of the frames sent since the last flush */
+	private final List<WeatherUpdateResult> sentResults = new ArrayList<WeatherUpdateResult>();
+
+	/**
+	 * Connects to the binary collector
+	 *
+	 * @param host
+	 *            host of the server
+	 * @param port
+	 *            port of the binary collector
+	 * @throws IOException
+	 *             if it can not connect
+	 */
+	public WeatherFrameClient(String host, int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	/**
+	 * Queues a data point, it is sent with the next full buffer or flush
+	 *
+	 * @param iata
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            the data point
+	 * @throws IOException
+	 *             if a full buffer could not be sent
+	 */
+	public void send(String iata, DataPointType pointType, DataPoint dataPoint)
+			throws IOException {
+		if (frames.remaining() < WeatherFrames.FRAME_SIZE) {
+			exchange();
+		}
+		WeatherFrames.encode(frames, iata, pointType, dataPoint);
+	}
+
+	/**
+	 * Sends the queued data points and waits for their results
+	 *
+	 * @return results of the data points sent since the last flush, in the
+	 *         order they were sent
+	 * @throws IOException
+	 *             if the data points could not be sent
+	 */
+	public List<WeatherUpdateResult> flush() throws IOException {
+		exchange();
+		List<WeatherUpdateResult> flushed = new ArrayList<WeatherUpdateResult>(
+				sentResults);
+		sentResults.clear();
+		return flushed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Sends the buffered frames and reads one result per frame
+	 */
+	private void exchange() throws IOException {
+		frames.flip();
+		int count = frames.remaining() / WeatherFrames.FRAME_SIZE;
+		while (frames.hasRemaining()) {
+			channel.write(frames);
+		}
+		frames.clear();
+		results.clear();
+		results.limit(count);
+		while (results.hasRemaining()) {
+			if (channel.read(results) < 0) {
+				throw new EOFException("Connection closed by the server");
+			}
+		}
+		results.flip();
+		while (results.hasRemaining()) {
+			sentResults.add(RESULTS[results.get()]);
+		}
+	}
+
+	/**
+	 * Sends wind data points of BOS as fast as possible and prints the rate
+	 * and the results
+	 *
+	 * @param args
+	 *            optional host, port and number of data points
+	 */
+	public static void main(String[] args) throws IOException {
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		Map<WeatherUpdateResult, Integer> resultCounts = new EnumMap<WeatherUpdateResult, Integer>(
+				WeatherUpdateResult.class);
+		long start = System.nanoTime();
+		try (WeatherFrameClient client = new WeatherFrameClient(host, port)) {
+			for (int i = 0; i < count; i++) {
+				DataPoint dataPoint = new DataPoint.Builder().withFirst(0)
+						.withLast(20).withMean(10).withCount(20).build();
+				dataPoint.setMean(i % 50);
+				client.send("BOS", DataPointType.WIND, dataPoint);
+				if (i % MAX_PIPELINED_FRAMES == MAX_PIPELINED_FRAMES - 1
+						|| i == count - 1) {
+					for (WeatherUpdateResult result : client.flush()) {
+						resultCounts.merge(result, 1, Integer::sum);
+					}
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d data points in %.2f s, %.0f/s",
+				count, seconds, count / seconds));
+		System.out.println("results: " + resultCounts);
+	}
+}
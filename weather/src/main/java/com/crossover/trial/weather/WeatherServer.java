@@ -2,8 +2,12 @@ package com.crossover.trial.weather;
 
 import static java.lang.String.format;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,9 +20,13 @@ import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import com.crossover.trial.weather.endpoint.collector.RestWeatherCollectorEndpoint;
+import com.crossover.trial.weather.endpoint.collector.WeatherDatagramListener;
+import com.crossover.trial.weather.endpoint.collector.WeatherFrameListener;
+import com.crossover.trial.weather.endpoint.query.AtmosphericInformationListWriter;
 import com.crossover.trial.weather.endpoint.query.RestWeatherQueryEndpoint;
 import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.util.AirportService;
+import com.crossover.trial.weather.util.WeatherService;
 
 /**
  * This main method will be use by the automated functional grader. You
@@ -43,19 +51,20 @@ public class WeatherServer {
 			-74.4148747);
 
 	/**
-	 * initializes AirportService by adding 5 sample airport data
+	 * initializes AirportService by replaying the write-ahead log, restoring
+	 * the airports of the weather store and adding the 5 sample airport data
+	 * which are missing, so restored weather data is kept
 	 */
 	private static void initializeAirportService() {
-		AirportService.addAirport(BOS.getIata(), BOS.getLatitude(),
-				BOS.getLongitude());
-		AirportService.addAirport(EWR.getIata(), EWR.getLatitude(),
-				EWR.getLongitude());
-		AirportService.addAirport(JFK.getIata(), JFK.getLatitude(),
-				JFK.getLongitude());
-		AirportService.addAirport(LGA.getIata(), LGA.getLatitude(),
-				LGA.getLongitude());
-		AirportService.addAirport(MMU.getIata(), MMU.getLatitude(),
-				MMU.getLongitude());
+		WeatherService.replayWriteAheadLog();
+		AirportService.restoreAirports();
+		for (AirportData airportData : new AirportData[] { BOS, EWR, JFK, LGA,
+				MMU }) {
+			if (AirportService.findAirportData(airportData.getIata()) == null) {
+				AirportService.addAirport(airportData.getIata(),
+						airportData.getLatitude(), airportData.getLongitude());
+			}
+		}
 	}
 
 	public static void main(String[] args) {
@@ -66,11 +75,29 @@ public class WeatherServer {
 			final ResourceConfig resourceConfig = new ResourceConfig();
 			resourceConfig.register(RestWeatherCollectorEndpoint.class);
 			resourceConfig.register(RestWeatherQueryEndpoint.class);
+			resourceConfig.register(AtmosphericInformationListWriter.class);
 
 			HttpServer server = GrizzlyHttpServerFactory.createHttpServer(
 					URI.create(BASE_URL), resourceConfig, false);
+			// binary collectors, closed on shutdown with the http server
+			List<Closeable> collectors = new CopyOnWriteArrayList<Closeable>();
 			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				// stop taking updates, then apply the queued ones and make
+				// the applied ones durable
 				server.shutdownNow();
+				for (Closeable collector : collectors) {
+					try {
+						collector.close();
+					} catch (IOException e) {
+						// the process is exiting anyway
+					}
+				}
+				try {
+					RestWeatherCollectorEndpoint.shutdownIngest();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				WeatherService.close();
 			}));
 
 			HttpServerProbe probe = new HttpServerProbe.Adapter() {
@@ -82,14 +109,35 @@ public class WeatherServer {
 			server.getServerConfiguration().getMonitoringConfig()
 					.getWebServerConfig().addProbes(probe);
 
+			// initialize airport service with dummy data, the logged changes
+			// are replayed before any request can change them
+			// TODO: If this class will be used as real server this method call
+			// should be inlined.
+			initializeAirportService();
+
 			// the autograder waits for this output before running automated
 			// tests, please don't remove it
 			server.start();
 
-			// initialize airport service with dummy data
-			// TODO: If this class will be used as real server this method call
-			// should be inlined.
-			initializeAirportService();
+			// start the binary collectors next to the http server, if enabled
+			Integer framePort = Integer
+					.getInteger(WeatherFrameListener.PORT_PROPERTY);
+			if (framePort != null) {
+				WeatherFrameListener frameListener = new WeatherFrameListener(
+						new InetSocketAddress(framePort));
+				frameListener.start();
+				collectors.add(frameListener);
+			}
+			Integer datagramPort = Integer
+					.getInteger(WeatherDatagramListener.PORT_PROPERTY);
+			if (datagramPort != null) {
+				WeatherDatagramListener datagramListener = new WeatherDatagramListener(
+						new InetSocketAddress(datagramPort), Integer.getInteger(
+								WeatherDatagramListener.THREADS_PROPERTY,
+								Runtime.getRuntime().availableProcessors()));
+				datagramListener.start();
+				collectors.add(datagramListener);
+			}
 
 			System.out.println(format("Weather Server started.\n url=%s\n",
 					BASE_URL));
@@ -1,6 +1,11 @@
 package com.crossover.trial.weather.endpoint.collector;
 
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ws.rs.Path;
@@ -12,9 +17,14 @@ import org.apache.log4j.Logger;
 import com.crossover.trial.weather.exception.WeatherException;
 import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.WeatherUpdate;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
 import com.crossover.trial.weather.util.AirportService;
+import com.crossover.trial.weather.util.DataPointParser;
+import com.crossover.trial.weather.util.WeatherIngestPipeline;
 import com.crossover.trial.weather.util.WeatherService;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 /**
  * A REST implementation of the WeatherCollector API. Accessible only to airport
@@ -33,6 +43,55 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 	public final static Logger logger = Logger
 			.getLogger(RestWeatherCollectorEndpoint.class);
 
+	/** shared gson json to object factory */
+	private static final Gson gson = new Gson();
+
+	/** data point parsers of the request threads */
+	private static final ThreadLocal<DataPointParser> dataPointParsers = ThreadLocal
+			.withInitial(DataPointParser::new);
+
+	/**
+	 * system property which turns on the asynchronous ingest, weather
+	 * updates are then queued and answered with 202 Accepted
+	 */
+	public static final String ASYNC_INGEST_PROPERTY = "weather.ingest.async";
+
+	/** system property of the maximum number of queued weather updates */
+	public static final String INGEST_QUEUE_SIZE_PROPERTY = "weather.ingest.queue.size";
+
+	/** maximum number of weather updates applied in a batch */
+	private static final int INGEST_BATCH_SIZE = 4096;
+
+	/** asynchronous ingest pipeline, null if updates are applied at once */
+	private static final WeatherIngestPipeline ingestPipeline = Boolean
+			.getBoolean(ASYNC_INGEST_PROPERTY) ? new WeatherIngestPipeline(
+			Integer.getInteger(INGEST_QUEUE_SIZE_PROPERTY, 65536),
+			INGEST_BATCH_SIZE) : null;
+
+	/**
+	 * Returns the statistics of the asynchronous ingest pipeline
+	 *
+	 * @return record counters and the queue size, empty if updates are
+	 *         applied at once
+	 */
+	public static Map<String, Long> getIngestStats() {
+		return ingestPipeline == null ? new HashMap<String, Long>()
+				: ingestPipeline.getStats();
+	}
+
+	/**
+	 * Stops the asynchronous ingest pipeline and waits until the queued
+	 * updates, which have been answered with 202 Accepted, are applied
+	 *
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public static void shutdownIngest() throws InterruptedException {
+		if (ingestPipeline != null) {
+			ingestPipeline.shutdown();
+		}
+	}
+
 	@Override
 	public Response addAirport(String iata, String latString, String longString) {
 		AirportService.addAirport(iata, Double.valueOf(latString),
@@ -78,13 +137,77 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 	@Override
 	public Response updateWeather(String iataCode, String pointType,
 			String datapointJson) {
+		if (ingestPipeline != null) {
+			return submit(Collections.singletonList(new WeatherUpdate(
+					iataCode, pointType, parseDataPoint(datapointJson))));
+		}
 		try {
 			WeatherService.addDataPoint(iataCode, pointType,
-					new Gson().fromJson(datapointJson, DataPoint.class));
+					parseDataPoint(datapointJson));
 		} catch (WeatherException e) {
 			logger.error(e.getMessage());
 		}
 		return Response.status(Response.Status.OK).build();
 	}
 
+	@Override
+	public Response updateWeatherBulk(String updatesJson) {
+		WeatherUpdate[] updateArray;
+		try {
+			updateArray = gson.fromJson(updatesJson, WeatherUpdate[].class);
+		} catch (JsonParseException e) {
+			updateArray = null;
+		}
+		if (updateArray == null) {
+			logger.debug("Bulk weather update is not a json list");
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		List<WeatherUpdate> updates = Arrays.asList(updateArray);
+		if (ingestPipeline != null) {
+			return submit(updates);
+		}
+		List<WeatherUpdateResult> results = WeatherService
+				.addDataPoints(updates);
+		logger.debug(MessageFormat.format(
+				"Bulk weather update results: \"{0}\"", results));
+		return Response.status(Response.Status.OK)
+				.entity(gson.toJson(results)).build();
+	}
+
+	/**
+	 * Parses the json dict of a data point with the parser of the current
+	 * thread, falling back to gson if it is not in the plain form
+	 * 
+	 * @param datapointJson
+	 *            json dict of a data point
+	 * @return the data point, or null if there is none
+	 */
+	private static DataPoint parseDataPoint(String datapointJson) {
+		DataPointParser parser = dataPointParsers.get();
+		if (datapointJson != null && parser.parse(datapointJson)) {
+			return parser.toDataPoint();
+		}
+		return gson.fromJson(datapointJson, DataPoint.class);
+	}
+
+	/**
+	 * Queues the given weather updates to the asynchronous ingest pipeline
+	 * 
+	 * @param updates
+	 *            weather updates to queue
+	 * @return 202 Accepted if all updates have been queued, otherwise 503
+	 *         Service Unavailable with the number of queued leading updates,
+	 *         the remaining ones should be sent again later
+	 */
+	private Response submit(List<WeatherUpdate> updates) {
+		int accepted = ingestPipeline.submit(updates);
+		logger.debug(MessageFormat.format(
+				"\"{0}\" of \"{1}\" weather updates have been queued",
+				accepted, updates.size()));
+		Response.Status status = accepted == updates.size() ? Response.Status.ACCEPTED
+				: Response.Status.SERVICE_UNAVAILABLE;
+		return Response.status(status).entity(String.valueOf(accepted))
+				.build();
+	}
+
 }
@@ -6,6 +6,7 @@ import javax.ws.rs.core.Response;
 
 import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
 
 /**
  * The interface shared to airport weather collection systems.
@@ -39,6 +40,23 @@ public interface WeatherCollectorEndpoint {
                            @PathParam("pointType") String pointType,
                            String datapointJson);
 
+    /**
+     * Update the atmospheric information of several airports and point types
+     * at once with a json formatted list of records.
+     *
+     * @param updatesJson a json list of dicts containing iata, pointType and dataPoint keys,
+     *                    where dataPoint is a dict like the one of {@link #updateWeather}
+     *
+     * @return HTTP Response code and a json formatted list with the result of each record
+     *         in the order of the records, see {@link WeatherUpdateResult}, or 400 Bad
+     *         Request if the body is not a json list
+     */
+    @POST
+    @Path("/weather")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response updateWeatherBulk(String updatesJson);
+
     /**
      * Return a list of known airports as a json formatted list
      *
@@ -0,0 +1,403 @@
+package com.crossover.trial.weather.endpoint.collector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherUpdate;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
+import com.crossover.trial.weather.util.WeatherService;
+
+/**
+ * A UDP weather collector for sensors which can lose a report and do not
+ * want to keep a connection. A datagram holds a big endian int sequence
+ * number of its sender followed by any number of {@link WeatherFrames},
+ * which are applied by {@link WeatherService#addDataPoints} like the frames
+ * of the TCP collector. Nothing is answered.
+ *
+ * Where the platform supports SO_REUSEPORT, several channels are bound to
+ * the port and the kernel spreads the senders over their receive threads,
+ * otherwise a single thread receives. The option is looked up reflectively
+ * so the collector also runs on Java 8.
+ *
+ * Every sender address has counters of the received datagrams, the
+ * datagrams which were dropped on the way as told by the gaps of its
+ * sequence numbers, the malformed datagrams which were discarded and the
+ * readings rejected by the validation. They are part of the health stats of
+ * the query endpoint. At most {@link #MAX_SOURCES} senders are counted on
+ * their own: a new sender beyond them evicts the least recently seen one,
+ * whose counters are added to those of the other senders, so forged or
+ * churning addresses can not crowd out the active senders for good.
+ *
+ * @author burak
+ */
+public class WeatherDatagramListener implements Closeable {
+
+	private final static Logger logger = Logger
+			.getLogger(WeatherDatagramListener.class);
+
+	/**
+	 * system property of the port of the listener, it is started by the
+	 * server if the property is set
+	 */
+	public static final String PORT_PROPERTY = "weather.datagram.port";
+
+	/**
+	 * system property of the number of receive threads, used if the
+	 * platform supports SO_REUSEPORT
+	 */
+	public static final String THREADS_PROPERTY = "weather.datagram.threads";
+
+	/** key of the datagram stats in the health stats */
+	public static final String DATAGRAM_STATS = "datagrams";
+
+	/** maximum number of senders counted on their own */
+	public static final int MAX_SOURCES = 256;
+
+	/** size of the sequence number of a datagram */
+	public static final int SEQUENCE_SIZE = 4;
+
+	/** maximum size of a UDP payload */
+	private static final int MAX_DATAGRAM_SIZE = 65507;
+
+	/** sequence gap beyond which a sender is taken to have restarted */
+	private static final int MAX_SEQUENCE_GAP = 1 << 16;
+
+	/** name of the counters of the evicted senders */
+	private static final String OTHER_SOURCES = "other";
+
+	/**
+	 * counters of the senders of all listeners, keyed by address, senders
+	 * are added and evicted under the class lock
+	 */
+	private static final Map<SocketAddress, SourceCounters> sources = new ConcurrentHashMap<SocketAddress, SourceCounters>();
+
+	/** sums of the counters of the evicted senders */
+	private static final SourceCounters otherSources = new SourceCounters(
+			OTHER_SOURCES);
+
+	private final DatagramChannel[] channels;
+
+	private final Thread[] receiveThreads;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Binds the listener, it receives datagrams once it is started
+	 *
+	 * @param address
+	 *            address to listen on, port 0 for any free port
+	 * @param threads
+	 *            number of receive threads, a single one is used if the
+	 *            platform does not support SO_REUSEPORT
+	 * @throws IOException
+	 *             if the address can not be bound
+	 */
+	public WeatherDatagramListener(InetSocketAddress address, int threads)
+			throws IOException {
+		SocketOption<Boolean> reusePort = getReusePortOption();
+		DatagramChannel first = DatagramChannel.open();
+		if (reusePort == null || !first.supportedOptions().contains(reusePort)) {
+			threads = 1;
+		}
+		channels = new DatagramChannel[Math.max(1, threads)];
+		channels[0] = first;
+		for (int i = 1; i < channels.length; i++) {
+			channels[i] = DatagramChannel.open();
+		}
+		for (int i = 0; i < channels.length; i++) {
+			if (channels.length > 1) {
+				channels[i].setOption(reusePort, true);
+			}
+			// the channels after the first join its port if it was any
+			channels[i].bind(i == 0 ? address : new InetSocketAddress(
+					address.getAddress(), getPort()));
+		}
+		receiveThreads = new Thread[channels.length];
+		for (int i = 0; i < channels.length; i++) {
+			DatagramChannel channel = channels[i];
+			receiveThreads[i] = new Thread(() -> receive(channel),
+					"weather-datagram-listener-" + i);
+			receiveThreads[i].setDaemon(true);
+		}
+	}
+
+	/**
+	 * Starts receiving datagrams
+	 */
+	public void start() {
+		for (Thread thread : receiveThreads) {
+			thread.start();
+		}
+		logger.info(MessageFormat.format(
+				"Weather datagram listener started on port \"{0}\" with \"{1}\" threads",
+				String.valueOf(getPort()), receiveThreads.length));
+	}
+
+	/**
+	 * @return port the listener is bound to
+	 */
+	public int getPort() {
+		return channels[0].socket().getLocalPort();
+	}
+
+	/**
+	 * @return number of receive threads
+	 */
+	public int getThreadCount() {
+		return receiveThreads.length;
+	}
+
+	/**
+	 * Stops the listener
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		for (DatagramChannel channel : channels) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Returns the counters of the senders of all listeners
+	 *
+	 * @return counters of received, dropped and malformed datagrams and of
+	 *         rejected readings, keyed by sender address
+	 */
+	public static Map<String, Map<String, Long>> getStats() {
+		Map<String, Map<String, Long>> stats = new HashMap<String, Map<String, Long>>();
+		for (SourceCounters counters : sources.values()) {
+			stats.put(counters.name, counters.getStats());
+		}
+		Map<String, Long> otherStats = otherSources.getStats();
+		if (otherStats.get("received") > 0) {
+			stats.put(OTHER_SOURCES, otherStats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Receives and applies datagrams until the channel is closed
+	 */
+	private void receive(DatagramChannel channel) {
+		ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+		List<WeatherUpdate> updates = new ArrayList<WeatherUpdate>();
+		char[] iataChars = new char[WeatherFrames.IATA_SIZE];
+		while (running) {
+			SocketAddress sender;
+			datagram.clear();
+			try {
+				sender = channel.receive(datagram);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				logger.error("Weather datagram listener failed to receive", e);
+				return;
+			}
+			datagram.flip();
+			SourceCounters counters = getCounters(sender);
+			updates.clear();
+			if (!decode(datagram, updates, iataChars)) {
+				counters.malformed();
+				continue;
+			}
+			counters.received(datagram.getInt(0));
+			if (updates.isEmpty()) {
+				continue;
+			}
+			int rejected = 0;
+			try {
+				for (WeatherUpdateResult result : WeatherService
+						.addDataPoints(updates)) {
+					if (result != WeatherUpdateResult.APPLIED) {
+						rejected++;
+					}
+				}
+			} catch (RuntimeException e) {
+				// the weather service refused the readings, e.g. it is
+				// closed, the next datagrams are received anyway
+				logger.error("Weather datagram could not be applied", e);
+				rejected = updates.size();
+			}
+			counters.rejected(rejected);
+		}
+	}
+
+	/**
+	 * Decodes the frames of a datagram
+	 *
+	 * @return <code>false</code> if the datagram is malformed
+	 */
+	private static boolean decode(ByteBuffer datagram,
+			List<WeatherUpdate> updates, char[] iataChars) {
+		if (datagram.remaining() < SEQUENCE_SIZE) {
+			return false;
+		}
+		int offset = SEQUENCE_SIZE;
+		while (offset < datagram.limit()) {
+			if (datagram.limit() - offset < WeatherFrames.LENGTH_SIZE) {
+				return false;
+			}
+			int length = WeatherFrames.getBodyLength(datagram, offset);
+			if (length < WeatherFrames.BODY_SIZE
+					|| length > datagram.limit() - offset
+							- WeatherFrames.LENGTH_SIZE) {
+				return false;
+			}
+			DataPointType pointType = WeatherFrames.getPointType(datagram,
+					offset);
+			updates.add(new WeatherUpdate(WeatherFrames.getIata(datagram,
+					offset, iataChars), pointType == null ? null : pointType
+					.name(), WeatherFrames.getDataPoint(datagram, offset)));
+			offset += WeatherFrames.LENGTH_SIZE + length;
+		}
+		return true;
+	}
+
+	private static SourceCounters getCounters(SocketAddress sender) {
+		SourceCounters counters = sources.get(sender);
+		return counters != null ? counters : addSource(sender);
+	}
+
+	/**
+	 * Adds the counters of a new sender, evicting the least recently seen
+	 * sender if the maximum is reached. A datagram of the evicted sender
+	 * which is being counted meanwhile may be lost from the stats.
+	 */
+	private static synchronized SourceCounters addSource(SocketAddress sender) {
+		SourceCounters counters = sources.get(sender);
+		if (counters != null) {
+			return counters;
+		}
+		if (sources.size() >= MAX_SOURCES) {
+			Map.Entry<SocketAddress, SourceCounters> eldest = null;
+			for (Map.Entry<SocketAddress, SourceCounters> entry : sources
+					.entrySet()) {
+				if (eldest == null
+						|| entry.getValue().lastSeen < eldest.getValue().lastSeen) {
+					eldest = entry;
+				}
+			}
+			sources.remove(eldest.getKey());
+			otherSources.add(eldest.getValue().getStats());
+		}
+		InetSocketAddress address = (InetSocketAddress) sender;
+		counters = new SourceCounters(address.getAddress().getHostAddress()
+				+ ":" + address.getPort());
+		sources.put(sender, counters);
+		return counters;
+	}
+
+	/**
+	 * @return the SO_REUSEPORT option, or null if the platform does not know
+	 *         it
+	 */
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> getReusePortOption() {
+		try {
+			return (SocketOption<Boolean>) StandardSocketOptions.class
+					.getField("SO_REUSEPORT").get(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The counters of a sender, a sender is served by a single receive
+	 * thread at a time
+	 */
+	private static final class SourceCounters {
+
+		/** address of the sender */
+		final String name;
+
+		/** time in milliseconds of the latest datagram of the sender */
+		volatile long lastSeen = System.currentTimeMillis();
+
+		private long received;
+
+		private long dropped;
+
+		private long malformed;
+
+		private long rejected;
+
+		/** latest sequence number received */
+		private int lastSequence;
+
+		/** true once a well formed datagram set the sequence number */
+		private boolean sequenced;
+
+		SourceCounters(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Counts a well formed datagram and the datagrams missing before its
+		 * sequence number. A datagram arriving after a later one has been
+		 * counted as dropped before, so it is taken back, a duplicate of the
+		 * latest one changes nothing.
+		 */
+		synchronized void received(int sequence) {
+			int gap = sequence - lastSequence;
+			if (!sequenced || gap > MAX_SEQUENCE_GAP
+					|| gap <= -MAX_SEQUENCE_GAP) {
+				// the first well formed datagram or a restarted sender
+				lastSequence = sequence;
+				sequenced = true;
+			} else if (gap > 0) {
+				dropped += gap - 1;
+				lastSequence = sequence;
+			} else if (gap < 0 && dropped > 0) {
+				dropped--;
+			}
+			received++;
+			lastSeen = System.currentTimeMillis();
+		}
+
+		synchronized void malformed() {
+			received++;
+			malformed++;
+			lastSeen = System.currentTimeMillis();
+		}
+
+		/**
+		 * Adds the counters of an evicted sender
+		 */
+		synchronized void add(Map<String, Long> stats) {
+			received += stats.get("received");
+			dropped += stats.get("dropped");
+			malformed += stats.get("malformed");
+			rejected += stats.get("rejected");
+		}
+
+		synchronized void rejected(int readings) {
+			rejected += readings;
+		}
+
+		synchronized Map<String, Long> getStats() {
+			Map<String, Long> stats = new HashMap<String, Long>();
+			stats.put("received", received);
+			stats.put("dropped", dropped);
+			stats.put("malformed", malformed);
+			stats.put("rejected", rejected);
+			return stats;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package com.crossover.trial.weather.endpoint.collector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherUpdate;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
+import com.crossover.trial.weather.util.WeatherService;
+
+/**
+ * A TCP weather collector for high frequency collectors, next to the REST
+ * endpoints. Collectors keep a connection open and pipeline binary
+ * {@link WeatherFrames} on it. Every frame is answered with the ordinal of
+ * its {@link WeatherUpdateResult}, in the order of the frames.
+ *
+ * A single selector thread serves all connections. The frames of a read are
+ * decoded in place from the direct buffer of the connection and applied at
+ * once by {@link WeatherService#addDataPoints}, with the same validation as
+ * the REST collector and a single commit of the write-ahead log. A
+ * connection is not read while its results are being written, so a client
+ * which does not read its results is slowed down instead of buffered. A
+ * connection sending an invalid frame length is closed.
+ *
+ * @author burak
+ */
+public class WeatherFrameListener implements Closeable {
+
+	private final static Logger logger = Logger
+			.getLogger(WeatherFrameListener.class);
+
+	/**
+	 * system property of the port of the listener, it is started by the
+	 * server if the property is set
+	 */
+	public static final String PORT_PROPERTY = "weather.frame.port";
+
+	/** size of the frame buffer of a connection */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final ServerSocketChannel serverChannel;
+
+	private final Selector selector;
+
+	private final Thread selectorThread;
+
+	/** updates of the frames of a read, reused */
+	private final List<WeatherUpdate> updates = new ArrayList<WeatherUpdate>();
+
+	/** characters of a decoded iata code, reused */
+	private final char[] iataChars = new char[WeatherFrames.IATA_SIZE];
+
+	private volatile boolean running = true;
+
+	/**
+	 * Binds the listener, it accepts connections once it is started
+	 *
+	 * @param address
+	 *            address to listen on, port 0 for any free port
+	 * @throws IOException
+	 *             if the address can not be bound
+	 */
+	public WeatherFrameListener(InetSocketAddress address) throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		selectorThread = new Thread(this::run, "weather-frame-listener");
+		selectorThread.setDaemon(true);
+	}
+
+	/**
+	 * Starts accepting connections
+	 */
+	public void start() {
+		selectorThread.start();
+		logger.info(MessageFormat.format(
+				"Weather frame listener started on port \"{0}\"",
+				String.valueOf(getPort())));
+	}
+
+	/**
+	 * @return port the listener is bound to
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the listener and closes its connections
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+		serverChannel.close();
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (ClosedSelectorException e) {
+				return;
+			} catch (IOException e) {
+				logger.error("Weather frame listener failed to select", e);
+				return;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						read(key);
+					} else if (key.isWritable()) {
+						write(key);
+					}
+				} catch (IOException e) {
+					logger.debug(MessageFormat.format(
+							"Weather frame connection closed: \"{0}\"",
+							e.getMessage()));
+					closeConnection(key);
+				} catch (RuntimeException e) {
+					// the weather service refused the frames, e.g. it is
+					// closed, the connection can not get its results but the
+					// other connections are served on
+					logger.error("Weather frame connection failed", e);
+					closeConnection(key);
+				}
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(selector, SelectionKey.OP_READ, new Connection());
+	}
+
+	private void read(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		if (((SocketChannel) key.channel()).read(connection.frames) < 0) {
+			closeConnection(key);
+			return;
+		}
+		process(key);
+	}
+
+	/**
+	 * Applies the complete frames in the buffer of a connection and starts
+	 * writing their results
+	 */
+	private void process(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		ByteBuffer frames = connection.frames;
+		frames.flip();
+		updates.clear();
+		while (frames.remaining() >= WeatherFrames.LENGTH_SIZE) {
+			int offset = frames.position();
+			int length = WeatherFrames.getBodyLength(frames, offset);
+			if (length < WeatherFrames.BODY_SIZE
+					|| length > WeatherFrames.MAX_BODY_SIZE) {
+				throw new IOException("Invalid frame length: " + length);
+			}
+			if (frames.remaining() < WeatherFrames.LENGTH_SIZE + length) {
+				break;
+			}
+			DataPointType pointType = WeatherFrames.getPointType(frames,
+					offset);
+			updates.add(new WeatherUpdate(WeatherFrames.getIata(frames,
+					offset, iataChars), pointType == null ? null : pointType
+					.name(), WeatherFrames.getDataPoint(frames, offset)));
+			frames.position(offset + WeatherFrames.LENGTH_SIZE + length);
+		}
+		frames.compact();
+		if (updates.isEmpty()) {
+			return;
+		}
+		List<WeatherUpdateResult> results = WeatherService
+				.addDataPoints(updates);
+		for (WeatherUpdateResult result : results) {
+			connection.results.put((byte) result.ordinal());
+		}
+		connection.results.flip();
+		write(key);
+	}
+
+	/**
+	 * Writes the pending results of a connection, it is read again once they
+	 * are written
+	 */
+	private void write(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		((SocketChannel) key.channel()).write(connection.results);
+		if (connection.results.hasRemaining()) {
+			key.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+		connection.results.clear();
+		if (key.interestOps() != SelectionKey.OP_READ) {
+			key.interestOps(SelectionKey.OP_READ);
+			// frames may have been buffered while the results were pending
+			process(key);
+		}
+	}
+
+	private void closeConnection(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			logger.debug(e.getMessage());
+		}
+	}
+
+	/**
+	 * The buffers of a connection
+	 */
+	private static final class Connection {
+
+		/** received frames, in write mode */
+		final ByteBuffer frames = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		/** results of the applied frames, in read mode while pending */
+		final ByteBuffer results = ByteBuffer.allocateDirect(BUFFER_SIZE
+				/ WeatherFrames.FRAME_SIZE + 1);
+	}
+}
@@ -0,0 +1,172 @@
+package com.crossover.trial.weather.endpoint.collector;
+
+import java.nio.ByteBuffer;
+
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * The binary frames of the TCP weather collector, see
+ * {@link WeatherFrameListener}. A frame is a big endian length prefixed
+ * record of fixed width fields:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  length of the frame after this field, at least 32
+ *      4     4  iata code, ASCII, padded with NUL bytes
+ *      8     1  slot of the {@link DataPointType}
+ *      9     3  reserved, 0
+ *     12     8  mean, double
+ *     20     4  first quartile, int
+ *     24     4  second quartile, int
+ *     28     4  third quartile, int
+ *     32     4  count, int
+ * </pre>
+ *
+ * Readers skip the bytes of a longer frame after the count, so fields can be
+ * appended. The listener answers every frame with a single byte, the
+ * ordinal of its {@link com.crossover.trial.weather.pojo.WeatherUpdateResult},
+ * in the order of the frames.
+ *
+ * @author burak
+ */
+public class WeatherFrames {
+
+	/** size of the length prefix */
+	public static final int LENGTH_SIZE = 4;
+
+	/** length of a frame after its prefix */
+	public static final int BODY_SIZE = 32;
+
+	/** size of a frame including its prefix */
+	public static final int FRAME_SIZE = LENGTH_SIZE + BODY_SIZE;
+
+	/** maximum length of a frame after its prefix */
+	public static final int MAX_BODY_SIZE = 1024;
+
+	/** maximum length of an iata code */
+	public static final int IATA_SIZE = 4;
+
+	private static final int IATA_OFFSET = 0;
+
+	private static final int TYPE_OFFSET = 4;
+
+	private static final int MEAN_OFFSET = 8;
+
+	private static final int FIRST_OFFSET = 16;
+
+	private static final int SECOND_OFFSET = 20;
+
+	private static final int THIRD_OFFSET = 24;
+
+	private static final int COUNT_OFFSET = 28;
+
+	/**
+	 * Puts a frame at the position of the given buffer
+	 *
+	 * @param buffer
+	 *            buffer with at least {@link #FRAME_SIZE} remaining bytes
+	 * @param iata
+	 *            iata code of the airport, at most {@link #IATA_SIZE} ASCII
+	 *            characters
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            the data point
+	 */
+	public static void encode(ByteBuffer buffer, String iata,
+			DataPointType pointType, DataPoint dataPoint) {
+		if (iata.length() > IATA_SIZE) {
+			throw new IllegalArgumentException("Iata code is too long: "
+					+ iata);
+		}
+		int body = buffer.position() + LENGTH_SIZE;
+		buffer.putInt(BODY_SIZE);
+		for (int i = 0; i < IATA_SIZE; i++) {
+			char c = i < iata.length() ? iata.charAt(i) : 0;
+			if (c > 127) {
+				throw new IllegalArgumentException(
+						"Iata code is not ASCII: " + iata);
+			}
+			buffer.put((byte) c);
+		}
+		// the point type and the reserved bytes
+		buffer.put((byte) pointType.getSlot());
+		buffer.put((byte) 0);
+		buffer.putShort((short) 0);
+		buffer.putDouble(dataPoint.getMean());
+		buffer.putInt(dataPoint.getFirst());
+		buffer.putInt(dataPoint.getSecond());
+		buffer.putInt(dataPoint.getThird());
+		buffer.putInt(dataPoint.getCount());
+		buffer.position(body + BODY_SIZE);
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer holding a frame
+	 * @param offset
+	 *            absolute offset of the frame
+	 * @return length of the frame after its prefix
+	 */
+	public static int getBodyLength(ByteBuffer buffer, int offset) {
+		return buffer.getInt(offset);
+	}
+
+	/**
+	 * Decodes the iata code of a frame
+	 *
+	 * @param buffer
+	 *            buffer holding a frame
+	 * @param offset
+	 *            absolute offset of the frame
+	 * @param chars
+	 *            buffer of at least {@link #IATA_SIZE} characters to decode
+	 *            into
+	 * @return the iata code
+	 */
+	public static String getIata(ByteBuffer buffer, int offset, char[] chars) {
+		int body = offset + LENGTH_SIZE;
+		int length = 0;
+		while (length < IATA_SIZE) {
+			byte b = buffer.get(body + IATA_OFFSET + length);
+			if (b == 0) {
+				break;
+			}
+			chars[length++] = (char) (b & 0xff);
+		}
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer holding a frame
+	 * @param offset
+	 *            absolute offset of the frame
+	 * @return the {@link DataPointType} of the frame, or null if its slot is
+	 *         not known
+	 */
+	public static DataPointType getPointType(ByteBuffer buffer, int offset) {
+		return DataPointType.fromSlot(buffer.get(offset + LENGTH_SIZE
+				+ TYPE_OFFSET) & 0xff);
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer holding a frame
+	 * @param offset
+	 *            absolute offset of the frame
+	 * @return the data point of the frame
+	 */
+	public static DataPoint getDataPoint(ByteBuffer buffer, int offset) {
+		int body = offset + LENGTH_SIZE;
+		// the builder passes its mean as the second quartile
+		DataPoint dataPoint = new DataPoint.Builder()
+				.withFirst(buffer.getInt(body + FIRST_OFFSET))
+				.withMean(buffer.getInt(body + SECOND_OFFSET))
+				.withLast(buffer.getInt(body + THIRD_OFFSET))
+				.withCount(buffer.getInt(body + COUNT_OFFSET)).build();
+		dataPoint.setMean(buffer.getDouble(body + MEAN_OFFSET));
+		return dataPoint;
+	}
+}
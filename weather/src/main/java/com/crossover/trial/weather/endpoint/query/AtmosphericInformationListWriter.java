@@ -0,0 +1,85 @@
+package com.crossover.trial.weather.endpoint.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.AtmosphericInformationList;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes an {@link AtmosphericInformationList} as a json array by copying the
+ * pre-serialized json fragments of its elements to the response. Elements
+ * without a fragment are serialized on the fly.
+ *
+ * @author burak
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class AtmosphericInformationListWriter implements
+		MessageBodyWriter<AtmosphericInformationList> {
+
+	/** mapper of the elements without a json fragment */
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return AtmosphericInformationList.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public long getSize(AtmosphericInformationList atmInfoList,
+			Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(AtmosphericInformationList atmInfoList, Class<?> type,
+			Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders,
+			OutputStream entityStream) throws IOException,
+			WebApplicationException {
+		entityStream.write('[');
+		for (int i = 0; i < atmInfoList.size(); i++) {
+			writeElement(entityStream, i, atmInfoList.get(i),
+					atmInfoList.getJsonFragment(i));
+		}
+		entityStream.write(']');
+	}
+
+	/**
+	 * Writes an element of a json array of atmospheric information, preceded
+	 * by a separator unless it is the first one
+	 *
+	 * @param entityStream
+	 *            stream to write to
+	 * @param index
+	 *            index of the element in the array
+	 * @param atmInfo
+	 *            {@link AtmosphericInformation} to write
+	 * @param jsonFragment
+	 *            pre-serialized json of the element, or null to serialize it
+	 * @throws IOException
+	 *             if the stream can not be written
+	 */
+	static void writeElement(OutputStream entityStream, int index,
+			AtmosphericInformation atmInfo, byte[] jsonFragment)
+			throws IOException {
+		if (index > 0) {
+			entityStream.write(',');
+		}
+		entityStream.write(jsonFragment != null ? jsonFragment
+				: objectMapper.writeValueAsBytes(atmInfo));
+	}
+}
@@ -1,21 +1,54 @@
 package com.crossover.trial.weather.endpoint.query;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.ws.rs.Path;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
+import org.glassfish.jersey.server.ChunkedOutput;
 
+import com.crossover.trial.weather.endpoint.collector.RestWeatherCollectorEndpoint;
+import com.crossover.trial.weather.endpoint.collector.WeatherDatagramListener;
+import com.crossover.trial.weather.exception.WeatherException;
 import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.AtmosphericInformationList;
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherAggregate;
+import com.crossover.trial.weather.pojo.WeatherChanges;
+import com.crossover.trial.weather.pojo.WeatherQuery;
+import com.crossover.trial.weather.pojo.WeatherReadings;
+import com.crossover.trial.weather.pojo.WeatherRollup;
 import com.crossover.trial.weather.util.AirportService;
+import com.crossover.trial.weather.util.WeatherIngestPipeline;
 import com.crossover.trial.weather.util.WeatherService;
+import com.crossover.trial.weather.util.WeatherSnapshot;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 /**
  * The Weather App REST endpoint allows clients to query, update and check
@@ -33,6 +66,74 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	/** shared gson json to object factory */
 	private static final Gson gson = new Gson();
 
+	/** system property of the maximum number of cached query results */
+	public static final String CACHE_SIZE_PROPERTY = "weather.query.cache.size";
+
+	/**
+	 * system property of the radius in KM from which query results are
+	 * streamed to the client while the airports are scanned
+	 */
+	public static final String STREAMING_RADIUS_PROPERTY = "weather.query.streaming.radius";
+
+	/** radius in KM from which query results are streamed */
+	private static final double STREAMING_RADIUS = Double.parseDouble(System
+			.getProperty(STREAMING_RADIUS_PROPERTY, "1000"));
+
+	/** cache of query results */
+	private static final WeatherQueryCache cache = new WeatherQueryCache(
+			Integer.getInteger(CACHE_SIZE_PROPERTY, 1024));
+
+	/**
+	 * system property of the maximum number of buffered events of a
+	 * subscription, older events are dropped beyond it
+	 */
+	public static final String SUBSCRIPTION_BUFFER_SIZE_PROPERTY = "weather.subscription.buffer.size";
+
+	/**
+	 * system property of the maximum number of open subscriptions, further
+	 * ones are refused with 503 Service Unavailable
+	 */
+	public static final String MAX_SUBSCRIPTIONS_PROPERTY = "weather.subscription.max";
+
+	/** period in milliseconds of the heartbeats of idle subscriptions */
+	private static final long HEARTBEAT_MILLIS = 15000;
+
+	/** server-sent event comment written when a subscription is opened */
+	private static final byte[] SUBSCRIBED_COMMENT = ":subscribed\n\n"
+			.getBytes(StandardCharsets.UTF_8);
+
+	/** server-sent event comment written as a heartbeat */
+	private static final byte[] HEARTBEAT_COMMENT = ":\n\n"
+			.getBytes(StandardCharsets.UTF_8);
+
+	/** number of the subscription threads created so far */
+	private static final AtomicInteger subscriptionThreadCount = new AtomicInteger();
+
+	/** subscriptions to weather changes, notified by the weather service */
+	private static final WeatherSubscriptionIndex subscriptions = new WeatherSubscriptionIndex(
+			Integer.getInteger(SUBSCRIPTION_BUFFER_SIZE_PROPERTY, 64));
+
+	/**
+	 * writers of the subscription events, one thread per subscription up to
+	 * the maximum number of subscriptions, idle threads end after a minute
+	 */
+	private static final ExecutorService subscriptionExecutor = new ThreadPoolExecutor(
+			0, Integer.getInteger(MAX_SUBSCRIPTIONS_PROPERTY, 256), 60,
+			TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), runnable -> {
+				Thread thread = new Thread(runnable, "weather-subscription-"
+						+ subscriptionThreadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	static {
+		WeatherService.addUpdateListener(subscriptions);
+	}
+
+	/** current request to evaluate preconditions, null if not deployed */
+	@Context
+	private Request request;
+
 	/**
 	 * Retrieve service health including total size of valid data points and
 	 * request frequency information.
@@ -51,13 +152,27 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 		retval.put(WeatherService.RADIUS_FREQ,
 				WeatherService.calculateRadiusFrequency());
 
+		retval.put(WeatherQueryCache.CACHE_STATS, cache.getStats());
+
+		retval.put(WeatherSubscriptionIndex.SUBSCRIPTION_STATS,
+				subscriptions.getStats());
+
+		retval.put(WeatherDatagramListener.DATAGRAM_STATS,
+				WeatherDatagramListener.getStats());
+
+		retval.put(WeatherIngestPipeline.INGEST_STATS,
+				RestWeatherCollectorEndpoint.getIngestStats());
+
 		return gson.toJson(retval);
 	}
 
 	/**
 	 * Given a query in json format {'iata': CODE, 'radius': km} extracts the
 	 * requested airport information and return a list of matching atmosphere
-	 * information.
+	 * information. Results of known airports below the streaming radius carry
+	 * an entity tag of the versions they were built from, and a request whose
+	 * If-None-Match header still matches it is answered with 304 Not
+	 * Modified without building the result.
 	 *
 	 * @param iata
 	 *            the iataCode
@@ -72,15 +187,464 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 		double radius = getRadiusValue(radiusString);
 		// update request frequency using iata and radius
 		updateRequestFrequency(iata, radius);
+		// stream large results instead of building them in memory
+		AirportData referenceAirportData = AirportService.findAirportData(iata);
+		if (referenceAirportData != null && radius >= STREAMING_RADIUS) {
+			return Response.status(Response.Status.OK)
+					.entity(streamAtmosphericInfo(referenceAirportData, radius))
+					.build();
+		}
+		if (referenceAirportData == null) {
+			// unknown airports have no atmospheric information and no
+			// airports in their radius, they are not cached and not tagged
+			return Response.status(Response.Status.OK)
+					.entity(new AtmosphericInformationList()).build();
+		}
+		// find the cache entry and answer conditional requests before
+		// building the result
+		WeatherQueryCache.Entry entry = findCacheEntry(referenceAirportData,
+				radius);
+		EntityTag entityTag = new EntityTag(entry.getTag());
+		ResponseBuilder notModified = request == null ? null : request
+				.evaluatePreconditions(entityTag);
+		if (notModified != null) {
+			return notModified.tag(entityTag).build();
+		}
 		// build a list of atmospheric info for given iata and radius
-		List<AtmosphericInformation> atmInfoList = buildAtmosphericInfoList(
-				iata, radius);
+		List<AtmosphericInformation> atmInfoList = getCachedResult(iata,
+				radius, entry);
+		return Response.status(Response.Status.OK).entity(atmInfoList)
+				.tag(entityTag).build();
+	}
+
+	/**
+	 * Given an iata code and a count extracts the atmospheric information of
+	 * the nearest airports which have any data point value.
+	 *
+	 * @param iata
+	 *            the iataCode
+	 * @param kString
+	 *            the maximum number of airports
+	 *
+	 * @return a list of atmospheric information ordered by distance
+	 */
+	@Override
+	public Response nearest(String iata, String kString) {
+		// get airport data value from iata code
+		AirportData referenceAirportData = AirportService.findAirportData(iata);
+		if (referenceAirportData == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		int k;
+		try {
+			k = Integer.parseInt(kString);
+		} catch (NumberFormatException e) {
+			k = 0;
+		}
+		if (k <= 0) {
+			// a client error, not one of the service
+			logger.debug(MessageFormat.format(
+					"Nearest query has been rejected, count is not positive: \"{0}\"",
+					kString));
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		// update request frequency of the airport
+		AirportService.updateAirportDataFrequency(iata);
+		// find nearest airports having any data point value
+		AtmosphericInformationList atmInfoList = new AtmosphericInformationList();
+		for (AirportData currentData : AirportService.findNearestAirports(
+				referenceAirportData, k,
+				airportData -> WeatherService.hasAnyDataPointValue(airportData
+						.getIata()))) {
+			WeatherSnapshot snapshot = WeatherService.getSnapshot(currentData
+					.getIata());
+			// skip airports removed meanwhile
+			if (snapshot != null) {
+				atmInfoList.add(snapshot.getAtmosphericInformation(),
+						snapshot.getJsonFragment());
+			}
+		}
+		logger.debug(MessageFormat.format(
+				"Nearest atmospheric information list has been consructed: \"{0}\"",
+				atmInfoList));
 		return Response.status(Response.Status.OK).entity(atmInfoList).build();
 	}
 
+	/**
+	 * Given an iata code and an optional radius streams the changes of the
+	 * atmospheric information of the airport and the airports in the radius
+	 * as server-sent events. The airports in the radius are resolved when
+	 * the subscription is opened.
+	 *
+	 * @param iata
+	 *            the iataCode
+	 * @param radiusString
+	 *            the radius in km
+	 *
+	 * @return a stream of server-sent events
+	 */
+	@Override
+	public Response subscribe(String iata, String radiusString) {
+		// get airport data value from iata code
+		AirportData referenceAirportData = AirportService.findAirportData(iata);
+		if (referenceAirportData == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		double radius;
+		try {
+			radius = getRadiusValue(radiusString);
+		} catch (NumberFormatException e) {
+			// a client error, not one of the service
+			logger.debug(MessageFormat.format(
+					"Subscription has been rejected: \"{0}\"", e.getMessage()));
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		// resolve the airports to watch
+		List<String> iataCodes = new ArrayList<String>();
+		if (radius == 0) {
+			iataCodes.add(iata);
+		} else {
+			AirportService.forEachAirportInRadius(referenceAirportData,
+					radius, airportData -> iataCodes.add(airportData.getIata()));
+		}
+		// subscribe now, so no event is missed before the response starts
+		WeatherSubscriptionIndex.Subscription subscription = subscriptions
+				.subscribe(iataCodes);
+		logger.debug(MessageFormat.format(
+				"Subscription to \"{0}\" airports has been opened",
+				iataCodes.size()));
+		// chunks are flushed as they are written, on a thread of their own
+		ChunkedOutput<byte[]> output = new ChunkedOutput<byte[]>(byte[].class);
+		try {
+			subscriptionExecutor.execute(() -> pumpEvents(subscription, output));
+		} catch (RejectedExecutionException e) {
+			// every subscription thread is taken
+			subscriptions.unsubscribe(subscription);
+			logger.warn("Subscription has been refused, too many are open");
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+					.build();
+		}
+		return Response.status(Response.Status.OK).entity(output).build();
+	}
+
+	/**
+	 * Given a version returns the changes of the atmospheric information
+	 * after it from the change journal of the weather service, together with
+	 * the current atmospheric information of the changed airports.
+	 *
+	 * @param versionString
+	 *            the last version known by the client
+	 *
+	 * @return the changes after the version or a resync notice
+	 */
+	@Override
+	public Response changes(String versionString) {
+		long version;
+		try {
+			version = Long.parseLong(versionString);
+		} catch (NumberFormatException e) {
+			// a client error, not one of the service
+			logger.debug(MessageFormat.format(
+					"Changes query has been rejected: \"{0}\"", e.getMessage()));
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		WeatherChanges changes = WeatherService.getChangesSince(version);
+		logger.debug(MessageFormat.format(
+				"Changes since version \"{0}\" have been collected: \"{1}\"",
+				versionString, changes));
+		return Response.status(Response.Status.OK)
+				.entity(writeChanges(changes)).build();
+	}
+
+	@Override
+	public Response history(String iata, String pointType, String sinceString,
+			String untilString) {
+		WeatherReadings readings;
+		try {
+			long from = Long.parseLong(sinceString);
+			long to = untilString.isEmpty() ? Long.MAX_VALUE : Long
+					.parseLong(untilString);
+			readings = WeatherService.getHistory(iata, pointType, from, to);
+		} catch (NumberFormatException | WeatherException e) {
+			// a client error, not one of the service
+			logger.debug(MessageFormat.format(
+					"History query has been rejected: \"{0}\"", e.getMessage()));
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		if (readings == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		logger.debug(MessageFormat.format(
+				"\"{0}\" readings of \"{1}\" have been retrieved", readings.size(),
+				iata));
+		return Response.status(Response.Status.OK)
+				.entity(gson.toJson(readings)).build();
+	}
+
+	@Override
+	public Response rollup(String iata, String pointType, String resolution,
+			String sinceString, String untilString) {
+		WeatherRollup rollup;
+		try {
+			long from = Long.parseLong(sinceString);
+			long to = untilString.isEmpty() ? Long.MAX_VALUE : Long
+					.parseLong(untilString);
+			rollup = WeatherService.getRollup(iata, pointType, resolution,
+					from, to);
+		} catch (NumberFormatException | WeatherException e) {
+			// a client error, not one of the service
+			logger.debug(MessageFormat.format(
+					"Rollup query has been rejected: \"{0}\"", e.getMessage()));
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		if (rollup == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		logger.debug(MessageFormat.format(
+				"\"{0}\" rollup buckets of \"{1}\" have been retrieved",
+				rollup.size(), iata));
+		return Response.status(Response.Status.OK).entity(gson.toJson(rollup))
+				.build();
+	}
+
+	@Override
+	public Response aggregate(String iata, String pointType,
+			String radiusString, String quantiles) {
+		AirportData referenceAirportData = AirportService.findAirportData(iata);
+		if (referenceAirportData == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		double radius;
+		try {
+			radius = getRadiusValue(radiusString);
+		} catch (NumberFormatException e) {
+			// a client error, not one of the service
+			logger.debug(MessageFormat.format(
+					"Aggregate query has been rejected: \"{0}\"",
+					e.getMessage()));
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		List<String> iataCodes = new ArrayList<String>();
+		AirportService.forEachAirportInRadius(referenceAirportData, radius,
+				airportData -> iataCodes.add(airportData.getIata()));
+		WeatherAggregate aggregate;
+		try {
+			aggregate = WeatherService.getAggregate(iata, pointType, radius,
+					iataCodes, quantiles);
+		} catch (WeatherException e) {
+			// a client error, not one of the service
+			logger.debug(MessageFormat.format(
+					"Aggregate query has been rejected: \"{0}\"",
+					e.getMessage()));
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		logger.debug(MessageFormat.format(
+				"Sketches of \"{0}\" airports around \"{1}\" have been merged",
+				aggregate.getAirports(), iata));
+		return Response.status(Response.Status.OK)
+				.entity(gson.toJson(aggregate)).build();
+	}
+
+	/**
+	 * Creates a response entity which writes the given changes as a json
+	 * dict. Airports are written with their current json fragments, the ones
+	 * which are not known anymore are listed as removed.
+	 *
+	 * @param changes
+	 *            changes to write
+	 * @return {@link StreamingOutput} writing a json dict
+	 */
+	private StreamingOutput writeChanges(WeatherChanges changes) {
+		return entityStream -> {
+			Writer writer = new OutputStreamWriter(entityStream,
+					StandardCharsets.UTF_8);
+			writer.write("{\"version\":" + changes.getVersion()
+					+ ",\"resync\":" + changes.isResyncRequired()
+					+ ",\"changes\":[");
+			List<String> removed = new ArrayList<String>();
+			boolean first = true;
+			for (Map.Entry<String, Set<DataPointType>> change : changes
+					.getChangedTypes().entrySet()) {
+				byte[] jsonFragment = WeatherService.getJsonFragment(change
+						.getKey());
+				if (jsonFragment == null) {
+					removed.add(change.getKey());
+					continue;
+				}
+				writer.write(first ? "{\"iata\":" : ",{\"iata\":");
+				writer.write(gson.toJson(change.getKey()));
+				writer.write(",\"types\":");
+				writer.write(gson.toJson(change.getValue()));
+				writer.write(",\"weather\":");
+				writer.flush();
+				entityStream.write(jsonFragment);
+				writer.write('}');
+				first = false;
+			}
+			writer.write("],\"removed\":");
+			writer.write(gson.toJson(removed));
+			writer.write('}');
+			writer.flush();
+		};
+	}
+
+	/**
+	 * Given a json list of queries {'iata': CODE, 'radius': km} answers all of
+	 * them at once. Request frequencies are updated in bulk and every distinct
+	 * airport is scanned at most once, with its largest uncached radius. The
+	 * results of smaller radii are derived from that scan.
+	 *
+	 * @param queriesJson
+	 *            the queries in json format, radius is optional
+	 *
+	 * @return a list of query results in the order of the queries
+	 */
+	@Override
+	public Response batchWeather(String queriesJson) {
+		WeatherQuery[] queries;
+		try {
+			queries = gson.fromJson(queriesJson, WeatherQuery[].class);
+		} catch (JsonParseException e) {
+			queries = null;
+		}
+		if (queries == null || Arrays.stream(queries).anyMatch(
+				query -> query == null || query.getIata() == null)) {
+			logger.debug("Batch of queries is not a json list of queries");
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		// update request frequencies in bulk
+		List<String> iataCodes = new ArrayList<String>(queries.length);
+		List<Double> radii = new ArrayList<Double>(queries.length);
+		// distinct radii of every airport, mapped to their results
+		Map<String, Map<Double, List<AtmosphericInformation>>> results = new HashMap<>();
+		for (WeatherQuery query : queries) {
+			iataCodes.add(query.getIata());
+			radii.add(query.getRadius());
+			results.computeIfAbsent(query.getIata(), k -> new HashMap<>()).put(
+					query.getRadius(), null);
+		}
+		AirportService.updateAirportDataFrequencies(iataCodes);
+		WeatherService.updateRadiusDataFrequencies(radii);
+		// resolve the distinct queries of every airport
+		results.forEach(this::resolveQueries);
+		logger.debug(MessageFormat.format(
+				"Batch of \"{0}\" queries has been resolved", queries.length));
+		return Response.status(Response.Status.OK)
+				.entity(writeBatchResults(queries, results)).build();
+	}
+
+	/**
+	 * Resolves the results of the given radii of an airport, scanning the
+	 * airports in the largest radius which is not cached only once
+	 *
+	 * @param iata
+	 *            iata code of the airport
+	 * @param resultsByRadius
+	 *            radii of the airport, to be mapped to their results
+	 */
+	private void resolveQueries(String iata,
+			Map<Double, List<AtmosphericInformation>> resultsByRadius) {
+		AirportData referenceAirportData = AirportService.findAirportData(iata);
+		double maxRadius = 0;
+		for (Map.Entry<Double, List<AtmosphericInformation>> result : resultsByRadius
+				.entrySet()) {
+			double radius = result.getKey();
+			if (radius == 0) {
+				// no scan needed for the airport itself
+				result.setValue(buildAtmosphericInfoList(iata, radius));
+			} else if (referenceAirportData == null) {
+				// unknown airports have no airports in their radius
+				result.setValue(Collections.emptyList());
+			} else if (radius >= STREAMING_RADIUS) {
+				// large radii are not cached
+				result.setValue(buildAtmosphericInfoList(iata, radius,
+						AirportService.findAirportsInRadius(referenceAirportData,
+								radius)));
+			} else {
+				WeatherQueryCache.Entry entry = cache.get(iata, radius);
+				result.setValue(entry == null ? null : entry.getResult());
+				if (result.getValue() == null) {
+					maxRadius = Math.max(maxRadius, radius);
+				}
+			}
+		}
+		if (maxRadius == 0) {
+			return;
+		}
+		// capture the topology, then scan the largest missing radius once
+		long topologyVersion = AirportService.getTopologyVersion();
+		List<AirportData> airports = AirportService.findAirportsInRadius(
+				referenceAirportData, maxRadius);
+		double[] distances = new double[airports.size()];
+		for (int i = 0; i < distances.length; i++) {
+			distances[i] = AirportService.calculateDistance(
+					referenceAirportData, airports.get(i));
+		}
+		// derive and cache the missing results from the scan
+		for (Map.Entry<Double, List<AtmosphericInformation>> result : resultsByRadius
+				.entrySet()) {
+			if (result.getValue() == null) {
+				double radius = result.getKey();
+				List<AirportData> airportsInRadius = new ArrayList<AirportData>();
+				for (int i = 0; i < distances.length; i++) {
+					if (distances[i] <= radius) {
+						airportsInRadius.add(airports.get(i));
+					}
+				}
+				WeatherQueryCache.Entry entry = cache.newEntry(
+						topologyVersion, airportsInRadius);
+				result.setValue(buildAtmosphericInfoList(iata, radius,
+						airportsInRadius));
+				cache.put(iata, radius, entry, result.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Creates a response entity which writes the results of the given
+	 * queries as a json list
+	 *
+	 * @param queries
+	 *            queries in request order
+	 * @param results
+	 *            results of the queries by iata code and radius
+	 * @return {@link StreamingOutput} writing a json array
+	 */
+	private StreamingOutput writeBatchResults(WeatherQuery[] queries,
+			Map<String, Map<Double, List<AtmosphericInformation>>> results) {
+		return entityStream -> {
+			Writer writer = new OutputStreamWriter(entityStream,
+					StandardCharsets.UTF_8);
+			writer.write('[');
+			for (int i = 0; i < queries.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				List<AtmosphericInformation> atmInfoList = results.get(
+						queries[i].getIata()).get(queries[i].getRadius());
+				writer.write("{\"iata\":");
+				writer.write(gson.toJson(queries[i].getIata()));
+				writer.write(",\"radius\":");
+				writer.write(gson.toJson(queries[i].getRadius()));
+				writer.write(",\"weather\":[");
+				writer.flush();
+				for (int j = 0; j < atmInfoList.size(); j++) {
+					AtmosphericInformationListWriter.writeElement(
+							entityStream, j, atmInfoList.get(j),
+							atmInfoList instanceof AtmosphericInformationList ? ((AtmosphericInformationList) atmInfoList)
+									.getJsonFragment(j) : null);
+				}
+				writer.write("]}");
+			}
+			writer.write(']');
+			writer.flush();
+		};
+	}
+
 	/**
 	 * This method retrieves nearby atmospheric information for the airport with
-	 * the given iata code and using given radius
+	 * the given iata code and using given radius. Results are served from the
+	 * cache while none of the airports in the radius changed.
 	 * 
 	 * @param iata
 	 *            iata code of the airport to collect atmospheric information
@@ -91,27 +655,106 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	 */
 	private List<AtmosphericInformation> buildAtmosphericInfoList(String iata,
 			double radius) {
-		// define list of atmospheric information
-		List<AtmosphericInformation> atmInfoList = new ArrayList<AtmosphericInformation>();
+		// get airport data value from iata code
+		AirportData referenceAirportData = AirportService.findAirportData(iata);
+		if (referenceAirportData == null) {
+			// unknown airports have no atmospheric information and no
+			// airports in their radius, they are not cached
+			return new AtmosphericInformationList();
+		}
+		return getCachedResult(iata, radius,
+				findCacheEntry(referenceAirportData, radius));
+	}
+
+	/**
+	 * This method finds the valid cache entry of the given query, or creates
+	 * a new one capturing the versions of the airports in the radius
+	 * 
+	 * @param referenceAirportData
+	 *            airport to collect atmospheric information for
+	 * @param radius
+	 *            radius to get atmospheric information of nearby airports
+	 * @return cache entry, whose result is null if it is a new one
+	 */
+	private WeatherQueryCache.Entry findCacheEntry(
+			AirportData referenceAirportData, double radius) {
+		// look for a valid cached result
+		WeatherQueryCache.Entry entry = cache.get(
+				referenceAirportData.getIata(), radius);
+		if (entry == null) {
+			// capture the topology before finding airports in the radius
+			long topologyVersion = AirportService.getTopologyVersion();
+			List<AirportData> airports = radius == 0 ? Collections
+					.singletonList(referenceAirportData) : AirportService
+					.findAirportsInRadius(referenceAirportData, radius);
+			// capture versions before reading atmospheric information
+			entry = cache.newEntry(topologyVersion, airports);
+		}
+		return entry;
+	}
+
+	/**
+	 * This method returns the result of the given cache entry, building and
+	 * caching it if it is a new entry
+	 * 
+	 * @param iata
+	 *            iata code of the airport to collect atmospheric information
+	 *            for
+	 * @param radius
+	 *            radius to get atmospheric information of nearby airports
+	 * @param entry
+	 *            cache entry of the query
+	 * @return {@link List} of {@link AtmosphericInformation}s
+	 */
+	private List<AtmosphericInformation> getCachedResult(String iata,
+			double radius, WeatherQueryCache.Entry entry) {
+		if (entry.getResult() == null) {
+			cache.put(iata, radius, entry, buildAtmosphericInfoList(iata,
+					radius, entry.getAirports()));
+		}
+		return entry.getResult();
+	}
+
+	/**
+	 * This method builds the list of atmospheric information of the given
+	 * airports in the radius
+	 * 
+	 * @param iata
+	 *            iata code of the airport to collect atmospheric information
+	 *            for
+	 * @param radius
+	 *            radius to get atmospheric information of nearby airports
+	 * @param airports
+	 *            airports in the radius
+	 * @return {@link List} of {@link AtmosphericInformation}s
+	 */
+	private List<AtmosphericInformation> buildAtmosphericInfoList(String iata,
+			double radius, List<AirportData> airports) {
+		// define list of atmospheric information with their json fragments
+		AtmosphericInformationList atmInfoList = new AtmosphericInformationList();
 		// fill atmospheric information list
 		if (radius == 0) {
-			atmInfoList.add(WeatherService.getAtmosphericInformation(iata));
+			// unknown airports have no atmospheric information
+			WeatherSnapshot snapshot = WeatherService.getSnapshot(iata);
+			if (snapshot != null) {
+				atmInfoList.add(snapshot.getAtmosphericInformation(),
+						snapshot.getJsonFragment());
+			}
 		} else {
-			// get airport data value from iata code
-			AirportData referenceAirportData = AirportService
-					.findAirportData(iata);
-			// iterate on airport values
-			for (AirportData currentData : AirportService.getAirportValues()) {
-				if (AirportService.calculateDistance(referenceAirportData,
-						currentData) <= radius) {
-					// get atmospheric information
-					AtmosphericInformation atmInfo = WeatherService
-							.getAtmosphericInformation(currentData.getIata());
-					// add atmospheric information to the list if it has any
-					// data point value
-					if (atmInfo.hasAnyDataPointValue()) {
-						atmInfoList.add(atmInfo);
-					}
+			// iterate on airport values in the radius
+			for (AirportData currentData : airports) {
+				// skip airports without any data point value before
+				// materializing their atmospheric information
+				if (!WeatherService.hasAnyDataPointValue(currentData.getIata())) {
+					continue;
+				}
+				// get atmospheric information with its pre-serialized json
+				// fragment, airports removed meanwhile are skipped
+				WeatherSnapshot snapshot = WeatherService
+						.getSnapshot(currentData.getIata());
+				if (snapshot != null) {
+					atmInfoList.add(snapshot.getAtmosphericInformation(),
+							snapshot.getJsonFragment());
 				}
 			}
 		}
@@ -121,6 +764,93 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 		return atmInfoList;
 	}
 
+	/**
+	 * This method creates a response entity which writes the atmospheric
+	 * information of every airport with any data point value in the radius
+	 * as soon as the scan finds it, so the memory of a request does not grow
+	 * with its result. Streamed results are not cached for the same reason.
+	 * 
+	 * @param referenceAirportData
+	 *            airport to collect atmospheric information for
+	 * @param radius
+	 *            radius to get atmospheric information of nearby airports
+	 * @return {@link StreamingOutput} writing a json array
+	 */
+	private StreamingOutput streamAtmosphericInfo(
+			AirportData referenceAirportData, double radius) {
+		return entityStream -> {
+			entityStream.write('[');
+			int[] count = new int[1];
+			try {
+				AirportService.forEachAirportInRadius(referenceAirportData,
+						radius, currentData -> {
+							// skip airports without any data point value
+							if (!WeatherService.hasAnyDataPointValue(currentData
+									.getIata())) {
+								return;
+							}
+							// get atmospheric information with its
+							// pre-serialized json fragment, airports removed
+							// meanwhile are skipped
+							WeatherSnapshot snapshot = WeatherService
+									.getSnapshot(currentData.getIata());
+							if (snapshot != null) {
+								try {
+									AtmosphericInformationListWriter
+											.writeElement(entityStream,
+													count[0]++, snapshot
+															.getAtmosphericInformation(),
+													snapshot.getJsonFragment());
+								} catch (IOException e) {
+									throw new UncheckedIOException(e);
+								}
+							}
+						});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			entityStream.write(']');
+			logger.debug(MessageFormat.format(
+					"Atmospheric information of \"{0}\" airports has been streamed",
+					count[0]));
+		};
+	}
+
+	/**
+	 * This method writes the events of the given subscription to the given
+	 * output until the client disconnects. A comment is written whenever no
+	 * event arrives for a heartbeat period, so a disconnected client is
+	 * noticed.
+	 * 
+	 * @param subscription
+	 *            subscription to the watched airports
+	 * @param output
+	 *            chunked output of the response
+	 */
+	private static void pumpEvents(
+			WeatherSubscriptionIndex.Subscription subscription,
+			ChunkedOutput<byte[]> output) {
+		try {
+			output.write(SUBSCRIBED_COMMENT);
+			while (!output.isClosed()) {
+				byte[] event = subscription.poll(HEARTBEAT_MILLIS);
+				output.write(event != null ? event : HEARTBEAT_COMMENT);
+			}
+		} catch (IOException e) {
+			logger.debug("Subscriber has disconnected");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			subscriptions.unsubscribe(subscription);
+			try {
+				output.close();
+			} catch (IOException e) {
+				logger.debug("Subscription output could not be closed");
+			}
+			logger.debug("Subscription has been closed");
+		}
+	}
+
 	/**
 	 * get {@link Double} type radius value from string
 	 * 
@@ -0,0 +1,209 @@
+package com.crossover.trial.weather.endpoint.query;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.crossover.trial.weather.pojo.AirportData;
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.util.AirportService;
+import com.crossover.trial.weather.util.WeatherService;
+
+/**
+ * A bounded LRU cache of weather query results keyed by iata code and radius.
+ *
+ * An entry remembers the topology version of {@link AirportService} and the
+ * version of every airport in the query radius at the time it was built,
+ * including the airports without any data point value. It is only served
+ * while none of them changed, so an update of one airport invalidates exactly
+ * the entries whose radius covers it.
+ *
+ * @author burak
+ */
+class WeatherQueryCache {
+
+	/**
+	 * cache statistics naming constant
+	 */
+	static final String CACHE_STATS = "cache";
+
+	/** cached entries in access order */
+	private final LinkedHashMap<String, Entry> entries;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * @param maxSize
+	 *            maximum number of entries, the least recently used entry is
+	 *            evicted beyond it
+	 */
+	WeatherQueryCache(int maxSize) {
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Captures the versions of the given airports before a result is built
+	 * from them, so changes during the build invalidate the entry
+	 *
+	 * @param topologyVersion
+	 *            topology version of {@link AirportService} read before the
+	 *            airports in the radius were found, so airports added or
+	 *            removed during the scan invalidate the entry
+	 * @param airports
+	 *            airports in the query radius
+	 * @return entry to complete with {@link #put}
+	 */
+	Entry newEntry(long topologyVersion, List<AirportData> airports) {
+		long[] versions = new long[airports.size()];
+		for (int i = 0; i < versions.length; i++) {
+			versions[i] = WeatherService.getVersion(airports.get(i).getIata());
+		}
+		return new Entry(topologyVersion, airports, versions);
+	}
+
+	/**
+	 * Returns the cached entry of the given query if none of its airports
+	 * changed since it was built
+	 *
+	 * @param iata
+	 *            iata code of the query
+	 * @param radius
+	 *            radius of the query
+	 * @return cached entry or null
+	 */
+	synchronized Entry get(String iata, double radius) {
+		Entry entry = entries.get(key(iata, radius));
+		if (entry != null && entry.isValid()) {
+			hits++;
+			return entry;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Caches the given result of the given query
+	 *
+	 * @param iata
+	 *            iata code of the query
+	 * @param radius
+	 *            radius of the query
+	 * @param entry
+	 *            entry created by {@link #newEntry} before building the result
+	 * @param result
+	 *            result of the query
+	 */
+	synchronized void put(String iata, double radius, Entry entry,
+			List<AtmosphericInformation> result) {
+		entry.result = result;
+		entries.put(key(iata, radius), entry);
+	}
+
+	/**
+	 * clears the entries and statistics
+	 */
+	synchronized void clear() {
+		entries.clear();
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * @return hit, miss and eviction counters and current size
+	 */
+	synchronized Map<String, Long> getStats() {
+		Map<String, Long> stats = new HashMap<String, Long>();
+		stats.put("hits", hits);
+		stats.put("misses", misses);
+		stats.put("evictions", evictions);
+		stats.put("size", (long) entries.size());
+		return stats;
+	}
+
+	private static String key(String iata, double radius) {
+		return iata + '/' + radius;
+	}
+
+	/**
+	 * A cached result with the versions it was built from
+	 */
+	static class Entry {
+
+		private final long topologyVersion;
+
+		private final List<AirportData> airports;
+
+		private final long[] versions;
+
+		private List<AtmosphericInformation> result;
+
+		private Entry(long topologyVersion, List<AirportData> airports,
+				long[] versions) {
+			this.topologyVersion = topologyVersion;
+			this.airports = airports;
+			this.versions = versions;
+		}
+
+		/**
+		 * @return airports in the query radius
+		 */
+		List<AirportData> getAirports() {
+			return airports;
+		}
+
+		/**
+		 * @return result of the query, null until it is put to the cache
+		 */
+		List<AtmosphericInformation> getResult() {
+			return result;
+		}
+
+		/**
+		 * Builds an entity tag of the captured versions. Versions come from a
+		 * single increasing sequence, so any change of an airport in the
+		 * radius raises the greatest version and any change of the radius
+		 * content raises the topology version.
+		 *
+		 * @return entity tag value of the query result
+		 */
+		String getTag() {
+			long maxVersion = -1;
+			for (long version : versions) {
+				maxVersion = Math.max(maxVersion, version);
+			}
+			return Long.toHexString(topologyVersion) + '-'
+					+ Long.toHexString(maxVersion);
+		}
+
+		private boolean isValid() {
+			if (topologyVersion != AirportService.getTopologyVersion()) {
+				return false;
+			}
+			for (int i = 0; i < versions.length; i++) {
+				if (versions[i] != WeatherService.getVersion(airports.get(i)
+						.getIata())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -1,9 +1,13 @@
 package com.crossover.trial.weather.endpoint.query;
 
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -44,4 +48,175 @@ public interface WeatherQueryEndpoint {
 	@Produces(MediaType.APPLICATION_JSON)
 	Response weather(@PathParam("iata") String iata,
 			@PathParam("radius") String radiusString);
+
+	/**
+	 * Retrieve the most up to date atmospheric information of the airports
+	 * nearest to the given airport, skipping airports without any data point.
+	 *
+	 * @param iata
+	 *            the three letter airport code
+	 * @param kString
+	 *            the maximum number of airports to return
+	 *
+	 * @return an HTTP Response and a list of {@link AtmosphericInformation}
+	 *         ordered by the distance of the airports, starting with the
+	 *         requested airport itself, or 400 Bad Request if the number is
+	 *         not a positive integer
+	 */
+	@GET
+	@Path("/nearest/{iata}/{k}")
+	@Produces(MediaType.APPLICATION_JSON)
+	Response nearest(@PathParam("iata") String iata,
+			@PathParam("k") String kString);
+
+	/**
+	 * Retrieve the most up to date atmospheric information of several
+	 * airports and the airports in their radius in a single request.
+	 *
+	 * @param queriesJson
+	 *            a json list of dicts with iata and optional radius keys
+	 *
+	 * @return an HTTP Response and a json list of dicts with iata, radius and
+	 *         weather keys in the order of the queries, where weather is the
+	 *         list of {@link AtmosphericInformation} the single query returns,
+	 *         or 400 Bad Request if the body is not a list of queries with
+	 *         iata codes
+	 */
+	@POST
+	@Path("/weather")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	Response batchWeather(String queriesJson);
+
+	/**
+	 * Subscribe to the changes of the atmospheric information of the given
+	 * airport and the airports in the given radius as server-sent events. An
+	 * event named weather is sent with the iata code and the new
+	 * {@link AtmosphericInformation} whenever a data point is accepted.
+	 *
+	 * @param iata
+	 *            the three letter airport code
+	 * @param radiusString
+	 *            the optional radius, in km, of the airports to watch
+	 *
+	 * @return an HTTP Response streaming the events until the client
+	 *         disconnects, 400 Bad Request if the radius is not a number,
+	 *         503 Service Unavailable if the maximum number of subscriptions
+	 *         is open
+	 */
+	@GET
+	@Path("/subscribe/{iata}")
+	@Produces("text/event-stream")
+	Response subscribe(@PathParam("iata") String iata,
+			@QueryParam("radius") @DefaultValue("0") String radiusString);
+
+	/**
+	 * Retrieve the airports whose atmospheric information changed after the
+	 * given version, to sync a mirror of the data incrementally.
+	 *
+	 * @param versionString
+	 *            the last version known by the client, 0 for all changes
+	 *
+	 * @return an HTTP Response and a json dict with the version to ask from
+	 *         next time, a resync flag which is true when the changes are not
+	 *         retained anymore and a full resync is required, the changed
+	 *         airports with their changed data point types and current
+	 *         {@link AtmosphericInformation}, and the removed airports, or
+	 *         400 Bad Request if the version is not a number
+	 */
+	@GET
+	@Path("/changes/{version}")
+	@Produces(MediaType.APPLICATION_JSON)
+	Response changes(@PathParam("version") String versionString);
+
+	/**
+	 * Retrieve the recent readings of a data point type of the given airport,
+	 * optionally in a time range. A bounded number of the latest readings is
+	 * kept per airport and data point type.
+	 *
+	 * @param iata
+	 *            the three letter airport code
+	 * @param pointType
+	 *            the data point type, case insensitive
+	 * @param sinceString
+	 *            the optional start of the time range, in milliseconds since
+	 *            UTC epoch, inclusive
+	 * @param untilString
+	 *            the optional end of the time range, in milliseconds since
+	 *            UTC epoch, inclusive
+	 *
+	 * @return an HTTP Response and a json dict with iata, pointType, and the
+	 *         times and means lists of the readings oldest first, or 400 Bad
+	 *         Request if the point type or a time is not valid
+	 */
+	@GET
+	@Path("/history/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	Response history(@PathParam("iata") String iata,
+			@PathParam("pointType") String pointType,
+			@QueryParam("from") @DefaultValue("0") String sinceString,
+			@QueryParam("to") @DefaultValue("") String untilString);
+
+	/**
+	 * Retrieve the hourly or daily minimum, maximum and mean of a data point
+	 * type of the given airport, optionally in a time range. The aggregates
+	 * are updated as the data points arrive and a bounded number of the
+	 * latest buckets is kept per resolution.
+	 *
+	 * @param iata
+	 *            the three letter airport code
+	 * @param pointType
+	 *            the data point type, case insensitive
+	 * @param resolution
+	 *            hour or day
+	 * @param sinceString
+	 *            the optional start of the time range, in milliseconds since
+	 *            UTC epoch, inclusive
+	 * @param untilString
+	 *            the optional end of the time range, in milliseconds since
+	 *            UTC epoch, inclusive
+	 *
+	 * @return an HTTP Response and a json dict with iata, pointType,
+	 *         resolution, and the starts, counts, mins, maxs and means lists
+	 *         of the buckets overlapping the time range oldest first, or 400
+	 *         Bad Request if the point type, the resolution or a time is not
+	 *         valid
+	 */
+	@GET
+	@Path("/rollup/{iata}/{pointType}/{resolution}")
+	@Produces(MediaType.APPLICATION_JSON)
+	Response rollup(@PathParam("iata") String iata,
+			@PathParam("pointType") String pointType,
+			@PathParam("resolution") String resolution,
+			@QueryParam("from") @DefaultValue("0") String sinceString,
+			@QueryParam("to") @DefaultValue("") String untilString);
+
+	/**
+	 * Retrieve estimated quantiles of the recent readings of a data point
+	 * type over the airports in the radius of the given airport. The
+	 * quantile sketches of the airports are merged on the server, so the
+	 * response stays small for any number of airports.
+	 *
+	 * @param iata
+	 *            the three letter airport code
+	 * @param pointType
+	 *            the data point type, case insensitive
+	 * @param radiusString
+	 *            the radius in km
+	 * @param quantiles
+	 *            the optional comma separated quantiles between 0 and 1
+	 *
+	 * @return an HTTP Response and a json dict with iata, pointType, radius,
+	 *         the number of airports with recent readings, the number of
+	 *         readings, and the quantiles and values lists, or 400 Bad
+	 *         Request if the point type, the radius or the quantiles are not
+	 *         valid
+	 */
+	@GET
+	@Path("/aggregate/{iata}/{pointType}/{radius}")
+	@Produces(MediaType.APPLICATION_JSON)
+	Response aggregate(@PathParam("iata") String iata,
+			@PathParam("pointType") String pointType,
+			@PathParam("radius") String radiusString,
+			@QueryParam("q") @DefaultValue("0.25,0.5,0.75") String quantiles);
 }
@@ -0,0 +1,212 @@
+package com.crossover.trial.weather.endpoint.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.util.WeatherService;
+import com.crossover.trial.weather.util.WeatherUpdateListener;
+import com.google.gson.Gson;
+
+/**
+ * Index of the server-sent event subscriptions keyed by the iata codes of the
+ * airports they watch. An accepted data point is offered to the subscriptions
+ * of its airport only, as its iata code and version, since it is accepted
+ * while the writers of the weather service are blocked. It is formatted as an
+ * event with the current atmospheric information of the airport once, by the
+ * first subscription sending it on its own thread.
+ *
+ * Every subscription buffers its events in a bounded queue. When a slow
+ * consumer lets its queue fill up the oldest event is dropped, so ingest is
+ * never blocked by a subscriber.
+ *
+ * @author burak
+ */
+class WeatherSubscriptionIndex implements WeatherUpdateListener {
+
+	/**
+	 * subscription statistics naming constant
+	 */
+	static final String SUBSCRIPTION_STATS = "subscriptions";
+
+	/** shared gson json to object factory */
+	private static final Gson gson = new Gson();
+
+	/** subscriptions of each airport */
+	private final Map<String, Set<Subscription>> subscriptionMap = new ConcurrentHashMap<String, Set<Subscription>>();
+
+	/** number of open subscriptions */
+	private final AtomicLong subscriptionCount = new AtomicLong();
+
+	/** number of events dropped because of full buffers */
+	private final AtomicLong droppedEvents = new AtomicLong();
+
+	/** maximum number of buffered events of a subscription */
+	private final int bufferSize;
+
+	/**
+	 * @param bufferSize
+	 *            maximum number of buffered events of a subscription
+	 */
+	WeatherSubscriptionIndex(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Opens a subscription to the given airports
+	 *
+	 * @param iataCodes
+	 *            iata codes of the airports to watch
+	 * @return the new subscription, to be closed by {@link #unsubscribe}
+	 */
+	Subscription subscribe(Collection<String> iataCodes) {
+		Subscription subscription = new Subscription(iataCodes);
+		for (String iataCode : iataCodes) {
+			// add atomically, so an unsubscribe can not drop the set
+			subscriptionMap.compute(iataCode, (k, subscriptions) -> {
+				Set<Subscription> result = subscriptions != null ? subscriptions
+						: ConcurrentHashMap.newKeySet();
+				result.add(subscription);
+				return result;
+			});
+		}
+		subscriptionCount.incrementAndGet();
+		return subscription;
+	}
+
+	/**
+	 * Closes the given subscription
+	 *
+	 * @param subscription
+	 *            subscription opened by {@link #subscribe}
+	 */
+	void unsubscribe(Subscription subscription) {
+		for (String iataCode : subscription.iataCodes) {
+			subscriptionMap.computeIfPresent(iataCode, (k, subscriptions) -> {
+				subscriptions.remove(subscription);
+				return subscriptions.isEmpty() ? null : subscriptions;
+			});
+		}
+		subscriptionCount.decrementAndGet();
+	}
+
+	@Override
+	public void weatherUpdated(String iataCode, DataPointType pointType,
+			DataPoint dataPoint, long version) {
+		Set<Subscription> subscriptions = subscriptionMap.get(iataCode);
+		if (subscriptions == null || subscriptions.isEmpty()) {
+			return;
+		}
+		// the event is formatted later, by the subscriptions
+		Event event = new Event(iataCode, version);
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	/**
+	 * @return number of open subscriptions and dropped events
+	 */
+	Map<String, Long> getStats() {
+		Map<String, Long> stats = new HashMap<String, Long>();
+		stats.put("open", subscriptionCount.get());
+		stats.put("dropped", droppedEvents.get());
+		return stats;
+	}
+
+	/**
+	 * An accepted data point of an airport, shared by the subscriptions of
+	 * the airport
+	 */
+	private static final class Event {
+
+		private final String iataCode;
+
+		private final long version;
+
+		/** the event formatted by the first subscription sending it */
+		private volatile byte[] formatted;
+
+		private Event(String iataCode, long version) {
+			this.iataCode = iataCode;
+			this.version = version;
+		}
+
+		/**
+		 * Formats the event with the current atmospheric information of the
+		 * airport, racing subscriptions may both format it
+		 *
+		 * @return the event formatted as a server-sent event, or null if the
+		 *         airport has been removed meanwhile
+		 */
+		private byte[] format() {
+			byte[] result = formatted;
+			if (result == null) {
+				byte[] jsonFragment = WeatherService.getJsonFragment(iataCode);
+				if (jsonFragment == null) {
+					// removed meanwhile or not serializable, there is
+					// nothing to send
+					return null;
+				}
+				result = ("id: " + version
+						+ "\nevent: weather\ndata: {\"iata\":"
+						+ gson.toJson(iataCode) + ",\"weather\":"
+						+ new String(jsonFragment, StandardCharsets.UTF_8)
+						+ "}\n\n").getBytes(StandardCharsets.UTF_8);
+				formatted = result;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A subscription to the events of some airports
+	 */
+	class Subscription {
+
+		private final Collection<String> iataCodes;
+
+		private final BlockingQueue<Event> events = new ArrayBlockingQueue<Event>(
+				bufferSize);
+
+		private Subscription(Collection<String> iataCodes) {
+			this.iataCodes = iataCodes;
+		}
+
+		/**
+		 * Buffers the given event, dropping the oldest ones while the buffer
+		 * is full
+		 */
+		private void offer(Event event) {
+			while (!events.offer(event)) {
+				if (events.poll() != null) {
+					droppedEvents.incrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Waits for the next event of the subscription and formats it
+		 *
+		 * @param timeoutMillis
+		 *            maximum time to wait in milliseconds
+		 * @return the next event formatted as a server-sent event, or null if
+		 *         none arrived in time or its airport has been removed
+		 * @throws InterruptedException
+		 *             if the thread is interrupted while waiting
+		 */
+		byte[] poll(long timeoutMillis) throws InterruptedException {
+			Event event = events.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			return event != null ? event.format() : null;
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package com.crossover.trial.weather.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.crossover.trial.weather.pojo.AirportData;
+
+/**
+ * A structure-of-arrays store of airport coordinates. Every airport gets a
+ * dense id and the precomputed sin/cos terms of its location, its unit sphere
+ * (x, y, z) coordinates, are kept in contiguous primitive arrays at that
+ * index. A radius scan over all airports is a single loop over three double
+ * arrays without touching the {@link AirportData} objects on the heap.
+ *
+ * The distance kernel compares squared chord lengths against the chord of the
+ * query radius, 4 * sin^2(radius / 2R), which is the haversine formula without
+ * the trigonometry per airport. It writes into a scratch array in a branch
+ * free loop which the JIT can vectorise, and the matches are selected in a
+ * second pass.
+ *
+ * @author burak
+ */
+public class AirportCoordinateStore {
+
+	/** initial capacity of the arrays */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * tolerance added to the squared chord of the radius, so rounding never
+	 * drops an airport which is exactly on the circle
+	 */
+	private static final double CHORD_TOLERANCE = 1e-12;
+
+	/** per thread scratch array of the distance kernel */
+	private static final ThreadLocal<double[]> SCRATCH = ThreadLocal
+			.withInitial(() -> new double[INITIAL_CAPACITY]);
+
+	/** earth radius in KM used to convert query radius to an angle */
+	private final double earthRadiusKm;
+
+	/** dense ids keyed by iata code */
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	/** airports indexed by dense id */
+	private AirportData[] airports = new AirportData[INITIAL_CAPACITY];
+
+	/** cos(latitude) * cos(longitude) */
+	private double[] xs = new double[INITIAL_CAPACITY];
+
+	/** cos(latitude) * sin(longitude) */
+	private double[] ys = new double[INITIAL_CAPACITY];
+
+	/** sin(latitude) */
+	private double[] zs = new double[INITIAL_CAPACITY];
+
+	/** number of airports */
+	private int size;
+
+	public AirportCoordinateStore(double earthRadiusKm) {
+		this.earthRadiusKm = earthRadiusKm;
+	}
+
+	/**
+	 * Adds the given airport, replacing the coordinates of an airport with
+	 * the same iata code
+	 *
+	 * @param airportData
+	 *            airport to add
+	 */
+	public void add(AirportData airportData) {
+		Integer id = ids.get(airportData.getIata());
+		if (id == null) {
+			if (size == airports.length) {
+				grow();
+			}
+			id = size++;
+			ids.put(airportData.getIata(), id);
+		}
+		double lat = Math.toRadians(airportData.getLatitude());
+		double lon = Math.toRadians(airportData.getLongitude());
+		airports[id] = airportData;
+		xs[id] = Math.cos(lat) * Math.cos(lon);
+		ys[id] = Math.cos(lat) * Math.sin(lon);
+		zs[id] = Math.sin(lat);
+	}
+
+	/**
+	 * Removes the airport with the given iata code. The last airport is moved
+	 * into its place to keep the ids dense.
+	 *
+	 * @param iata
+	 *            iata code of the airport to remove
+	 */
+	public void remove(String iata) {
+		Integer id = ids.remove(iata);
+		if (id == null) {
+			return;
+		}
+		int last = --size;
+		if (id != last) {
+			airports[id] = airports[last];
+			xs[id] = xs[last];
+			ys[id] = ys[last];
+			zs[id] = zs[last];
+			ids.put(airports[id].getIata(), id);
+		}
+		airports[last] = null;
+	}
+
+	/**
+	 * clears the store
+	 */
+	public void clear() {
+		ids.clear();
+		Arrays.fill(airports, 0, size, null);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Passes every airport whose distance to the given location is at most
+	 * the given radius to the given consumer. Airports which are only a
+	 * rounding error away from the circle may be passed too.
+	 *
+	 * @param latitude
+	 *            latitude of the circle center in degrees
+	 * @param longitude
+	 *            longitude of the circle center in degrees
+	 * @param radius
+	 *            radius of the circle in KM
+	 * @param consumer
+	 *            consumer of the airports in the circle
+	 */
+	public void forEachInRadius(double latitude, double longitude,
+			double radius, Consumer<AirportData> consumer) {
+		forEachInRadius(latitude, longitude, radius, 0, size, consumer);
+	}
+
+	/**
+	 * Passes every airport with an id in the given range whose distance to
+	 * the given location is at most the given radius to the given consumer.
+	 * Airports which are only a rounding error away from the circle may be
+	 * passed too.
+	 *
+	 * @param latitude
+	 *            latitude of the circle center in degrees
+	 * @param longitude
+	 *            longitude of the circle center in degrees
+	 * @param radius
+	 *            radius of the circle in KM
+	 * @param from
+	 *            first id, inclusive
+	 * @param to
+	 *            last id, exclusive
+	 * @param consumer
+	 *            consumer of the airports in the circle
+	 */
+	public void forEachInRadius(double latitude, double longitude,
+			double radius, int from, int to, Consumer<AirportData> consumer) {
+		if (radius < 0) {
+			return;
+		}
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double x = Math.cos(lat) * Math.cos(lon);
+		double y = Math.cos(lat) * Math.sin(lon);
+		double z = Math.sin(lat);
+		// squared chord of the radius, any chord is within 4 when the radius
+		// covers the whole sphere
+		double halfAngle = Math.min(radius / earthRadiusKm, Math.PI) / 2;
+		double maxChord = 4 * Math.sin(halfAngle) * Math.sin(halfAngle)
+				+ CHORD_TOLERANCE;
+		double[] chords = scratch(to - from);
+		squaredChords(x, y, z, from, to, chords);
+		for (int i = from; i < to; i++) {
+			if (chords[i - from] <= maxChord) {
+				consumer.accept(airports[i]);
+			}
+		}
+	}
+
+	/**
+	 * Finds the airports whose distance to the given location is at most the
+	 * given radius and which are accepted by the given filter, splitting the
+	 * ids into ranges which are scanned in parallel by the given pool
+	 *
+	 * @param latitude
+	 *            latitude of the circle center in degrees
+	 * @param longitude
+	 *            longitude of the circle center in degrees
+	 * @param radius
+	 *            radius of the circle in KM
+	 * @param filter
+	 *            filter of the airports in the circle, it is called from the
+	 *            threads of the pool
+	 * @param pool
+	 *            pool running the scan
+	 * @param rangeSize
+	 *            maximum number of ids scanned by a single task
+	 * @return {@link List} of the accepted airports in id order
+	 */
+	public List<AirportData> findInRadiusParallel(double latitude,
+			double longitude, double radius, Predicate<AirportData> filter,
+			ForkJoinPool pool, int rangeSize) {
+		return pool.invoke(new RadiusScanTask(latitude, longitude, radius,
+				filter, 0, size, Math.max(1, rangeSize)));
+	}
+
+	/**
+	 * The distance kernel, writes the squared chord length between the given
+	 * unit vector and every airport in the given id range into the given array
+	 */
+	private void squaredChords(double x, double y, double z, int from, int to,
+			double[] chords) {
+		double[] xs = this.xs;
+		double[] ys = this.ys;
+		double[] zs = this.zs;
+		for (int i = from; i < to; i++) {
+			double dx = xs[i] - x;
+			double dy = ys[i] - y;
+			double dz = zs[i] - z;
+			chords[i - from] = dx * dx + dy * dy + dz * dz;
+		}
+	}
+
+	/**
+	 * Returns the scratch array of the current thread with at least the given
+	 * length
+	 */
+	private static double[] scratch(int length) {
+		double[] scratch = SCRATCH.get();
+		if (scratch.length < length) {
+			scratch = new double[Math.max(length, scratch.length * 2)];
+			SCRATCH.set(scratch);
+		}
+		return scratch;
+	}
+
+	/**
+	 * Doubles the capacity of the arrays
+	 */
+	private void grow() {
+		int capacity = airports.length * 2;
+		airports = Arrays.copyOf(airports, capacity);
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		zs = Arrays.copyOf(zs, capacity);
+	}
+
+	/**
+	 * A task scanning a range of ids, it splits itself in halves until the
+	 * range is small enough
+	 */
+	private class RadiusScanTask extends RecursiveTask<List<AirportData>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double latitude;
+
+		private final double longitude;
+
+		private final double radius;
+
+		private final Predicate<AirportData> filter;
+
+		private final int from;
+
+		private final int to;
+
+		private final int rangeSize;
+
+		private RadiusScanTask(double latitude, double longitude,
+				double radius, Predicate<AirportData> filter, int from, int to,
+				int rangeSize) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.radius = radius;
+			this.filter = filter;
+			this.from = from;
+			this.to = to;
+			this.rangeSize = rangeSize;
+		}
+
+		@Override
+		protected List<AirportData> compute() {
+			if (to - from <= rangeSize) {
+				List<AirportData> matches = new ArrayList<AirportData>();
+				forEachInRadius(latitude, longitude, radius, from, to,
+						airportData -> {
+							if (filter.test(airportData)) {
+								matches.add(airportData);
+							}
+						});
+				return matches;
+			}
+			int middle = (from + to) >>> 1;
+			RadiusScanTask left = new RadiusScanTask(latitude, longitude,
+					radius, filter, from, middle, rangeSize);
+			RadiusScanTask right = new RadiusScanTask(latitude, longitude,
+					radius, filter, middle, to, rangeSize);
+			left.fork();
+			List<AirportData> matches = right.compute();
+			List<AirportData> leftMatches = left.join();
+			leftMatches.addAll(matches);
+			return leftMatches;
+		}
+	}
+}
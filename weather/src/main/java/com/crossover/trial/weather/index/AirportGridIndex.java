@@ -0,0 +1,207 @@
+package com.crossover.trial.weather.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.crossover.trial.weather.pojo.AirportData;
+
+/**
+ * A spatial index which buckets airports into fixed size latitude/longitude
+ * cells. Radius queries only visit the cells overlapped by the query circle,
+ * so callers only need to run the exact distance check on a small candidate
+ * set instead of every known airport.
+ *
+ * Cells which contain a pole are expanded to every longitude and longitude
+ * ranges wrap around the antimeridian.
+ *
+ * @author burak
+ */
+public class AirportGridIndex {
+
+	/** size of a cell edge in degrees */
+	private static final double CELL_SIZE_DEGREES = 1.0;
+
+	/** number of latitude rows */
+	private static final int ROWS = (int) Math.ceil(180 / CELL_SIZE_DEGREES);
+
+	/** number of longitude columns */
+	private static final int COLUMNS = (int) Math.ceil(360 / CELL_SIZE_DEGREES);
+
+	/** airports of the non-empty cells, keyed by cell id */
+	private final Map<Integer, List<AirportData>> cells = new HashMap<Integer, List<AirportData>>();
+
+	/** earth radius in KM used to convert query radius to an angle */
+	private final double earthRadiusKm;
+
+	public AirportGridIndex(double earthRadiusKm) {
+		this.earthRadiusKm = earthRadiusKm;
+	}
+
+	/**
+	 * Adds the given airport to the cell covering its location
+	 *
+	 * @param airportData
+	 *            airport to add
+	 */
+	public void add(AirportData airportData) {
+		cells.computeIfAbsent(cellOf(airportData), k -> new ArrayList<>())
+				.add(airportData);
+	}
+
+	/**
+	 * Removes the given airport from the cell covering its location
+	 *
+	 * @param airportData
+	 *            airport to remove
+	 */
+	public void remove(AirportData airportData) {
+		int cell = cellOf(airportData);
+		List<AirportData> airports = cells.get(cell);
+		if (airports != null) {
+			airports.remove(airportData);
+			if (airports.isEmpty()) {
+				cells.remove(cell);
+			}
+		}
+	}
+
+	/**
+	 * clears all cells
+	 */
+	public void clear() {
+		cells.clear();
+	}
+
+	/**
+	 * Passes every airport of the cells overlapped by the circle with the
+	 * given center and radius to the given consumer. The candidates are a
+	 * superset of the airports in the circle, the exact distance check is up
+	 * to the caller.
+	 *
+	 * @param latitude
+	 *            latitude of the circle center in degrees
+	 * @param longitude
+	 *            longitude of the circle center in degrees
+	 * @param radius
+	 *            radius of the circle in KM
+	 * @param consumer
+	 *            consumer of the candidate airports
+	 */
+	public void forEachCandidate(double latitude, double longitude,
+			double radius, Consumer<AirportData> consumer) {
+		if (radius < 0) {
+			return;
+		}
+		int[] range = cellRange(latitude, longitude, radius);
+		if (range == null) {
+			// circle covers the whole sphere
+			for (List<AirportData> airports : cells.values()) {
+				airports.forEach(consumer);
+			}
+			return;
+		}
+		for (int row = range[0]; row <= range[1]; row++) {
+			for (int i = 0; i < range[3]; i++) {
+				// wrap column around the antimeridian
+				int column = Math.floorMod(range[2] + i, COLUMNS);
+				List<AirportData> airports = cells.get(row * COLUMNS + column);
+				if (airports != null) {
+					airports.forEach(consumer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the cells overlapped by the circle with the given center and
+	 * radius, which is the number of lookups done by
+	 * {@link #forEachCandidate}
+	 *
+	 * @param latitude
+	 *            latitude of the circle center in degrees
+	 * @param longitude
+	 *            longitude of the circle center in degrees
+	 * @param radius
+	 *            radius of the circle in KM
+	 * @return number of cells
+	 */
+	public int countCells(double latitude, double longitude, double radius) {
+		if (radius < 0) {
+			return 0;
+		}
+		int[] range = cellRange(latitude, longitude, radius);
+		return range == null ? ROWS * COLUMNS : (range[1] - range[0] + 1)
+				* range[3];
+	}
+
+	/**
+	 * Finds the cells overlapped by the circle with the given center and
+	 * radius
+	 *
+	 * @return first row, last row, first unwrapped column and column count,
+	 *         or null if the circle covers the whole sphere
+	 */
+	private int[] cellRange(double latitude, double longitude, double radius) {
+		// angular radius of the circle
+		double delta = radius / earthRadiusKm;
+		if (delta >= Math.PI) {
+			return null;
+		}
+		double deltaDegrees = Math.toDegrees(delta);
+		double minLatitude = latitude - deltaDegrees;
+		double maxLatitude = latitude + deltaDegrees;
+		int firstColumn = 0;
+		int columnCount = COLUMNS;
+		// when the circle contains a pole every longitude is in range,
+		// otherwise use the longitude extent of the spherical cap
+		if (minLatitude > -90 && maxLatitude < 90) {
+			double deltaLongitude = Math.toDegrees(Math.asin(Math.sin(delta)
+					/ Math.cos(Math.toRadians(latitude))));
+			firstColumn = columnIndex(longitude - deltaLongitude);
+			columnCount = Math.min(COLUMNS,
+					columnIndex(longitude + deltaLongitude) - firstColumn + 1);
+		}
+		return new int[] { rowOf(minLatitude), rowOf(maxLatitude),
+				firstColumn, columnCount };
+	}
+
+	/**
+	 * Finds the cell id of the given airport
+	 *
+	 * @param airportData
+	 * @return cell id
+	 */
+	private static int cellOf(AirportData airportData) {
+		return rowOf(airportData.getLatitude()) * COLUMNS
+				+ Math.floorMod(columnIndex(airportData.getLongitude()),
+						COLUMNS);
+	}
+
+	/**
+	 * Finds the row of the given latitude, latitudes beyond the poles are
+	 * clamped to the polar rows
+	 *
+	 * @param latitude
+	 *            in degrees
+	 * @return row index
+	 */
+	private static int rowOf(double latitude) {
+		int row = (int) Math.floor((latitude + 90) / CELL_SIZE_DEGREES);
+		return Math.max(0, Math.min(ROWS - 1, row));
+	}
+
+	/**
+	 * Finds the unwrapped column index of the given longitude, callers wrap
+	 * it into [0, COLUMNS)
+	 *
+	 * @param longitude
+	 *            in degrees
+	 * @return column index
+	 */
+	private static int columnIndex(double longitude) {
+		return (int) Math.floor((longitude + 180) / CELL_SIZE_DEGREES);
+	}
+}
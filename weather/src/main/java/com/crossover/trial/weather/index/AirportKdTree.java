@@ -0,0 +1,198 @@
+package com.crossover.trial.weather.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import com.crossover.trial.weather.pojo.AirportData;
+
+/**
+ * A static 3-d tree over the unit sphere (x, y, z) coordinates of airports.
+ * The straight line distance between two points on the sphere grows together
+ * with their great circle distance, so the nearest airports in 3D are also the
+ * nearest airports on earth and the search does not suffer from the poles or
+ * the antimeridian.
+ *
+ * The tree is stored implicitly in arrays, the node of a range is its middle
+ * element and the split axis cycles through x, y and z with the depth. The
+ * tree is immutable once built, callers rebuild it when the airports change.
+ *
+ * @author burak
+ */
+public class AirportKdTree {
+
+	/** number of dimensions */
+	private static final int DIMENSIONS = 3;
+
+	/** airports in tree order */
+	private final AirportData[] airports;
+
+	/** unit sphere coordinates in tree order, 3 values per airport */
+	private final double[] coordinates;
+
+	/**
+	 * Builds a tree containing the given airports
+	 *
+	 * @param airportValues
+	 *            airports to index
+	 */
+	public AirportKdTree(Collection<AirportData> airportValues) {
+		int size = airportValues.size();
+		airports = airportValues.toArray(new AirportData[size]);
+		double[][] points = new double[size][];
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = toUnitVector(airports[i].getLatitude(),
+					airports[i].getLongitude());
+			order[i] = i;
+		}
+		build(order, points, 0, size, 0);
+		// store airports and coordinates in tree order
+		AirportData[] source = airports.clone();
+		coordinates = new double[size * DIMENSIONS];
+		for (int i = 0; i < size; i++) {
+			airports[i] = source[order[i]];
+			System.arraycopy(points[order[i]], 0, coordinates, i * DIMENSIONS,
+					DIMENSIONS);
+		}
+	}
+
+	/**
+	 * Finds the nearest airports to the given location which are accepted by
+	 * the given filter
+	 *
+	 * @param latitude
+	 *            in degrees
+	 * @param longitude
+	 *            in degrees
+	 * @param k
+	 *            maximum number of airports to return
+	 * @param filter
+	 *            filter of the airports which can be returned
+	 * @return {@link List} of at most k airports ordered by distance
+	 */
+	public List<AirportData> findNearest(double latitude, double longitude,
+			int k, Predicate<AirportData> filter) {
+		if (k <= 0 || airports.length == 0) {
+			return Collections.emptyList();
+		}
+		double[] target = toUnitVector(latitude, longitude);
+		// max heap of the best candidates found so far, it never holds more
+		// than one airport beyond the result
+		PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(
+				Math.min(k, airports.length) + 1,
+				Comparator.comparingDouble((Candidate c) -> c.distance)
+						.reversed());
+		search(target, 0, airports.length, 0, k, filter, best);
+		List<Candidate> candidates = new ArrayList<Candidate>(best);
+		candidates.sort(Comparator.comparingDouble(c -> c.distance));
+		List<AirportData> nearest = new ArrayList<AirportData>(
+				candidates.size());
+		for (Candidate candidate : candidates) {
+			nearest.add(candidate.airportData);
+		}
+		return nearest;
+	}
+
+	public int size() {
+		return airports.length;
+	}
+
+	/**
+	 * Recursively orders the given range so that its middle element splits
+	 * it along the axis of the depth
+	 */
+	private static void build(Integer[] order, double[][] points, int from,
+			int to, int depth) {
+		if (to - from <= 1) {
+			return;
+		}
+		int axis = depth % DIMENSIONS;
+		Arrays.sort(order, from, to,
+				Comparator.comparingDouble(i -> points[i][axis]));
+		int middle = (from + to) >>> 1;
+		build(order, points, from, middle, depth + 1);
+		build(order, points, middle + 1, to, depth + 1);
+	}
+
+	/**
+	 * Recursively searches the given range, visiting the half containing the
+	 * target first and skipping the other half when it can not contain a
+	 * closer airport
+	 */
+	private void search(double[] target, int from, int to, int depth, int k,
+			Predicate<AirportData> filter, PriorityQueue<Candidate> best) {
+		if (from >= to) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		int offset = middle * DIMENSIONS;
+		double distance = 0;
+		for (int d = 0; d < DIMENSIONS; d++) {
+			double diff = coordinates[offset + d] - target[d];
+			distance += diff * diff;
+		}
+		if ((best.size() < k || distance < best.peek().distance)
+				&& filter.test(airports[middle])) {
+			best.add(new Candidate(airports[middle], distance));
+			if (best.size() > k) {
+				best.poll();
+			}
+		}
+		double split = target[depth % DIMENSIONS]
+				- coordinates[offset + depth % DIMENSIONS];
+		boolean leftFirst = split < 0;
+		if (leftFirst) {
+			search(target, from, middle, depth + 1, k, filter, best);
+		} else {
+			search(target, middle + 1, to, depth + 1, k, filter, best);
+		}
+		// the other half can only contain closer airports when the splitting
+		// plane is closer than the worst candidate
+		if (best.size() < k || split * split < best.peek().distance) {
+			if (leftFirst) {
+				search(target, middle + 1, to, depth + 1, k, filter, best);
+			} else {
+				search(target, from, middle, depth + 1, k, filter, best);
+			}
+		}
+	}
+
+	/**
+	 * Converts the given location to a point on the unit sphere
+	 *
+	 * @param latitude
+	 *            in degrees
+	 * @param longitude
+	 *            in degrees
+	 * @return (x, y, z) coordinates
+	 */
+	private static double[] toUnitVector(double latitude, double longitude) {
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double cosLat = Math.cos(lat);
+		return new double[] { cosLat * Math.cos(lon), cosLat * Math.sin(lon),
+				Math.sin(lat) };
+	}
+
+	/**
+	 * An airport found by a search with its squared straight line distance to
+	 * the target
+	 */
+	private static class Candidate {
+
+		private final AirportData airportData;
+
+		private final double distance;
+
+		private Candidate(AirportData airportData, double distance) {
+			this.airportData = airportData;
+			this.distance = distance;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.crossover.trial.weather.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.crossover.trial.weather.pojo.AirportData;
+
+/**
+ * Keeps a distance sorted neighbour list for every airport, containing all
+ * airports up to the largest configured radius bucket. The lists are updated
+ * incrementally when airports are added or removed, so radius queries up to
+ * the largest bucket are answered from a prefix of a list without any
+ * distance calculation. The prefix length of every bucket is maintained too,
+ * so a query with exactly a bucket radius does not even need a search.
+ *
+ * @author burak
+ */
+public class AirportNeighbourIndex {
+
+	/** radius buckets in KM in ascending order */
+	private final double[] radii;
+
+	/** neighbour lists keyed by iata code */
+	private final Map<String, NeighbourList> neighbourLists = new HashMap<String, NeighbourList>();
+
+	/**
+	 * @param radii
+	 *            radius buckets in KM
+	 */
+	public AirportNeighbourIndex(double[] radii) {
+		this.radii = radii.clone();
+		Arrays.sort(this.radii);
+	}
+
+	/**
+	 * Parses a comma separated list of radius buckets
+	 *
+	 * @param radiiString
+	 *            radius values in KM, like "100,200,500"
+	 * @return radius values
+	 */
+	public static double[] parseRadii(String radiiString) {
+		String[] pieces = radiiString.split(",");
+		double[] radii = new double[pieces.length];
+		for (int i = 0; i < pieces.length; i++) {
+			radii[i] = Double.parseDouble(pieces[i].trim());
+		}
+		return radii;
+	}
+
+	/**
+	 * @return the largest radius served by the neighbour lists, in KM
+	 */
+	public double getMaxRadius() {
+		return radii.length == 0 ? -1 : radii[radii.length - 1];
+	}
+
+	/**
+	 * Adds the given airport, its list is filled with the given neighbours
+	 * and it is inserted into their lists
+	 *
+	 * @param airportData
+	 *            airport to add
+	 * @param neighbours
+	 *            airports in the largest radius bucket, excluding the airport
+	 *            itself
+	 * @param distances
+	 *            distances of the neighbours in KM
+	 */
+	public void add(AirportData airportData, List<AirportData> neighbours,
+			double[] distances) {
+		NeighbourList neighbourList = new NeighbourList();
+		neighbourList.insert(airportData, 0);
+		for (int i = 0; i < neighbours.size(); i++) {
+			AirportData neighbour = neighbours.get(i);
+			neighbourList.insert(neighbour, distances[i]);
+			NeighbourList other = neighbourLists.get(neighbour.getIata());
+			if (other != null) {
+				other.insert(airportData, distances[i]);
+			}
+		}
+		neighbourLists.put(airportData.getIata(), neighbourList);
+	}
+
+	/**
+	 * Removes the given airport and removes it from the lists of its
+	 * neighbours
+	 *
+	 * @param airportData
+	 *            airport to remove
+	 */
+	public void remove(AirportData airportData) {
+		NeighbourList neighbourList = neighbourLists.remove(airportData
+				.getIata());
+		if (neighbourList == null) {
+			return;
+		}
+		for (int i = 0; i < neighbourList.size; i++) {
+			NeighbourList other = neighbourLists.get(neighbourList.airports[i]
+					.getIata());
+			if (other != null) {
+				other.remove(airportData);
+			}
+		}
+	}
+
+	/**
+	 * clears all lists
+	 */
+	public void clear() {
+		neighbourLists.clear();
+	}
+
+	/**
+	 * Finds the airports in the given radius of the given airport
+	 *
+	 * @param iata
+	 *            iata code of the reference airport
+	 * @param radius
+	 *            radius in KM, at most {@link #getMaxRadius()}
+	 * @return {@link List} of airports ordered by distance, starting with the
+	 *         reference airport, or null if the airport is not indexed
+	 */
+	public List<AirportData> findInRadius(String iata, double radius) {
+		NeighbourList neighbourList = neighbourLists.get(iata);
+		if (neighbourList == null || radius < 0) {
+			return null;
+		}
+		int bucket = Arrays.binarySearch(radii, radius);
+		int count = bucket >= 0 ? neighbourList.bucketEnds[bucket]
+				: neighbourList.countWithin(radius);
+		return new ArrayList<AirportData>(Arrays.asList(neighbourList.airports)
+				.subList(0, count));
+	}
+
+	/**
+	 * Distance sorted neighbours of an airport held in parallel arrays
+	 */
+	private class NeighbourList {
+
+		private AirportData[] airports = new AirportData[4];
+
+		private double[] distances = new double[4];
+
+		private int size;
+
+		/** number of neighbours in each radius bucket */
+		private final int[] bucketEnds = new int[radii.length];
+
+		private void insert(AirportData airportData, double distance) {
+			if (size == airports.length) {
+				airports = Arrays.copyOf(airports, size * 2);
+				distances = Arrays.copyOf(distances, size * 2);
+			}
+			int position = countWithin(distance);
+			System.arraycopy(airports, position, airports, position + 1, size
+					- position);
+			System.arraycopy(distances, position, distances, position + 1,
+					size - position);
+			airports[position] = airportData;
+			distances[position] = distance;
+			size++;
+			for (int b = 0; b < radii.length; b++) {
+				if (distance <= radii[b]) {
+					bucketEnds[b]++;
+				}
+			}
+		}
+
+		private void remove(AirportData airportData) {
+			for (int position = 0; position < size; position++) {
+				if (airports[position].equals(airportData)) {
+					double distance = distances[position];
+					System.arraycopy(airports, position + 1, airports,
+							position, size - position - 1);
+					System.arraycopy(distances, position + 1, distances,
+							position, size - position - 1);
+					airports[--size] = null;
+					for (int b = 0; b < radii.length; b++) {
+						if (distance <= radii[b]) {
+							bucketEnds[b]--;
+						}
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @return number of neighbours whose distance is at most the given
+		 *         distance
+		 */
+		private int countWithin(double distance) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (distances[middle] <= distance) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -1,45 +1,132 @@
 package com.crossover.trial.weather.pojo;
 
 /**
- * encapsulates sensor information for a particular location
+ * encapsulates sensor information for a particular location. Instances are
+ * immutable snapshots, an update creates a new instance by
+ * {@link #withDataPoint}, so a reader always sees the data points and the
+ * last update time of the same moment.
  */
-public class AtmosphericInformation {
+public final class AtmosphericInformation {
 
 	/** temperature in degrees celsius */
-	private DataPoint temperature;
+	private final DataPoint temperature;
 
 	/** wind speed in km/h */
-	private DataPoint wind;
+	private final DataPoint wind;
 
 	/** humidity in percent */
-	private DataPoint humidity;
+	private final DataPoint humidity;
 
 	/** precipitation in cm */
-	private DataPoint precipitation;
+	private final DataPoint precipitation;
 
 	/** pressure in mmHg */
-	private DataPoint pressure;
+	private final DataPoint pressure;
 
 	/** cloud cover percent from 0 - 100 (integer) */
-	private DataPoint cloudCover;
+	private final DataPoint cloudCover;
 
 	/** the last time this data was updated, in milliseconds since UTC epoch */
-	private long lastUpdateTime;
+	private final long lastUpdateTime;
 
 	public AtmosphericInformation() {
-
+		this(null, null, null, null, null, null, 0);
 	}
 
 	public AtmosphericInformation(DataPoint temperature, DataPoint wind,
 			DataPoint humidity, DataPoint percipitation, DataPoint pressure,
 			DataPoint cloudCover) {
+		this(temperature, wind, humidity, percipitation, pressure,
+				cloudCover, System.currentTimeMillis());
+	}
+
+	/**
+	 * Creates an atmospheric information with the given last update time
+	 * 
+	 * @param lastUpdateTime
+	 *            the last time the data was updated, in milliseconds since UTC
+	 *            epoch
+	 */
+	public AtmosphericInformation(DataPoint temperature, DataPoint wind,
+			DataPoint humidity, DataPoint precipitation, DataPoint pressure,
+			DataPoint cloudCover, long lastUpdateTime) {
 		this.temperature = temperature;
 		this.wind = wind;
 		this.humidity = humidity;
-		this.precipitation = percipitation;
+		this.precipitation = precipitation;
 		this.pressure = pressure;
 		this.cloudCover = cloudCover;
-		this.lastUpdateTime = System.currentTimeMillis();
+		this.lastUpdateTime = lastUpdateTime;
+	}
+
+	/**
+	 * Creates an atmospheric information from data points indexed by the
+	 * slots of their types, see {@link DataPointType#getSlot()}
+	 * 
+	 * @param dataPoints
+	 *            data points indexed by slot, null where there is none
+	 * @param lastUpdateTime
+	 *            the last time the data was updated, in milliseconds since UTC
+	 *            epoch
+	 * @return the atmospheric information
+	 */
+	public static AtmosphericInformation fromDataPoints(DataPoint[] dataPoints,
+			long lastUpdateTime) {
+		return new AtmosphericInformation(
+				dataPoints[DataPointType.TEMPERATURE.getSlot()],
+				dataPoints[DataPointType.WIND.getSlot()],
+				dataPoints[DataPointType.HUMIDTY.getSlot()],
+				dataPoints[DataPointType.PRECIPITATION.getSlot()],
+				dataPoints[DataPointType.PRESSURE.getSlot()],
+				dataPoints[DataPointType.CLOUDCOVER.getSlot()], lastUpdateTime);
+	}
+
+	/**
+	 * Creates a copy of this atmospheric information with the data point of
+	 * the given type replaced, this instance is left unchanged
+	 * 
+	 * @param pointType
+	 *            type of the data point to replace
+	 * @param dataPoint
+	 *            the new data point
+	 * @param updateTime
+	 *            last update time of the copy, in milliseconds since UTC
+	 *            epoch
+	 * @return the updated copy
+	 */
+	public AtmosphericInformation withDataPoint(DataPointType pointType,
+			DataPoint dataPoint, long updateTime) {
+		DataPoint[] dataPoints = new DataPoint[DataPointType.count()];
+		for (int slot = 0; slot < dataPoints.length; slot++) {
+			dataPoints[slot] = getDataPoint(DataPointType.fromSlot(slot));
+		}
+		dataPoints[pointType.getSlot()] = dataPoint;
+		return fromDataPoints(dataPoints, updateTime);
+	}
+
+	/**
+	 * Returns the data point of the given type
+	 * 
+	 * @param pointType
+	 *            type of the data point
+	 * @return the {@link DataPoint}, or null if there is none
+	 */
+	public DataPoint getDataPoint(DataPointType pointType) {
+		switch (pointType) {
+		case WIND:
+			return wind;
+		case TEMPERATURE:
+			return temperature;
+		case HUMIDTY:
+			return humidity;
+		case PRESSURE:
+			return pressure;
+		case CLOUDCOVER:
+			return cloudCover;
+		case PRECIPITATION:
+			return precipitation;
+		}
+		return null;
 	}
 
 	public DataPoint getCloudCover() {
@@ -82,34 +169,6 @@ public class AtmosphericInformation {
 				|| this.temperature != null || this.wind != null;
 	}
 
-	public void setCloudCover(DataPoint cloudCover) {
-		this.cloudCover = cloudCover;
-	}
-
-	public void setHumidity(DataPoint humidity) {
-		this.humidity = humidity;
-	}
-
-	public void setLastUpdateTime(long lastUpdateTime) {
-		this.lastUpdateTime = lastUpdateTime;
-	}
-
-	public void setPrecipitation(DataPoint precipitation) {
-		this.precipitation = precipitation;
-	}
-
-	public void setPressure(DataPoint pressure) {
-		this.pressure = pressure;
-	}
-
-	public void setTemperature(DataPoint temperature) {
-		this.temperature = temperature;
-	}
-
-	public void setWind(DataPoint wind) {
-		this.wind = wind;
-	}
-
 	@Override
 	public String toString() {
 		return "AtmosphericInformation [temperature=" + temperature + ", wind="
@@ -0,0 +1,100 @@
+package com.crossover.trial.weather.pojo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of atmospheric information which also carries the pre-serialized
+ * json fragment of every element, so it can be written to a response without
+ * serializing the elements again. Every element is kept together with its
+ * fragment, so the fragments follow the elements whichever way the list is
+ * changed. An element added or replaced without its fragment has none.
+ *
+ * @author burak
+ */
+public class AtmosphericInformationList extends
+		AbstractList<AtmosphericInformation> implements RandomAccess {
+
+	/** elements with their json fragments */
+	private final List<Element> elements = new ArrayList<Element>();
+
+	/**
+	 * Adds the given atmospheric information together with its json fragment
+	 *
+	 * @param atmosphericInformation
+	 *            {@link AtmosphericInformation} to add
+	 * @param jsonFragment
+	 *            UTF-8 json representation of it
+	 */
+	public void add(AtmosphericInformation atmosphericInformation,
+			byte[] jsonFragment) {
+		elements.add(new Element(atmosphericInformation, jsonFragment));
+		modCount++;
+	}
+
+	@Override
+	public AtmosphericInformation get(int index) {
+		return elements.get(index).atmosphericInformation;
+	}
+
+	@Override
+	public int size() {
+		return elements.size();
+	}
+
+	@Override
+	public void add(int index, AtmosphericInformation atmosphericInformation) {
+		elements.add(index, new Element(atmosphericInformation, null));
+		modCount++;
+	}
+
+	@Override
+	public AtmosphericInformation set(int index,
+			AtmosphericInformation atmosphericInformation) {
+		return elements.set(index, new Element(atmosphericInformation, null))
+				.atmosphericInformation;
+	}
+
+	@Override
+	public AtmosphericInformation remove(int index) {
+		modCount++;
+		return elements.remove(index).atmosphericInformation;
+	}
+
+	@Override
+	public void clear() {
+		modCount++;
+		elements.clear();
+	}
+
+	/**
+	 * Returns the json fragment of the element at the given index
+	 *
+	 * @param index
+	 *            index of the element
+	 * @return UTF-8 json representation of the element, or null if it was
+	 *         added without one
+	 */
+	public byte[] getJsonFragment(int index) {
+		return elements.get(index).jsonFragment;
+	}
+
+	/**
+	 * An element of the list with its json fragment
+	 */
+	private static final class Element {
+
+		final AtmosphericInformation atmosphericInformation;
+
+		/** json fragment of the element, null if there is none */
+		final byte[] jsonFragment;
+
+		Element(AtmosphericInformation atmosphericInformation,
+				byte[] jsonFragment) {
+			this.atmosphericInformation = atmosphericInformation;
+			this.jsonFragment = jsonFragment;
+		}
+	}
+}
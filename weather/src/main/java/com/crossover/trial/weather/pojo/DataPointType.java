@@ -1,10 +1,98 @@
 package com.crossover.trial.weather.pojo;
 
 /**
- * The various types of data points we can collect.
+ * The various types of data points we can collect. Every type has the
+ * storage slot of its data points in the stores, the write-ahead log and the
+ * binary frames, and the valid range of their mean values. New types are
+ * appended, so the slots of the existing ones stay the same. The stores keep
+ * a presence bit per slot in an int, so there are at most 32 types, and a
+ * mapped store file has to be recreated when a type is added.
  *
  * @author burak
  */
 public enum DataPointType {
-	WIND, TEMPERATURE, HUMIDTY, PRESSURE, CLOUDCOVER, PRECIPITATION
+	/** wind speed in km/h */
+	WIND(0, Double.MAX_VALUE),
+	/** temperature in degrees celsius */
+	TEMPERATURE(-50, 100),
+	/** humidity in percent */
+	HUMIDTY(0, 100),
+	/** pressure in mmHg */
+	PRESSURE(650, 800),
+	/** cloud cover percent from 0 - 100 */
+	CLOUDCOVER(0, 100),
+	/** precipitation in cm */
+	PRECIPITATION(0, 100);
+
+	/** types indexed by slot */
+	private static final DataPointType[] SLOTS = values();
+
+	/** smallest valid mean value, inclusive */
+	private final double minimum;
+
+	/** largest valid mean value, exclusive */
+	private final double maximum;
+
+	private DataPointType(double minimum, double maximum) {
+		this.minimum = minimum;
+		this.maximum = maximum;
+	}
+
+	/**
+	 * @return storage slot of the data points of this type, from 0 to
+	 *         {@link #count()} - 1
+	 */
+	public int getSlot() {
+		return ordinal();
+	}
+
+	/**
+	 * Checks the mean value of a data point is in the valid range of this
+	 * type
+	 *
+	 * @param mean
+	 *            mean value of the data point
+	 * @return <code>true</code> if the value is valid
+	 */
+	public boolean isInRange(double mean) {
+		return mean >= minimum && mean < maximum;
+	}
+
+	/**
+	 * @return number of types, and of storage slots
+	 */
+	public static int count() {
+		return SLOTS.length;
+	}
+
+	/**
+	 * Returns the type of a storage slot
+	 *
+	 * @param slot
+	 *            the storage slot
+	 * @return the type, or null if no type has the slot
+	 */
+	public static DataPointType fromSlot(int slot) {
+		return slot >= 0 && slot < SLOTS.length ? SLOTS[slot] : null;
+	}
+
+	/**
+	 * Finds a type by its name case insensitively, without allocating or
+	 * throwing
+	 *
+	 * @param name
+	 *            name of the type, may be null
+	 * @return the type, or null if there is none of the name
+	 */
+	public static DataPointType find(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (DataPointType pointType : SLOTS) {
+			if (pointType.name().equalsIgnoreCase(name)) {
+				return pointType;
+			}
+		}
+		return null;
+	}
 }
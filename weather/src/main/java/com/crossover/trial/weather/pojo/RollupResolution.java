@@ -0,0 +1,24 @@
+package com.crossover.trial.weather.pojo;
+
+/**
+ * The bucket lengths of the weather rollups, buckets are aligned to UTC epoch
+ *
+ * @author burak
+ */
+public enum RollupResolution {
+	/** buckets of an hour */
+	HOUR(60 * 60 * 1000L),
+	/** buckets of a day */
+	DAY(24 * 60 * 60 * 1000L);
+
+	/** length of a bucket in milliseconds */
+	private final long millis;
+
+	private RollupResolution(long millis) {
+		this.millis = millis;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+}
@@ -0,0 +1,80 @@
+package com.crossover.trial.weather.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Estimated quantiles of the recent readings of a data point type over the
+ * airports in a radius of an airport, as parallel arrays of quantiles and
+ * their values
+ *
+ * @author burak
+ */
+public class WeatherAggregate {
+
+	/** iata code of the airport at the center */
+	private final String iata;
+
+	/** type of the data point */
+	private final DataPointType pointType;
+
+	/** radius in KM */
+	private final double radius;
+
+	/** number of airports in the radius with recent readings */
+	private final int airports;
+
+	/** number of readings */
+	private final long count;
+
+	/** quantiles between 0 and 1 */
+	private final double[] quantiles;
+
+	/** estimated values at the quantiles, empty if there is no reading */
+	private final double[] values;
+
+	public WeatherAggregate(String iata, DataPointType pointType,
+			double radius, int airports, long count, double[] quantiles,
+			double[] values) {
+		this.iata = iata;
+		this.pointType = pointType;
+		this.radius = radius;
+		this.airports = airports;
+		this.count = count;
+		this.quantiles = quantiles;
+		this.values = values;
+	}
+
+	public String getIata() {
+		return iata;
+	}
+
+	public DataPointType getPointType() {
+		return pointType;
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	public int getAirports() {
+		return airports;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double[] getQuantiles() {
+		return quantiles;
+	}
+
+	public double[] getValues() {
+		return values;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this,
+				ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
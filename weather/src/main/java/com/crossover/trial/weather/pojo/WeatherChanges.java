@@ -0,0 +1,71 @@
+package com.crossover.trial.weather.pojo;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * The changes of the atmospheric information after a version, as the data
+ * point types changed per airport. An airport without changed types had its
+ * whole atmospheric information added or removed.
+ *
+ * @author burak
+ */
+public class WeatherChanges {
+
+	/** version of the last change included */
+	private final long version;
+
+	/** true if changes have been dropped and a full resync is required */
+	private final boolean resyncRequired;
+
+	/** changed data point types of each airport in change order */
+	private final Map<String, Set<DataPointType>> changedTypes = new LinkedHashMap<String, Set<DataPointType>>();
+
+	public WeatherChanges(long version, boolean resyncRequired) {
+		this.version = version;
+		this.resyncRequired = resyncRequired;
+	}
+
+	/**
+	 * Adds a change of the given airport
+	 *
+	 * @param iataCode
+	 *            iata code of the changed airport
+	 * @param pointType
+	 *            changed data point type, or null if the whole atmospheric
+	 *            information changed
+	 */
+	public void addChange(String iataCode, DataPointType pointType) {
+		Set<DataPointType> types = changedTypes.computeIfAbsent(iataCode,
+				k -> EnumSet.noneOf(DataPointType.class));
+		if (pointType != null) {
+			types.add(pointType);
+		}
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isResyncRequired() {
+		return resyncRequired;
+	}
+
+	/**
+	 * @return changed data point types of each airport in change order
+	 */
+	public Map<String, Set<DataPointType>> getChangedTypes() {
+		return Collections.unmodifiableMap(changedTypes);
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this,
+				ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
@@ -0,0 +1,42 @@
+package com.crossover.trial.weather.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * A single weather query of a batch query, the radius is optional
+ *
+ * @author burak
+ */
+public class WeatherQuery {
+
+	/** the three letter IATA code */
+	private String iata;
+
+	/** radius in KM, null means the airport itself */
+	private Double radius;
+
+	public WeatherQuery() {
+	}
+
+	public WeatherQuery(String iata, Double radius) {
+		this.iata = iata;
+		this.radius = radius;
+	}
+
+	public String getIata() {
+		return iata;
+	}
+
+	/**
+	 * @return radius in KM, 0 if it is not given
+	 */
+	public double getRadius() {
+		return radius == null ? 0 : radius;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this,
+				ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
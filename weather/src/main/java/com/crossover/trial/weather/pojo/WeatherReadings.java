@@ -0,0 +1,61 @@
+package com.crossover.trial.weather.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Recent readings of a data point type of an airport, oldest first, as
+ * parallel arrays of update times and mean values
+ *
+ * @author burak
+ */
+public class WeatherReadings {
+
+	/** iata code of the airport */
+	private final String iata;
+
+	/** type of the data point */
+	private final DataPointType pointType;
+
+	/** update times in milliseconds since UTC epoch */
+	private final long[] times;
+
+	/** mean values of the readings */
+	private final double[] means;
+
+	public WeatherReadings(String iata, DataPointType pointType, long[] times,
+			double[] means) {
+		this.iata = iata;
+		this.pointType = pointType;
+		this.times = times;
+		this.means = means;
+	}
+
+	public String getIata() {
+		return iata;
+	}
+
+	public DataPointType getPointType() {
+		return pointType;
+	}
+
+	public long[] getTimes() {
+		return times;
+	}
+
+	public double[] getMeans() {
+		return means;
+	}
+
+	/**
+	 * @return number of readings
+	 */
+	public int size() {
+		return times.length;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this,
+				ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
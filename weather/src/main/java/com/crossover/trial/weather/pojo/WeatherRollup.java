@@ -0,0 +1,95 @@
+package com.crossover.trial.weather.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Aggregates of a data point type of an airport per bucket of a resolution,
+ * oldest first, as parallel arrays of bucket start times, reading counts and
+ * minimum, maximum and mean values of the readings
+ *
+ * @author burak
+ */
+public class WeatherRollup {
+
+	/** iata code of the airport */
+	private final String iata;
+
+	/** type of the data point */
+	private final DataPointType pointType;
+
+	/** length of the buckets */
+	private final RollupResolution resolution;
+
+	/** bucket start times in milliseconds since UTC epoch */
+	private final long[] starts;
+
+	/** number of readings of the buckets */
+	private final int[] counts;
+
+	/** minimum mean values of the readings */
+	private final double[] mins;
+
+	/** maximum mean values of the readings */
+	private final double[] maxs;
+
+	/** mean of the mean values of the readings */
+	private final double[] means;
+
+	public WeatherRollup(String iata, DataPointType pointType,
+			RollupResolution resolution, long[] starts, int[] counts,
+			double[] mins, double[] maxs, double[] means) {
+		this.iata = iata;
+		this.pointType = pointType;
+		this.resolution = resolution;
+		this.starts = starts;
+		this.counts = counts;
+		this.mins = mins;
+		this.maxs = maxs;
+		this.means = means;
+	}
+
+	public String getIata() {
+		return iata;
+	}
+
+	public DataPointType getPointType() {
+		return pointType;
+	}
+
+	public RollupResolution getResolution() {
+		return resolution;
+	}
+
+	public long[] getStarts() {
+		return starts;
+	}
+
+	public int[] getCounts() {
+		return counts;
+	}
+
+	public double[] getMins() {
+		return mins;
+	}
+
+	public double[] getMaxs() {
+		return maxs;
+	}
+
+	public double[] getMeans() {
+		return means;
+	}
+
+	/**
+	 * @return number of buckets
+	 */
+	public int size() {
+		return starts.length;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this,
+				ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
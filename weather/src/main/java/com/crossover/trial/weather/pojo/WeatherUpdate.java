@@ -0,0 +1,47 @@
+package com.crossover.trial.weather.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * A single data point record of a bulk weather update
+ *
+ * @author burak
+ */
+public class WeatherUpdate {
+
+	/** the three letter IATA code */
+	private String iata;
+
+	/** the point type, see {@link DataPointType} */
+	private String pointType;
+
+	/** the data point of the point type */
+	private DataPoint dataPoint;
+
+	public WeatherUpdate() {
+	}
+
+	public WeatherUpdate(String iata, String pointType, DataPoint dataPoint) {
+		this.iata = iata;
+		this.pointType = pointType;
+		this.dataPoint = dataPoint;
+	}
+
+	public String getIata() {
+		return iata;
+	}
+
+	public String getPointType() {
+		return pointType;
+	}
+
+	public DataPoint getDataPoint() {
+		return dataPoint;
+	}
+
+	public String toString() {
+		return ReflectionToStringBuilder.toString(this,
+				ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
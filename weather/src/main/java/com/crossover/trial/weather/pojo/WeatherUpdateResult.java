@@ -0,0 +1,19 @@
+package com.crossover.trial.weather.pojo;
+
+/**
+ * The outcome of a single record of a bulk weather update
+ *
+ * @author burak
+ */
+public enum WeatherUpdateResult {
+	/** the data point has been applied */
+	APPLIED,
+	/** the mean value of the data point is out of the valid range */
+	OUT_OF_RANGE,
+	/** the airport is not known */
+	UNKNOWN_AIRPORT,
+	/** the point type is not a {@link DataPointType} */
+	INVALID_POINT_TYPE,
+	/** the record has no data point */
+	MISSING_DATA_POINT
+}
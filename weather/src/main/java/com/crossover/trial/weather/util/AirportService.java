@@ -1,13 +1,24 @@
 package com.crossover.trial.weather.util;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import org.apache.log4j.Logger;
 
+import com.crossover.trial.weather.index.AirportCoordinateStore;
+import com.crossover.trial.weather.index.AirportGridIndex;
+import com.crossover.trial.weather.index.AirportKdTree;
+import com.crossover.trial.weather.index.AirportNeighbourIndex;
 import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.pojo.AtmosphericInformation;
 
@@ -37,6 +48,73 @@ public class AirportService {
 	/** earth radius in KM */
 	private static final double EARTH_RADIUS_KM = 6372.8;
 
+	/** spatial index of all known airports used by radius queries */
+	private static AirportGridIndex gridIndex = new AirportGridIndex(
+			EARTH_RADIUS_KM);
+
+	/** primitive coordinate arrays of all known airports for full scans */
+	private static AirportCoordinateStore coordinateStore = new AirportCoordinateStore(
+			EARTH_RADIUS_KM);
+
+	/**
+	 * system property of the minimum number of airports for which full scans
+	 * run in parallel
+	 */
+	public static final String PARALLEL_SCAN_THRESHOLD_PROPERTY = "weather.scan.parallel.threshold";
+
+	/** system property of the number of threads of the scan pool */
+	public static final String SCAN_PARALLELISM_PROPERTY = "weather.scan.parallelism";
+
+	/**
+	 * minimum number of airports for which full scans run in parallel, below
+	 * it splitting the scan costs more than it saves
+	 */
+	private static final int PARALLEL_SCAN_THRESHOLD = Integer.getInteger(
+			PARALLEL_SCAN_THRESHOLD_PROPERTY, 32768);
+
+	/** number of airports scanned by a single task of a parallel scan */
+	private static final int PARALLEL_SCAN_RANGE_SIZE = 8192;
+
+	/** number of threads of the scan pool */
+	private static final int SCAN_PARALLELISM = Integer.getInteger(
+			SCAN_PARALLELISM_PROPERTY, Runtime.getRuntime()
+					.availableProcessors());
+
+	/**
+	 * dedicated pool of parallel scans, so they neither block the request
+	 * threads nor compete with other users of the common pool
+	 */
+	private static final ForkJoinPool scanPool = new ForkJoinPool(
+			SCAN_PARALLELISM, pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+						.newThread(pool);
+				thread.setName("airport-scan-" + thread.getPoolIndex());
+				return thread;
+			}, null, false);
+
+	/**
+	 * system property of the comma separated radius buckets in KM which are
+	 * served from precomputed neighbour lists
+	 */
+	public static final String NEIGHBOUR_RADII_PROPERTY = "weather.neighbour.radii";
+
+	/** default radius buckets of the neighbour lists */
+	private static final String DEFAULT_NEIGHBOUR_RADII = "50,100,200,500";
+
+	/** distance sorted neighbour lists of all known airports */
+	private static AirportNeighbourIndex neighbourIndex = new AirportNeighbourIndex(
+			AirportNeighbourIndex.parseRadii(System.getProperty(
+					NEIGHBOUR_RADII_PROPERTY, DEFAULT_NEIGHBOUR_RADII)));
+
+	/** version of the last change of the known airports */
+	private static volatile long topologyVersion;
+
+	/**
+	 * k-d tree of all known airports used by nearest airport queries, it is
+	 * rebuilt lazily after the airports change and null until then
+	 */
+	private static volatile AirportKdTree kdTree;
+
 	/**
 	 * iata frequency naming constant
 	 */
@@ -58,18 +136,60 @@ public class AirportService {
 		// create an airport data using specific constructor with required
 		// parameters
 		AirportData airportData = new AirportData(iataCode, latitude, longitude);
-		// add into airport data list
-		airportMap.put(iataCode, airportData);
+		indexAirport(airportData);
 		// add atmospheric information of the related airport to the weather
 		// service
 		AtmosphericInformation atmosphericInformation = new AtmosphericInformation();
-		WeatherService.addAtmosphericInformation(iataCode,
+		WeatherService.addAtmosphericInformation(airportData,
 				atmosphericInformation);
 		logger.debug(MessageFormat
 				.format("Airport has been added to the map with Airport data value: \"{0}\", and Atmospheric Info value: \"{1}\"",
 						airportData, atmosphericInformation));
 	}
 
+	/**
+	 * Adds the airports kept by a persistent weather store or replayed from
+	 * the write-ahead log of a previous run which are not known yet, keeping
+	 * their atmospheric information
+	 * 
+	 * @return number of restored airports
+	 */
+	public static int restoreAirports() {
+		int[] count = new int[1];
+		WeatherService.forEachStoredAirport(airportData -> {
+			if (!airportMap.containsKey(airportData.getIata())) {
+				indexAirport(airportData);
+				count[0]++;
+			}
+		});
+		logger.debug(MessageFormat.format(
+				"\"{0}\" airports have been restored", count[0]));
+		return count[0];
+	}
+
+	/**
+	 * Adds the given airport to the airport map and the spatial indexes,
+	 * replacing its previous location
+	 * 
+	 * @param airportData
+	 *            airport to add
+	 */
+	private static void indexAirport(AirportData airportData) {
+		// add into airport data list
+		AirportData previousAirportData = airportMap.put(airportData.getIata(),
+				airportData);
+		// replace the previous location of the airport in the spatial index
+		if (previousAirportData != null) {
+			gridIndex.remove(previousAirportData);
+			neighbourIndex.remove(previousAirportData);
+		}
+		addToNeighbourIndex(airportData);
+		gridIndex.add(airportData);
+		coordinateStore.add(airportData);
+		kdTree = null;
+		topologyVersion = WeatherService.nextVersion();
+	}
+
 	/**
 	 * Haversine distance between two airports.
 	 *
@@ -83,9 +203,11 @@ public class AirportService {
 		double deltaLat = Math.toRadians(ad2.getLatitude() - ad1.getLatitude());
 		double deltaLon = Math.toRadians(ad2.getLongitude()
 				- ad1.getLongitude());
-		double a = Math.pow(Math.sin(deltaLat / 2), 2)
-				+ Math.pow(Math.sin(deltaLon / 2), 2)
-				* Math.cos(ad1.getLatitude()) * Math.cos(ad2.getLatitude());
+		double sinHalfDeltaLat = Math.sin(deltaLat / 2);
+		double sinHalfDeltaLon = Math.sin(deltaLon / 2);
+		double a = sinHalfDeltaLat * sinHalfDeltaLat + sinHalfDeltaLon
+				* sinHalfDeltaLon * Math.cos(Math.toRadians(ad1.getLatitude()))
+				* Math.cos(Math.toRadians(ad2.getLatitude()));
 		double c = 2 * Math.asin(Math.sqrt(a));
 		return AirportService.EARTH_RADIUS_KM * c;
 	}
@@ -115,6 +237,14 @@ public class AirportService {
 	public static AirportData deleteAirport(String iata) {
 		// remove airport data from map
 		AirportData removedAirport = airportMap.remove(iata);
+		// remove airport data from spatial index
+		if (removedAirport != null) {
+			gridIndex.remove(removedAirport);
+			neighbourIndex.remove(removedAirport);
+			coordinateStore.remove(iata);
+			kdTree = null;
+			topologyVersion = WeatherService.nextVersion();
+		}
 		// remove atmospheric information
 		WeatherService.removeAtmosphericInfo(iata);
 		return removedAirport;
@@ -131,6 +261,114 @@ public class AirportService {
 		return airportMap.get(iataCode);
 	}
 
+	/**
+	 * Finds the airports whose distance to the given airport is at most the
+	 * given radius, see {@link #forEachAirportInRadius}
+	 *
+	 * @param referenceAirportData
+	 *            center of the query circle
+	 * @param radius
+	 *            radius in KM
+	 * @return {@link List} of airports in the radius, including the reference
+	 *         airport itself
+	 */
+	public static List<AirportData> findAirportsInRadius(
+			AirportData referenceAirportData, double radius) {
+		List<AirportData> airports = new ArrayList<AirportData>();
+		forEachAirportInRadius(referenceAirportData, radius, airports::add);
+		return airports;
+	}
+
+	/**
+	 * Passes the airports whose distance to the given airport is at most the
+	 * given radius to the given consumer as they are found. Radii up to the
+	 * largest neighbour list bucket are served from the precomputed neighbour
+	 * list of a known airport. Otherwise only the airports in the grid cells
+	 * overlapped by the query circle are checked with
+	 * {@link #calculateDistance}, unless the circle overlaps more cells than
+	 * there are airports, in which case every airport is checked by the
+	 * distance kernel of the coordinate store and only its matches are checked
+	 * with {@link #calculateDistance}. Such full scans are split across the
+	 * scan pool when there are enough airports.
+	 *
+	 * @param referenceAirportData
+	 *            center of the query circle
+	 * @param radius
+	 *            radius in KM
+	 * @param consumer
+	 *            consumer of the airports in the radius, including the
+	 *            reference airport itself, called from the current thread
+	 */
+	public static void forEachAirportInRadius(
+			AirportData referenceAirportData, double radius,
+			Consumer<AirportData> consumer) {
+		if (radius <= neighbourIndex.getMaxRadius()
+				&& isKnownLocation(referenceAirportData)) {
+			List<AirportData> neighbours = neighbourIndex.findInRadius(
+					referenceAirportData.getIata(), radius);
+			if (neighbours != null) {
+				neighbours.forEach(consumer);
+				return;
+			}
+		}
+		// a full scan is cheaper than looking up more cells than airports
+		boolean fullScan = gridIndex.countCells(
+				referenceAirportData.getLatitude(),
+				referenceAirportData.getLongitude(), radius) > coordinateStore
+				.size();
+		if (fullScan && SCAN_PARALLELISM > 1
+				&& coordinateStore.size() >= PARALLEL_SCAN_THRESHOLD) {
+			coordinateStore.findInRadiusParallel(
+					referenceAirportData.getLatitude(),
+					referenceAirportData.getLongitude(), radius,
+					candidate -> calculateDistance(referenceAirportData,
+							candidate) <= radius, scanPool,
+					PARALLEL_SCAN_RANGE_SIZE).forEach(consumer);
+			return;
+		}
+		Consumer<AirportData> distanceFilter = candidate -> {
+			if (calculateDistance(referenceAirportData, candidate) <= radius) {
+				consumer.accept(candidate);
+			}
+		};
+		if (fullScan) {
+			coordinateStore.forEachInRadius(referenceAirportData.getLatitude(),
+					referenceAirportData.getLongitude(), radius, distanceFilter);
+		} else {
+			gridIndex.forEachCandidate(referenceAirportData.getLatitude(),
+					referenceAirportData.getLongitude(), radius, distanceFilter);
+		}
+	}
+
+	/**
+	 * Finds the nearest airports to the given airport which are accepted by
+	 * the given filter
+	 *
+	 * @param referenceAirportData
+	 *            airport to search around, it is a candidate itself
+	 * @param k
+	 *            maximum number of airports to return
+	 * @param filter
+	 *            filter of the airports which can be returned
+	 * @return {@link List} of at most k airports ordered by distance
+	 */
+	public static List<AirportData> findNearestAirports(
+			AirportData referenceAirportData, int k,
+			Predicate<AirportData> filter) {
+		return getKdTree().findNearest(referenceAirportData.getLatitude(),
+				referenceAirportData.getLongitude(), k, filter);
+	}
+
+	/**
+	 * Returns the version of the last change of the known airports, it
+	 * changes whenever an airport is added, moved or deleted
+	 *
+	 * @return topology version
+	 */
+	public static long getTopologyVersion() {
+		return topologyVersion;
+	}
+
 	public static int getAirportDataSize() {
 		return airportMap.size();
 	}
@@ -148,9 +386,72 @@ public class AirportService {
 	 */
 	public static void clear() {
 		airportMap.clear();
+		gridIndex.clear();
+		neighbourIndex.clear();
+		coordinateStore.clear();
+		kdTree = null;
+		topologyVersion = WeatherService.nextVersion();
 		requestFrequency.clear();
 	}
 
+	/**
+	 * Adds the given airport to the neighbour index together with the
+	 * airports in the largest radius bucket around it
+	 *
+	 * @param airportData
+	 *            airport to add, not in the grid index yet
+	 */
+	private static void addToNeighbourIndex(AirportData airportData) {
+		double maxRadius = neighbourIndex.getMaxRadius();
+		if (maxRadius < 0) {
+			return;
+		}
+		List<AirportData> neighbours = new ArrayList<AirportData>();
+		List<Double> distances = new ArrayList<Double>();
+		gridIndex.forEachCandidate(airportData.getLatitude(),
+				airportData.getLongitude(), maxRadius, candidate -> {
+					double distance = calculateDistance(airportData, candidate);
+					if (distance <= maxRadius) {
+						neighbours.add(candidate);
+						distances.add(distance);
+					}
+				});
+		neighbourIndex.add(airportData, neighbours, distances.stream()
+				.mapToDouble(Double::doubleValue).toArray());
+	}
+
+	/**
+	 * Checks the given airport is known with exactly the same location
+	 *
+	 * @param airportData
+	 * @return <code>true</code> if it is known at the same location
+	 */
+	private static boolean isKnownLocation(AirportData airportData) {
+		AirportData knownAirportData = airportMap.get(airportData.getIata());
+		return knownAirportData != null
+				&& knownAirportData.getLatitude() == airportData.getLatitude()
+				&& knownAirportData.getLongitude() == airportData
+						.getLongitude();
+	}
+
+	/**
+	 * Returns the k-d tree of the known airports, building it first if the
+	 * airports changed since the last build
+	 *
+	 * @return {@link AirportKdTree} instance
+	 */
+	private static synchronized AirportKdTree getKdTree() {
+		AirportKdTree tree = kdTree;
+		if (tree == null) {
+			tree = new AirportKdTree(airportMap.values());
+			kdTree = tree;
+			logger.debug(MessageFormat.format(
+					"Airport k-d tree has been built with \"{0}\" airports",
+					tree.size()));
+		}
+		return tree;
+	}
+
 	/**
 	 * Update frequency of airport with given iata code value
 	 * 
@@ -158,14 +459,25 @@ public class AirportService {
 	 *            iata code of an airport
 	 */
 	public static void updateAirportDataFrequency(String iata) {
-		// find airport data using iata code
-		AirportData airportData = AirportService.findAirportData(iata);
-		// update airport data
-		int newFreq = requestFrequency.getOrDefault(airportData, 0) + 1;
-		requestFrequency.put(airportData, newFreq);
+		updateAirportDataFrequencies(Collections.singletonList(iata));
+	}
+
+	/**
+	 * Update frequencies of airports with given iata code values, an iata
+	 * code given n times is counted n times
+	 * 
+	 * @param iataCodes
+	 *            iata codes of airports
+	 */
+	public static void updateAirportDataFrequencies(Collection<String> iataCodes) {
+		for (String iata : iataCodes) {
+			// find airport data using iata code
+			AirportData airportData = AirportService.findAirportData(iata);
+			// update airport data
+			requestFrequency.merge(airportData, 1, Integer::sum);
+		}
 		logger.debug(MessageFormat.format(
-				"Request frequency has been updated with new value: \"{0}\"",
-				newFreq));
+				"Request frequency has been updated for: \"{0}\"", iataCodes));
 	}
 
 }
@@ -0,0 +1,294 @@
+package com.crossover.trial.weather.util;
+
+import com.crossover.trial.weather.pojo.DataPoint;
+
+/**
+ * A streaming parser of the json dict of a single {@link DataPoint}, as sent
+ * to the collector. It reads the mean, first, second, third and count keys
+ * in any order straight into primitive fields, without reflection and
+ * without allocating, and only creates the data point at the end.
+ *
+ * Only the plain form of the dict is accepted: known keys without escapes
+ * and json numbers which convert exactly, i.e. up to 18 significant digits
+ * and a decimal exponent within the powers of ten a double represents
+ * exactly, and integral values for the quartiles and the count. Anything
+ * else makes {@link #parse} return <code>false</code>, so the caller can
+ * fall back to a general json binding with its usual results and errors.
+ *
+ * A parser keeps the state of its last parse and is not thread safe, keep
+ * one per thread.
+ *
+ * @author burak
+ */
+public class DataPointParser {
+
+	/** keys of the data point in field order */
+	private static final String[] KEYS = { "mean", "first", "second",
+			"third", "count" };
+
+	private static final int MEAN = 0;
+
+	private static final int FIRST = 1;
+
+	private static final int SECOND = 2;
+
+	private static final int THIRD = 3;
+
+	/** powers of ten which are exact doubles */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/** largest mantissa which converts to a double exactly */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/** maximum number of significant digits of a number */
+	private static final int MAX_DIGITS = 18;
+
+	/** text being parsed, only set during a parse */
+	private CharSequence json;
+
+	/** position of the next character */
+	private int position;
+
+	/** value of the last parsed number */
+	private double number;
+
+	private double mean;
+
+	private int first;
+
+	private int second;
+
+	private int third;
+
+	private int count;
+
+	/**
+	 * Parses the given json dict of a data point. Missing keys are 0.
+	 *
+	 * @param json
+	 *            the json text
+	 * @return <code>true</code> if it is a plain data point dict which can be
+	 *         created by {@link #toDataPoint}, <code>false</code> if it has
+	 *         to be parsed by a general json binding
+	 */
+	public boolean parse(CharSequence json) {
+		this.json = json;
+		position = 0;
+		mean = 0;
+		first = 0;
+		second = 0;
+		third = 0;
+		count = 0;
+		try {
+			return parseObject();
+		} finally {
+			this.json = null;
+		}
+	}
+
+	/**
+	 * @return data point of the last successful parse
+	 */
+	public DataPoint toDataPoint() {
+		return WeatherColumnStore.newDataPoint(mean, first, second, third,
+				count);
+	}
+
+	private boolean parseObject() {
+		skipWhitespace();
+		if (!consume('{')) {
+			return false;
+		}
+		skipWhitespace();
+		if (consume('}')) {
+			return isAtEnd();
+		}
+		while (true) {
+			int key = parseKey();
+			if (key < 0) {
+				return false;
+			}
+			skipWhitespace();
+			if (!consume(':')) {
+				return false;
+			}
+			skipWhitespace();
+			if (!parseNumber()) {
+				return false;
+			}
+			if (key == MEAN) {
+				mean = number;
+			} else {
+				// quartiles and count are ints, as in the data point
+				int value = (int) number;
+				if (value != number) {
+					return false;
+				}
+				if (key == FIRST) {
+					first = value;
+				} else if (key == SECOND) {
+					second = value;
+				} else if (key == THIRD) {
+					third = value;
+				} else {
+					count = value;
+				}
+			}
+			skipWhitespace();
+			if (!consume(',')) {
+				return consume('}') && isAtEnd();
+			}
+			skipWhitespace();
+		}
+	}
+
+	/**
+	 * Parses a quoted key and matches it against the known keys
+	 *
+	 * @return index of the key, or -1 if it is not a plain known key
+	 */
+	private int parseKey() {
+		if (!consume('"')) {
+			return -1;
+		}
+		int start = position;
+		while (position < json.length() && json.charAt(position) != '"') {
+			if (json.charAt(position) == '\\') {
+				return -1;
+			}
+			position++;
+		}
+		if (position == json.length()) {
+			return -1;
+		}
+		int length = position - start;
+		position++;
+		for (int key = 0; key < KEYS.length; key++) {
+			if (matches(KEYS[key], start, length)) {
+				return key;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(String key, int start, int length) {
+		if (key.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (json.charAt(start + i) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a json number into {@link #number} if it converts exactly
+	 *
+	 * @return <code>false</code> if it is not a json number or does not
+	 *         convert exactly
+	 */
+	private boolean parseNumber() {
+		boolean negative = consume('-');
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		// integer part, without leading zeros
+		if (consume('0')) {
+			if (isDigit()) {
+				return false;
+			}
+		} else if (!isDigit()) {
+			return false;
+		}
+		while (isDigit()) {
+			if (++digits > MAX_DIGITS) {
+				return false;
+			}
+			mantissa = mantissa * 10 + json.charAt(position++) - '0';
+		}
+		int integerEnd = position;
+		// fraction, shifting its digits into the mantissa
+		if (consume('.')) {
+			if (!isDigit()) {
+				return false;
+			}
+			while (isDigit()) {
+				if ((mantissa > 0 || json.charAt(position) != '0')
+						&& ++digits > MAX_DIGITS) {
+					return false;
+				}
+				mantissa = mantissa * 10 + json.charAt(position++) - '0';
+				exponent--;
+			}
+		}
+		// exponent
+		if (consume('e') || consume('E')) {
+			boolean negativeExponent = consume('-');
+			if (!negativeExponent) {
+				consume('+');
+			}
+			if (!isDigit()) {
+				return false;
+			}
+			int value = 0;
+			while (isDigit()) {
+				if (value > POWERS_OF_TEN.length + MAX_DIGITS) {
+					return false;
+				}
+				value = value * 10 + json.charAt(position++) - '0';
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		// one rounding of exact operands is as exact as a full conversion
+		if (mantissa == 0) {
+			number = 0;
+		} else if (mantissa > MAX_EXACT_MANTISSA
+				|| Math.abs(exponent) >= POWERS_OF_TEN.length) {
+			return false;
+		} else if (exponent < 0) {
+			number = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			number = mantissa * POWERS_OF_TEN[exponent];
+		}
+		// an integer is a long to json bindings, which has no negative zero
+		if (negative && (mantissa != 0 || position != integerEnd)) {
+			number = -number;
+		}
+		return true;
+	}
+
+	private boolean isDigit() {
+		if (position == json.length()) {
+			return false;
+		}
+		char c = json.charAt(position);
+		return c >= '0' && c <= '9';
+	}
+
+	private boolean consume(char c) {
+		if (position < json.length() && json.charAt(position) == c) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void skipWhitespace() {
+		while (position < json.length()) {
+			char c = json.charAt(position);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	private boolean isAtEnd() {
+		skipWhitespace();
+		return position == json.length();
+	}
+}
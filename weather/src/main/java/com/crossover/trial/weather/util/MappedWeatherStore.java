@@ -0,0 +1,560 @@
+package com.crossover.trial.weather.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import com.crossover.trial.weather.pojo.AirportData;
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * A weather store backed by a memory-mapped file. Every airport gets a fixed
+ * size record with a fixed size slot for each data point type, so a write
+ * changes a few bytes in place and allocates nothing. The records live in
+ * the page cache outside the java heap, the garbage collector never scans
+ * them, and they outlive the process: reopening the file only rebuilds the
+ * id map of the airports, so a restarted server answers with the data of its
+ * previous run at once.
+ *
+ * Writes reach the file through the page cache, so they survive a crash of
+ * the process but not of the machine unless they are forced by
+ * {@link #close}.
+ *
+ * The file starts with a header of 64 bytes: magic, layout version, record
+ * capacity, number of used records and number of data point slots. A file
+ * written with another number of {@link DataPointType}s is rejected. Records
+ * are 48 bytes plus 24 bytes per data point type:
+ *
+ * <pre>
+ *   0 version        long
+ *   8 update time    long
+ *  16 latitude       double
+ *  24 longitude      double
+ *  32 presence mask  int, bit i is set if data point type i is present
+ *  36 iata length    byte, 0 for a free record
+ *  37 iata code      11 ASCII bytes
+ *  48 data point slots of 24 bytes in {@link DataPointType} slot order:
+ *     mean double, first int, second int, third int, count int
+ * </pre>
+ *
+ * Concurrency works as in {@link WeatherColumnStore}: writers are serialized
+ * by the store, readers read a record optimistically under a striped
+ * {@link StampedLock} and retry if a writer changed it meanwhile.
+ *
+ * @author burak
+ */
+public class MappedWeatherStore implements WeatherStore, Closeable {
+
+	private static final int MAGIC = 0x57545352;
+
+	private static final int LAYOUT_VERSION = 2;
+
+	private static final int HEADER_SIZE = 64;
+
+	private static final int MAGIC_OFFSET = 0;
+
+	private static final int LAYOUT_OFFSET = 4;
+
+	private static final int CAPACITY_OFFSET = 8;
+
+	private static final int SIZE_OFFSET = 12;
+
+	private static final int SLOT_COUNT_OFFSET = 16;
+
+	private static final int VERSION = 0;
+
+	private static final int UPDATE_TIME = 8;
+
+	private static final int LATITUDE = 16;
+
+	private static final int LONGITUDE = 24;
+
+	private static final int MASK = 32;
+
+	private static final int IATA_LENGTH = 36;
+
+	private static final int IATA = 37;
+
+	private static final int MAX_IATA_LENGTH = 11;
+
+	private static final int SLOTS = 48;
+
+	private static final int SLOT_SIZE = 24;
+
+	private static final int FIRST = 8;
+
+	private static final int SECOND = 12;
+
+	private static final int THIRD = 16;
+
+	private static final int COUNT = 20;
+
+	private static final int RECORD_SIZE = SLOTS + DataPointType.count()
+			* SLOT_SIZE;
+
+	/** data point types in slot order */
+	private static final DataPointType[] POINT_TYPES = DataPointType.values();
+
+	/** number of record lock stripes, a power of two */
+	private static final int LOCK_STRIPES = 64;
+
+	/** record locks, the record of id i is guarded by stripe i % LOCK_STRIPES */
+	private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+
+	/** dense ids keyed by iata code */
+	private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/** channel of the file */
+	private final FileChannel channel;
+
+	/** current mapping of the file, replaced when it grows */
+	private volatile MappedByteBuffer buffer;
+
+	/** number of records of the current mapping */
+	private int capacity;
+
+	/** number of used records, free ones included */
+	private int size;
+
+	/** ids of free records, reused before new ones */
+	private int[] freeIds = new int[64];
+
+	/** number of free ids */
+	private int freeCount;
+
+	/**
+	 * Opens the store in the given file, creating the file if it does not
+	 * exist
+	 *
+	 * @param path
+	 *            path of the file
+	 * @param initialCapacity
+	 *            number of records of a new file, it doubles when it is full
+	 * @throws IOException
+	 *             if the file can not be mapped or is not a weather store
+	 */
+	public MappedWeatherStore(Path path, int initialCapacity)
+			throws IOException {
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new StampedLock();
+		}
+		channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				capacity = Math.max(1, initialCapacity);
+				buffer = map(capacity);
+				buffer.putInt(MAGIC_OFFSET, MAGIC);
+				buffer.putInt(LAYOUT_OFFSET, LAYOUT_VERSION);
+				buffer.putInt(CAPACITY_OFFSET, capacity);
+				buffer.putInt(SIZE_OFFSET, 0);
+				buffer.putInt(SLOT_COUNT_OFFSET, DataPointType.count());
+			} else {
+				open(path);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps an existing file and rebuilds the id map from its records
+	 */
+	private void open(Path path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		if (header.getInt(MAGIC_OFFSET) != MAGIC
+				|| header.getInt(LAYOUT_OFFSET) != LAYOUT_VERSION) {
+			throw new IOException(MessageFormat.format(
+					"\"{0}\" is not a weather store of layout \"{1}\"", path,
+					LAYOUT_VERSION));
+		}
+		if (header.getInt(SLOT_COUNT_OFFSET) != DataPointType.count()) {
+			throw new IOException(MessageFormat.format(
+					"Weather store \"{0}\" has \"{1}\" data point slots instead of \"{2}\"",
+					path, header.getInt(SLOT_COUNT_OFFSET),
+					DataPointType.count()));
+		}
+		capacity = header.getInt(CAPACITY_OFFSET);
+		size = header.getInt(SIZE_OFFSET);
+		if (size > capacity
+				|| channel.size() < HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+			throw new IOException(MessageFormat.format(
+					"Weather store \"{0}\" is truncated", path));
+		}
+		buffer = map(capacity);
+		for (int id = 0; id < size; id++) {
+			String iataCode = readIata(buffer, offsetOf(id));
+			if (iataCode == null) {
+				releaseId(id);
+			} else {
+				ids.put(iataCode, id);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void put(AirportData airportData,
+			AtmosphericInformation atmInfo, long version) {
+		String iataCode = airportData.getIata();
+		checkIata(iataCode);
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			id = allocateId();
+		}
+		ByteBuffer b = buffer;
+		int offset = offsetOf(id);
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			b.put(offset + IATA_LENGTH, (byte) iataCode.length());
+			for (int i = 0; i < iataCode.length(); i++) {
+				b.put(offset + IATA + i, (byte) iataCode.charAt(i));
+			}
+			b.putDouble(offset + LATITUDE, airportData.getLatitude());
+			b.putDouble(offset + LONGITUDE, airportData.getLongitude());
+			b.putInt(offset + MASK, 0);
+			for (DataPointType pointType : POINT_TYPES) {
+				DataPoint dataPoint = atmInfo.getDataPoint(pointType);
+				if (dataPoint != null) {
+					writeSlot(b, offset, pointType, dataPoint);
+				}
+			}
+			b.putLong(offset + UPDATE_TIME, atmInfo.getLastUpdateTime());
+			b.putLong(offset + VERSION, version);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		ids.put(iataCode, id);
+	}
+
+	@Override
+	public synchronized boolean write(String iataCode, DataPointType pointType,
+			DataPoint dataPoint, long updateTime, long version) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return false;
+		}
+		ByteBuffer b = buffer;
+		int offset = offsetOf(id);
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			writeSlot(b, offset, pointType, dataPoint);
+			b.putLong(offset + UPDATE_TIME, updateTime);
+			b.putLong(offset + VERSION, version);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean write(String iataCode,
+			DataPointType[] pointTypes, DataPoint[] dataPoints, int count,
+			long updateTime, long version) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return false;
+		}
+		ByteBuffer b = buffer;
+		int offset = offsetOf(id);
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			for (int i = 0; i < count; i++) {
+				writeSlot(b, offset, pointTypes[i], dataPoints[i]);
+			}
+			b.putLong(offset + UPDATE_TIME, updateTime);
+			b.putLong(offset + VERSION, version);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean remove(String iataCode) {
+		Integer id = ids.remove(iataCode);
+		if (id == null) {
+			return false;
+		}
+		freeRecord(id);
+		releaseId(id);
+		return true;
+	}
+
+	@Override
+	public synchronized void clear() {
+		for (int id = 0; id < size; id++) {
+			freeRecord(id);
+		}
+		ids.clear();
+		freeCount = 0;
+		size = 0;
+		buffer.putInt(SIZE_OFFSET, 0);
+	}
+
+	@Override
+	public AtmosphericInformation read(String iataCode) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return null;
+		}
+		int offset = offsetOf(id);
+		StampedLock lock = lockOf(id);
+		DataPoint[] dataPoints = new DataPoint[POINT_TYPES.length];
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			ByteBuffer b = buffer;
+			boolean known = isAirport(b, offset, iataCode);
+			int mask = known ? b.getInt(offset + MASK) : 0;
+			long updateTime = known ? b.getLong(offset + UPDATE_TIME) : 0;
+			for (int type = 0; type < dataPoints.length; type++) {
+				dataPoints[type] = (mask & (1 << type)) == 0 ? null
+						: readSlot(b, offset + SLOTS + type * SLOT_SIZE);
+			}
+			if (stamp != 0 && lock.validate(stamp)) {
+				return known ? AtmosphericInformation.fromDataPoints(
+						dataPoints, updateTime) : null;
+			}
+		}
+	}
+
+	@Override
+	public long getVersion(String iataCode) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return -1;
+		}
+		int offset = offsetOf(id);
+		StampedLock lock = lockOf(id);
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			ByteBuffer b = buffer;
+			long version = isAirport(b, offset, iataCode) ? b.getLong(offset
+					+ VERSION) : -1;
+			if (stamp != 0 && lock.validate(stamp)) {
+				return version;
+			}
+		}
+	}
+
+	@Override
+	public boolean hasAnyDataPoint(String iataCode) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return false;
+		}
+		int offset = offsetOf(id);
+		StampedLock lock = lockOf(id);
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			ByteBuffer b = buffer;
+			boolean any = isAirport(b, offset, iataCode)
+					&& b.getInt(offset + MASK) != 0;
+			if (stamp != 0 && lock.validate(stamp)) {
+				return any;
+			}
+		}
+	}
+
+	@Override
+	public boolean contains(String iataCode) {
+		return ids.containsKey(iataCode);
+	}
+
+	@Override
+	public int countUpdatedSince(long time) {
+		ByteBuffer b = buffer;
+		int count = 0;
+		for (int id = 0; id < size; id++) {
+			int offset = offsetOf(id);
+			if (b.get(offset + IATA_LENGTH) != 0
+					&& b.getInt(offset + MASK) != 0
+					&& b.getLong(offset + UPDATE_TIME) > time) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized void forEachAirport(Consumer<AirportData> consumer) {
+		ByteBuffer b = buffer;
+		for (int id = 0; id < size; id++) {
+			int offset = offsetOf(id);
+			String iataCode = readIata(b, offset);
+			if (iataCode != null) {
+				consumer.accept(new AirportData(iataCode, b.getDouble(offset
+						+ LATITUDE), b.getDouble(offset + LONGITUDE)));
+			}
+		}
+	}
+
+	@Override
+	public synchronized long getMaxVersion() {
+		ByteBuffer b = buffer;
+		long maxVersion = 0;
+		for (int id = 0; id < size; id++) {
+			int offset = offsetOf(id);
+			if (b.get(offset + IATA_LENGTH) != 0) {
+				maxVersion = Math.max(maxVersion, b.getLong(offset + VERSION));
+			}
+		}
+		return maxVersion;
+	}
+
+	@Override
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Forces the records to the disk and closes the file, the store must not
+	 * be used afterwards
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		buffer.force();
+		channel.close();
+	}
+
+	/**
+	 * Hands out a free id, or the next new one growing the file if needed
+	 */
+	private int allocateId() {
+		if (freeCount > 0) {
+			return freeIds[--freeCount];
+		}
+		if (size == capacity) {
+			try {
+				// the old mapping stays valid and shares the page cache with
+				// the new one
+				buffer = map(capacity * 2);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			capacity *= 2;
+			buffer.putInt(CAPACITY_OFFSET, capacity);
+		}
+		buffer.putInt(SIZE_OFFSET, ++size);
+		return size - 1;
+	}
+
+	private void releaseId(int id) {
+		if (freeCount == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+		}
+		freeIds[freeCount++] = id;
+	}
+
+	/**
+	 * Marks the record of the given id as free
+	 */
+	private void freeRecord(int id) {
+		int offset = offsetOf(id);
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			buffer.put(offset + IATA_LENGTH, (byte) 0);
+			buffer.putInt(offset + MASK, 0);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	private MappedByteBuffer map(int records) throws IOException {
+		return channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) records
+				* RECORD_SIZE);
+	}
+
+	private StampedLock lockOf(int id) {
+		return locks[id & (LOCK_STRIPES - 1)];
+	}
+
+	private static int offsetOf(int id) {
+		return HEADER_SIZE + id * RECORD_SIZE;
+	}
+
+	/**
+	 * Checks the given iata code fits into a record
+	 */
+	private static void checkIata(String iataCode) {
+		boolean valid = !iataCode.isEmpty()
+				&& iataCode.length() <= MAX_IATA_LENGTH;
+		for (int i = 0; valid && i < iataCode.length(); i++) {
+			valid = iataCode.charAt(i) > 0 && iataCode.charAt(i) < 128;
+		}
+		if (!valid) {
+			throw new IllegalArgumentException(MessageFormat.format(
+					"Iata code \"{0}\" can not be stored", iataCode));
+		}
+	}
+
+	/**
+	 * Checks the record at the given offset belongs to the airport with the
+	 * given iata code, as records of removed airports are reused
+	 */
+	private static boolean isAirport(ByteBuffer b, int offset, String iataCode) {
+		if (offset + RECORD_SIZE > b.capacity()
+				|| b.get(offset + IATA_LENGTH) != iataCode.length()) {
+			return false;
+		}
+		for (int i = 0; i < iataCode.length(); i++) {
+			if (b.get(offset + IATA + i) != iataCode.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return iata code of the record at the given offset, or null if it is
+	 *         free
+	 */
+	private static String readIata(ByteBuffer b, int offset) {
+		int length = b.get(offset + IATA_LENGTH);
+		if (length <= 0 || length > MAX_IATA_LENGTH) {
+			return null;
+		}
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) b.get(offset + IATA + i);
+		}
+		return new String(chars);
+	}
+
+	private static void writeSlot(ByteBuffer b, int offset,
+			DataPointType pointType, DataPoint dataPoint) {
+		int slot = offset + SLOTS + pointType.getSlot() * SLOT_SIZE;
+		b.putDouble(slot, dataPoint.getMean());
+		b.putInt(slot + FIRST, dataPoint.getFirst());
+		b.putInt(slot + SECOND, dataPoint.getSecond());
+		b.putInt(slot + THIRD, dataPoint.getThird());
+		b.putInt(slot + COUNT, dataPoint.getCount());
+		b.putInt(offset + MASK, b.getInt(offset + MASK)
+				| 1 << pointType.getSlot());
+	}
+
+	private static DataPoint readSlot(ByteBuffer b, int slot) {
+		return WeatherColumnStore.newDataPoint(b.getDouble(slot),
+				b.getInt(slot + FIRST), b.getInt(slot + SECOND),
+				b.getInt(slot + THIRD), b.getInt(slot + COUNT));
+	}
+}
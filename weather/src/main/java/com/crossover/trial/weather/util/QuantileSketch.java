@@ -0,0 +1,235 @@
+package com.crossover.trial.weather.util;
+
+/**
+ * A mergeable sketch of the distribution of weighted values in the style of
+ * a merging t-digest. Values are kept as weighted centroids sorted by mean,
+ * which are small near the tails and large near the median, so quantiles are
+ * accurate where it matters with a few dozen centroids. Sketches built
+ * separately merge into a sketch of all their values.
+ *
+ * Centroids and newly added values share two fixed primitive arrays: the
+ * centroids first, then the buffered values. When the arrays are full the
+ * buffer is sorted into the centroids and adjacent centroids are merged in
+ * place while the merged centroid stays within the size limit of its
+ * quantile, so adding a value never allocates.
+ *
+ * A sketch is not thread safe.
+ *
+ * @author burak
+ */
+public class QuantileSketch {
+
+	/** default compression, bounding the number of centroids */
+	public static final int DEFAULT_COMPRESSION = 25;
+
+	/** number of centroids and buffered values kept per compression unit */
+	private static final int CAPACITY_FACTOR = 2;
+
+	/** compression, at most compression + 1 centroids remain after a merge */
+	private final double compression;
+
+	/** means of the centroids followed by the buffered values */
+	private final double[] means;
+
+	/** weights of the centroids followed by the buffered values */
+	private final double[] weights;
+
+	/** number of merged centroids */
+	private int size;
+
+	/** number of buffered values after the centroids */
+	private int buffered;
+
+	/** total weight of the values */
+	private double totalWeight;
+
+	private double min = Double.POSITIVE_INFINITY;
+
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public QuantileSketch() {
+		this(DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param compression
+	 *            compression of the sketch, higher values keep more
+	 *            centroids and give more accurate quantiles
+	 */
+	public QuantileSketch(int compression) {
+		this.compression = Math.max(2, compression);
+		int capacity = CAPACITY_FACTOR * (int) this.compression + 8;
+		means = new double[capacity];
+		weights = new double[capacity];
+	}
+
+	/**
+	 * Adds a weighted value
+	 *
+	 * @param value
+	 *            the value
+	 * @param weight
+	 *            weight of the value, values with a weight which is not
+	 *            positive are ignored
+	 */
+	public void add(double value, double weight) {
+		if (!(weight > 0) || Double.isNaN(value)) {
+			return;
+		}
+		if (size + buffered == means.length) {
+			compress();
+		}
+		means[size + buffered] = value;
+		weights[size + buffered] = weight;
+		buffered++;
+		totalWeight += weight;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Adds all values of another sketch, as its centroids
+	 *
+	 * @param other
+	 *            sketch to merge, it is not changed
+	 */
+	public void merge(QuantileSketch other) {
+		int count = other.size + other.buffered;
+		for (int i = 0; i < count; i++) {
+			add(other.means[i], other.weights[i]);
+		}
+		// centroids have lost the extremes of the other sketch
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Estimates the value at the given quantile
+	 *
+	 * @param q
+	 *            quantile between 0 and 1
+	 * @return estimated value, or NaN if the sketch is empty
+	 */
+	public double quantile(double q) {
+		compress();
+		if (size == 0) {
+			return Double.NaN;
+		}
+		if (q <= 0) {
+			return min;
+		}
+		if (q >= 1) {
+			return max;
+		}
+		double index = q * totalWeight;
+		// before the center of the first centroid
+		if (index < weights[0] / 2) {
+			return min + (means[0] - min) * index / (weights[0] / 2);
+		}
+		double cumulative = 0;
+		for (int i = 0; i < size - 1; i++) {
+			double center = cumulative + weights[i] / 2;
+			double nextCenter = cumulative + weights[i] + weights[i + 1] / 2;
+			if (index < nextCenter) {
+				return means[i] + (means[i + 1] - means[i]) * (index - center)
+						/ (nextCenter - center);
+			}
+			cumulative += weights[i];
+		}
+		// after the center of the last centroid
+		double center = totalWeight - weights[size - 1] / 2;
+		return means[size - 1] + (max - means[size - 1]) * (index - center)
+				/ (totalWeight - center);
+	}
+
+	/**
+	 * @return total weight of the values
+	 */
+	public double getTotalWeight() {
+		return totalWeight;
+	}
+
+	/**
+	 * @return smallest value, or positive infinity if the sketch is empty
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return largest value, or negative infinity if the sketch is empty
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return number of centroids and buffered values
+	 */
+	public int getCentroidCount() {
+		return size + buffered;
+	}
+
+	/**
+	 * Removes all values
+	 */
+	public void clear() {
+		size = 0;
+		buffered = 0;
+		totalWeight = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Sorts the buffered values into the centroids and merges adjacent
+	 * centroids while the merged one stays within the size limit of its
+	 * quantile
+	 */
+	private void compress() {
+		if (buffered == 0) {
+			return;
+		}
+		int count = size + buffered;
+		// insert the buffered values into the sorted centroids
+		for (int i = size; i < count; i++) {
+			double mean = means[i];
+			double weight = weights[i];
+			int j = i - 1;
+			while (j >= 0 && means[j] > mean) {
+				means[j + 1] = means[j];
+				weights[j + 1] = weights[j];
+				j--;
+			}
+			means[j + 1] = mean;
+			weights[j + 1] = weight;
+		}
+		// merge in place, the output never overtakes the input
+		int out = 0;
+		double weightBefore = 0;
+		double limit = scale(0) + 1;
+		for (int i = 1; i < count; i++) {
+			double merged = weights[out] + weights[i];
+			if (scale((weightBefore + merged) / totalWeight) <= limit) {
+				means[out] += (means[i] - means[out]) * weights[i] / merged;
+				weights[out] = merged;
+			} else {
+				weightBefore += weights[out];
+				limit = scale(weightBefore / totalWeight) + 1;
+				out++;
+				means[out] = means[i];
+				weights[out] = weights[i];
+			}
+		}
+		size = out + 1;
+		buffered = 0;
+	}
+
+	/**
+	 * The scale function of the sketch, a centroid may span one unit of it
+	 */
+	private double scale(double q) {
+		return compression / (2 * Math.PI)
+				* Math.asin(2 * Math.min(1, Math.max(0, q)) - 1);
+	}
+}
@@ -0,0 +1,114 @@
+package com.crossover.trial.weather.util;
+
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherChanges;
+
+/**
+ * A bounded journal of the changes of the atmospheric information, held in a
+ * ring of parallel arrays. Versions are taken from the global version
+ * sequence while the journal is locked, so the entries are ordered by
+ * version and a reader never sees a version before all smaller ones.
+ *
+ * When the ring is full the oldest entry is overwritten and its version
+ * becomes the floor of the journal. Readers asking for changes before the
+ * floor are told to resync fully.
+ *
+ * @author burak
+ */
+public class WeatherChangeJournal {
+
+	/** versions of the entries */
+	private final long[] versions;
+
+	/** iata codes of the changed airports */
+	private final String[] iataCodes;
+
+	/** changed data point types, null if the whole information changed */
+	private final DataPointType[] pointTypes;
+
+	/** number of entries appended since the last reset */
+	private long count;
+
+	/** changes up to this version may have been dropped */
+	private long floorVersion;
+
+	/** version of the last entry */
+	private long lastVersion;
+
+	/**
+	 * @param capacity
+	 *            maximum number of retained entries
+	 */
+	public WeatherChangeJournal(int capacity) {
+		versions = new long[capacity];
+		iataCodes = new String[capacity];
+		pointTypes = new DataPointType[capacity];
+	}
+
+	/**
+	 * Appends a change with the next version of the global version sequence
+	 *
+	 * @param iataCode
+	 *            iata code of the changed airport
+	 * @param pointType
+	 *            changed data point type, or null if the whole atmospheric
+	 *            information was added or removed
+	 * @return version of the change
+	 */
+	public synchronized long append(String iataCode, DataPointType pointType) {
+		long version = WeatherService.nextVersion();
+		int slot = (int) (count % versions.length);
+		if (count >= versions.length) {
+			// the oldest entry is overwritten
+			floorVersion = versions[slot];
+		}
+		versions[slot] = version;
+		iataCodes[slot] = iataCode;
+		pointTypes[slot] = pointType;
+		count++;
+		lastVersion = version;
+		return version;
+	}
+
+	/**
+	 * Drops all entries, readers of earlier versions have to resync fully
+	 */
+	public synchronized void reset() {
+		count = 0;
+		lastVersion = WeatherService.nextVersion();
+		floorVersion = lastVersion;
+	}
+
+	/**
+	 * Collects the changes after the given version
+	 *
+	 * @param sinceVersion
+	 *            last version known by the reader
+	 * @return changes after the version, or a resync notice with the current
+	 *         version if some of them have been dropped or the version is
+	 *         unknown
+	 */
+	public synchronized WeatherChanges getChangesSince(long sinceVersion) {
+		// versions beyond the last one come from before a restart
+		if (sinceVersion < floorVersion || sinceVersion > lastVersion) {
+			return new WeatherChanges(lastVersion, true);
+		}
+		WeatherChanges changes = new WeatherChanges(lastVersion, false);
+		// binary search the first retained entry after the version
+		long low = Math.max(0, count - versions.length);
+		long high = count;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (versions[(int) (middle % versions.length)] <= sinceVersion) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (long i = low; i < count; i++) {
+			int slot = (int) (i % versions.length);
+			changes.addChange(iataCodes[slot], pointTypes[slot]);
+		}
+		return changes;
+	}
+}
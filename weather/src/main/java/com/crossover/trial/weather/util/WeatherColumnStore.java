@@ -0,0 +1,388 @@
+package com.crossover.trial.weather.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import com.crossover.trial.weather.pojo.AirportData;
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * A columnar store of the weather data of the airports. Every airport gets a
+ * dense id, and the mean, quartiles and count of each of its data points are
+ * kept in flat primitive arrays at the slot <code>id * 6 + type</code>, so an
+ * airport costs a few primitive slots instead of six {@link DataPoint}
+ * objects. Writing a data point copies its values into the arrays without
+ * allocating, {@link DataPoint} and {@link AtmosphericInformation} views are
+ * only created by {@link #read}. The store lives on the heap and is lost on
+ * restart, see {@link MappedWeatherStore} for a persistent one.
+ *
+ * Writers are serialized by the store. Readers never lock: they read a row
+ * optimistically under one of the striped {@link StampedLock}s and retry if
+ * a writer changed it meanwhile, so they always see a consistent row.
+ *
+ * @author burak
+ */
+public class WeatherColumnStore implements WeatherStore {
+
+	/** data point types in slot order */
+	private static final DataPointType[] POINT_TYPES = DataPointType.values();
+
+	/** number of data point slots of an airport */
+	private static final int TYPES = POINT_TYPES.length;
+
+	/** initial capacity of the arrays, in airports */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** number of row lock stripes, a power of two */
+	private static final int LOCK_STRIPES = 64;
+
+	/** row locks, the row of id i is guarded by stripe i % LOCK_STRIPES */
+	private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+
+	/** dense ids keyed by iata code */
+	private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/** current columns, replaced when they grow */
+	private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+
+	/** ids released by removed airports, reused before new ones */
+	private int[] freeIds = new int[INITIAL_CAPACITY];
+
+	/** number of released ids */
+	private int freeCount;
+
+	/** number of ids ever handed out since the last clear */
+	private int size;
+
+	public WeatherColumnStore() {
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new StampedLock();
+		}
+	}
+
+	@Override
+	public synchronized void put(AirportData airportData,
+			AtmosphericInformation atmInfo, long version) {
+		String iataCode = airportData.getIata();
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			id = allocateId();
+		}
+		Columns c = columns;
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			c.airports[id] = airportData;
+			c.masks[id] = 0;
+			for (DataPointType pointType : POINT_TYPES) {
+				DataPoint dataPoint = atmInfo.getDataPoint(pointType);
+				if (dataPoint != null) {
+					writeSlot(c, id, pointType, dataPoint);
+				}
+			}
+			c.updateTimes[id] = atmInfo.getLastUpdateTime();
+			c.versions[id] = version;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		ids.put(iataCode, id);
+	}
+
+	@Override
+	public synchronized boolean write(String iataCode, DataPointType pointType,
+			DataPoint dataPoint, long updateTime, long version) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return false;
+		}
+		Columns c = columns;
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			writeSlot(c, id, pointType, dataPoint);
+			c.updateTimes[id] = updateTime;
+			c.versions[id] = version;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean write(String iataCode,
+			DataPointType[] pointTypes, DataPoint[] dataPoints, int count,
+			long updateTime, long version) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return false;
+		}
+		Columns c = columns;
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			for (int i = 0; i < count; i++) {
+				writeSlot(c, id, pointTypes[i], dataPoints[i]);
+			}
+			c.updateTimes[id] = updateTime;
+			c.versions[id] = version;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean remove(String iataCode) {
+		Integer id = ids.remove(iataCode);
+		if (id == null) {
+			return false;
+		}
+		Columns c = columns;
+		StampedLock lock = lockOf(id);
+		long stamp = lock.writeLock();
+		try {
+			c.airports[id] = null;
+			c.masks[id] = 0;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		if (freeCount == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+		}
+		freeIds[freeCount++] = id;
+		return true;
+	}
+
+	@Override
+	public synchronized void clear() {
+		ids.clear();
+		columns = new Columns(INITIAL_CAPACITY);
+		freeCount = 0;
+		size = 0;
+	}
+
+	@Override
+	public AtmosphericInformation read(String iataCode) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return null;
+		}
+		StampedLock lock = lockOf(id);
+		DataPoint[] dataPoints = new DataPoint[TYPES];
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			Columns c = columns;
+			boolean known = isAirport(c, id, iataCode);
+			int mask = known ? c.masks[id] : 0;
+			long updateTime = known ? c.updateTimes[id] : 0;
+			for (int type = 0; type < TYPES; type++) {
+				dataPoints[type] = (mask & (1 << type)) == 0 ? null
+						: readSlot(c, id * TYPES + type);
+			}
+			if (stamp != 0 && lock.validate(stamp)) {
+				return known ? AtmosphericInformation.fromDataPoints(
+						dataPoints, updateTime) : null;
+			}
+		}
+	}
+
+	@Override
+	public long getVersion(String iataCode) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return -1;
+		}
+		StampedLock lock = lockOf(id);
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			Columns c = columns;
+			boolean known = isAirport(c, id, iataCode);
+			long version = known ? c.versions[id] : -1;
+			if (stamp != 0 && lock.validate(stamp)) {
+				return version;
+			}
+		}
+	}
+
+	@Override
+	public boolean hasAnyDataPoint(String iataCode) {
+		Integer id = ids.get(iataCode);
+		if (id == null) {
+			return false;
+		}
+		StampedLock lock = lockOf(id);
+		while (true) {
+			long stamp = lock.tryOptimisticRead();
+			Columns c = columns;
+			boolean any = isAirport(c, id, iataCode) && c.masks[id] != 0;
+			if (stamp != 0 && lock.validate(stamp)) {
+				return any;
+			}
+		}
+	}
+
+	@Override
+	public int countUpdatedSince(long time) {
+		Columns c = columns;
+		int count = 0;
+		for (int id = 0; id < c.airports.length; id++) {
+			if (c.airports[id] != null && c.masks[id] != 0
+					&& c.updateTimes[id] > time) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public boolean contains(String iataCode) {
+		return ids.containsKey(iataCode);
+	}
+
+	@Override
+	public void forEachAirport(Consumer<AirportData> consumer) {
+		for (AirportData airportData : columns.airports) {
+			if (airportData != null) {
+				consumer.accept(airportData);
+			}
+		}
+	}
+
+	@Override
+	public long getMaxVersion() {
+		Columns c = columns;
+		long maxVersion = 0;
+		for (int id = 0; id < c.airports.length; id++) {
+			if (c.airports[id] != null) {
+				maxVersion = Math.max(maxVersion, c.versions[id]);
+			}
+		}
+		return maxVersion;
+	}
+
+	@Override
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Hands out a released id, or the next new one growing the columns if
+	 * needed
+	 */
+	private int allocateId() {
+		if (freeCount > 0) {
+			return freeIds[--freeCount];
+		}
+		Columns c = columns;
+		if (size == c.airports.length) {
+			// readers of the old columns fail their validation on the next
+			// write, as all writes go to the new ones
+			columns = c.copyOf(c.airports.length * 2);
+		}
+		return size++;
+	}
+
+	/**
+	 * Checks the given id still belongs to the airport with the given iata
+	 * code, as ids of removed airports are reused
+	 */
+	private static boolean isAirport(Columns c, int id, String iataCode) {
+		AirportData airportData = id < c.airports.length ? c.airports[id]
+				: null;
+		return airportData != null && iataCode.equals(airportData.getIata());
+	}
+
+	private StampedLock lockOf(int id) {
+		return locks[id & (LOCK_STRIPES - 1)];
+	}
+
+	private static void writeSlot(Columns c, int id, DataPointType pointType,
+			DataPoint dataPoint) {
+		int slot = id * TYPES + pointType.getSlot();
+		c.means[slot] = dataPoint.getMean();
+		c.firsts[slot] = dataPoint.getFirst();
+		c.seconds[slot] = dataPoint.getSecond();
+		c.thirds[slot] = dataPoint.getThird();
+		c.counts[slot] = dataPoint.getCount();
+		c.masks[id] |= 1 << pointType.getSlot();
+	}
+
+	private static DataPoint readSlot(Columns c, int slot) {
+		return newDataPoint(c.means[slot], c.firsts[slot], c.seconds[slot],
+				c.thirds[slot], c.counts[slot]);
+	}
+
+	/**
+	 * Creates a data point with the given stored values
+	 */
+	static DataPoint newDataPoint(double mean, int first, int second,
+			int third, int count) {
+		// the builder passes its mean as the second quartile
+		DataPoint dataPoint = new DataPoint.Builder().withFirst(first)
+				.withMean(second).withLast(third).withCount(count).build();
+		dataPoint.setMean(mean);
+		return dataPoint;
+	}
+
+	/**
+	 * The arrays of the store, data point columns are indexed by slot, the
+	 * others by airport id
+	 */
+	private static final class Columns {
+
+		final double[] means;
+
+		final int[] firsts;
+
+		final int[] seconds;
+
+		final int[] thirds;
+
+		final int[] counts;
+
+		/** bit i is set if the data point of type i is present */
+		final int[] masks;
+
+		/** last update times in milliseconds since UTC epoch */
+		final long[] updateTimes;
+
+		/** versions of the last changes */
+		final long[] versions;
+
+		/** the airports, null for released ids */
+		final AirportData[] airports;
+
+		Columns(int capacity) {
+			means = new double[capacity * TYPES];
+			firsts = new int[capacity * TYPES];
+			seconds = new int[capacity * TYPES];
+			thirds = new int[capacity * TYPES];
+			counts = new int[capacity * TYPES];
+			masks = new int[capacity];
+			updateTimes = new long[capacity];
+			versions = new long[capacity];
+			airports = new AirportData[capacity];
+		}
+
+		private Columns(Columns other, int capacity) {
+			means = Arrays.copyOf(other.means, capacity * TYPES);
+			firsts = Arrays.copyOf(other.firsts, capacity * TYPES);
+			seconds = Arrays.copyOf(other.seconds, capacity * TYPES);
+			thirds = Arrays.copyOf(other.thirds, capacity * TYPES);
+			counts = Arrays.copyOf(other.counts, capacity * TYPES);
+			masks = Arrays.copyOf(other.masks, capacity);
+			updateTimes = Arrays.copyOf(other.updateTimes, capacity);
+			versions = Arrays.copyOf(other.versions, capacity);
+			airports = Arrays.copyOf(other.airports, capacity);
+		}
+
+		Columns copyOf(int capacity) {
+			return new Columns(this, capacity);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.crossover.trial.weather.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherReadings;
+
+/**
+ * Recent readings of the data points of the airports. Every airport and data
+ * point type has a ring of a fixed capacity which keeps the update time and
+ * mean of the latest readings in primitive arrays, older readings are
+ * overwritten. The rings of an airport are allocated with its first reading,
+ * so an airport costs <code>6 * capacity * 16</code> bytes once it has any
+ * reading and nothing before.
+ *
+ * Writers are serialized by the caller, a reading costs an uncontended lock
+ * and a few array stores. Readers never lock: they copy a ring
+ * optimistically and retry if a writer changed it meanwhile.
+ *
+ * @author burak
+ */
+public class WeatherHistory {
+
+	/** data point types in ring order */
+	private static final DataPointType[] POINT_TYPES = DataPointType.values();
+
+	/** number of rings of an airport */
+	private static final int TYPES = POINT_TYPES.length;
+
+	/** maximum number of readings kept per airport and data point type */
+	private final int capacity;
+
+	/** rings of the airports with any reading, keyed by iata code */
+	private final Map<String, Rings> rings = new ConcurrentHashMap<String, Rings>();
+
+	/**
+	 * @param capacity
+	 *            maximum number of readings kept per airport and data point
+	 *            type, 0 to keep none
+	 */
+	public WeatherHistory(int capacity) {
+		this.capacity = Math.max(0, capacity);
+	}
+
+	/**
+	 * Records a reading, overwriting the oldest one of its ring if the ring
+	 * is full. Writers must be serialized by the caller.
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param mean
+	 *            mean value of the data point
+	 * @param time
+	 *            time of the reading, in milliseconds since UTC epoch
+	 */
+	public void record(String iataCode, DataPointType pointType, double mean,
+			long time) {
+		if (capacity == 0) {
+			return;
+		}
+		Rings airportRings = rings.get(iataCode);
+		if (airportRings == null) {
+			airportRings = new Rings(capacity);
+			rings.put(iataCode, airportRings);
+		}
+		int type = pointType.getSlot();
+		long stamp = airportRings.lock.writeLock();
+		try {
+			int slot = type * capacity
+					+ (int) (airportRings.counts[type] % capacity);
+			airportRings.times[slot] = time;
+			airportRings.means[slot] = mean;
+			airportRings.counts[type]++;
+		} finally {
+			airportRings.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Reads the kept readings of an airport and data point type in the given
+	 * time range, oldest first
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param from
+	 *            start of the time range, inclusive
+	 * @param to
+	 *            end of the time range, inclusive
+	 * @return {@link WeatherReadings}, empty if there is no reading
+	 */
+	public WeatherReadings read(String iataCode, DataPointType pointType,
+			long from, long to) {
+		Rings airportRings = rings.get(iataCode);
+		if (airportRings == null) {
+			return new WeatherReadings(iataCode, pointType, new long[0],
+					new double[0]);
+		}
+		int type = pointType.getSlot();
+		long[] times = new long[capacity];
+		double[] means = new double[capacity];
+		int size;
+		while (true) {
+			long stamp = airportRings.lock.tryOptimisticRead();
+			long count = airportRings.counts[type];
+			size = (int) Math.min(count, capacity);
+			// copy the ring oldest first
+			for (int i = 0; i < size; i++) {
+				int slot = type * capacity
+						+ (int) ((count - size + i) % capacity);
+				times[i] = airportRings.times[slot];
+				means[i] = airportRings.means[slot];
+			}
+			if (stamp != 0 && airportRings.lock.validate(stamp)) {
+				break;
+			}
+		}
+		// keep the readings in the time range
+		int matches = 0;
+		for (int i = 0; i < size; i++) {
+			if (times[i] >= from && times[i] <= to) {
+				times[matches] = times[i];
+				means[matches] = means[i];
+				matches++;
+			}
+		}
+		return new WeatherReadings(iataCode, pointType, shrink(times, matches),
+				shrink(means, matches));
+	}
+
+	/**
+	 * Drops the readings of an airport
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 */
+	public void remove(String iataCode) {
+		rings.remove(iataCode);
+	}
+
+	/**
+	 * Drops all readings
+	 */
+	public void clear() {
+		rings.clear();
+	}
+
+	private static long[] shrink(long[] values, int length) {
+		return values.length == length ? values : Arrays.copyOf(values,
+				length);
+	}
+
+	private static double[] shrink(double[] values, int length) {
+		return values.length == length ? values : Arrays.copyOf(values,
+				length);
+	}
+
+	/**
+	 * The rings of an airport, indexed by <code>type * capacity +
+	 * reading % capacity</code>
+	 */
+	private static final class Rings {
+
+		final StampedLock lock = new StampedLock();
+
+		/** update times in milliseconds since UTC epoch */
+		final long[] times;
+
+		/** mean values */
+		final double[] means;
+
+		/** number of readings ever recorded of each type */
+		final long[] counts = new long[TYPES];
+
+		Rings(int capacity) {
+			times = new long[TYPES * capacity];
+			means = new double[TYPES * capacity];
+		}
+	}
+}
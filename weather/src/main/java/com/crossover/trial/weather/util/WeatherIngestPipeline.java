@@ -0,0 +1,226 @@
+package com.crossover.trial.weather.util;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherUpdate;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
+
+/**
+ * An asynchronous ingest pipeline of weather updates. Collectors put their
+ * records into a bounded queue and return at once, a dedicated applier
+ * thread drains the queue in batches.
+ *
+ * Within a batch only the latest valid record of every airport and point
+ * type is kept, and the batch is applied with
+ * {@link WeatherService#addDataPoints} under a single acquisition of the
+ * writer lock. Invalid records are applied as they are, so they are rejected
+ * as by a synchronous update and never hide an earlier valid record.
+ *
+ * @author burak
+ */
+public class WeatherIngestPipeline {
+
+	private static final Logger logger = Logger
+			.getLogger(WeatherIngestPipeline.class);
+
+	/**
+	 * ingest statistics naming constant
+	 */
+	public static final String INGEST_STATS = "ingest";
+
+	/** time in milliseconds the applier waits for records before rechecking */
+	private static final long POLL_MILLIS = 100;
+
+	/** records waiting to be applied */
+	private final BlockingQueue<WeatherUpdate> queue;
+
+	/** maximum number of records drained in a batch */
+	private final int maxBatchSize;
+
+	/** applier thread */
+	private final Thread applier;
+
+	/** false once the pipeline has been shut down */
+	private volatile boolean running = true;
+
+	private final AtomicLong accepted = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private final AtomicLong applied = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Creates and starts a pipeline
+	 *
+	 * @param capacity
+	 *            maximum number of queued records
+	 * @param maxBatchSize
+	 *            maximum number of records drained in a batch
+	 */
+	public WeatherIngestPipeline(int capacity, int maxBatchSize) {
+		this.queue = new ArrayBlockingQueue<WeatherUpdate>(capacity);
+		this.maxBatchSize = maxBatchSize;
+		this.applier = new Thread(this::applyBatches, "weather-ingest-applier");
+		this.applier.setDaemon(true);
+		this.applier.start();
+	}
+
+	/**
+	 * Queues the given records without waiting. Records are accepted one by
+	 * one until the queue is full.
+	 *
+	 * @param updates
+	 *            records to queue
+	 * @return number of accepted records, the remaining ones are rejected
+	 */
+	public int submit(List<WeatherUpdate> updates) {
+		int count = 0;
+		if (running) {
+			while (count < updates.size()) {
+				WeatherUpdate update = updates.get(count);
+				if (update == null) {
+					// a missing record is accepted but has nothing to apply
+					failed.incrementAndGet();
+				} else if (!queue.offer(update)) {
+					break;
+				}
+				count++;
+			}
+		}
+		accepted.addAndGet(count);
+		rejected.addAndGet(updates.size() - count);
+		return count;
+	}
+
+	/**
+	 * Stops accepting records and waits until the queued ones are applied
+	 *
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException {
+		running = false;
+		applier.join();
+	}
+
+	/**
+	 * @return record counters and the current queue size
+	 */
+	public Map<String, Long> getStats() {
+		Map<String, Long> stats = new HashMap<String, Long>();
+		stats.put("accepted", accepted.get());
+		stats.put("rejected", rejected.get());
+		stats.put("coalesced", coalesced.get());
+		stats.put("applied", applied.get());
+		stats.put("failed", failed.get());
+		stats.put("queued", (long) queue.size());
+		return stats;
+	}
+
+	/**
+	 * Applies batches until the pipeline is shut down and its queue is empty
+	 */
+	private void applyBatches() {
+		List<WeatherUpdate> batch = new ArrayList<WeatherUpdate>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				WeatherUpdate first = queue.poll(POLL_MILLIS,
+						TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, maxBatchSize - 1);
+				applyBatch(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				// keep the applier alive, the batch is lost
+				logger.error("Weather ingest batch could not be applied", e);
+				failed.addAndGet(batch.size());
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Applies the latest valid record of every airport and point type and
+	 * the invalid records of the given batch
+	 *
+	 * @param batch
+	 *            drained records in queue order
+	 */
+	private void applyBatch(List<WeatherUpdate> batch) {
+		// index + 1 of the latest valid record of every airport, by slot
+		Map<String, int[]> latest = new HashMap<String, int[]>();
+		DataPointType[] pointTypes = new DataPointType[batch.size()];
+		for (int i = 0; i < batch.size(); i++) {
+			WeatherUpdate update = batch.get(i);
+			pointTypes[i] = getValidPointType(update);
+			if (pointTypes[i] != null) {
+				int[] latestOfAirport = latest.computeIfAbsent(
+						update.getIata(), iata -> new int[DataPointType.count()]);
+				latestOfAirport[pointTypes[i].getSlot()] = i + 1;
+			}
+		}
+		List<WeatherUpdate> records = new ArrayList<WeatherUpdate>(
+				batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			WeatherUpdate update = batch.get(i);
+			if (pointTypes[i] == null
+					|| latest.get(update.getIata())[pointTypes[i]
+							.getSlot()] == i + 1) {
+				records.add(update);
+			}
+		}
+		coalesced.addAndGet(batch.size() - records.size());
+		List<WeatherUpdateResult> results = WeatherService
+				.addDataPoints(records);
+		for (WeatherUpdateResult result : results) {
+			if (result == WeatherUpdateResult.APPLIED) {
+				applied.incrementAndGet();
+			} else {
+				failed.incrementAndGet();
+			}
+		}
+		logger.debug(MessageFormat.format(
+				"Weather ingest batch of \"{0}\" records has been applied",
+				batch.size()));
+	}
+
+	/**
+	 * Returns the point type of a record which can be applied if its airport
+	 * is known, without allocating
+	 *
+	 * @param update
+	 *            the record
+	 * @return type of the record, or null if it is not valid
+	 */
+	private static DataPointType getValidPointType(WeatherUpdate update) {
+		DataPointType pointType = DataPointType.find(update.getPointType());
+		DataPoint dataPoint = update.getDataPoint();
+		if (update.getIata() == null || pointType == null || dataPoint == null
+				|| !pointType.isInRange(dataPoint.getMean())) {
+			return null;
+		}
+		return pointType;
+	}
+}
@@ -0,0 +1,235 @@
+package com.crossover.trial.weather.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.RollupResolution;
+import com.crossover.trial.weather.pojo.WeatherRollup;
+
+/**
+ * Hourly and daily aggregates of the readings of the airports, updated
+ * incrementally with every reading. Every airport, data point type and
+ * {@link RollupResolution} has a ring of buckets, the slot of a bucket is its
+ * number since UTC epoch modulo the retention of the resolution. A reading
+ * adds its mean to the count, minimum, maximum and sum of its bucket, a slot
+ * still holding an older bucket is reset first. Buckets older than the
+ * retention are never returned, so queries only read the aggregates and
+ * memory is bounded by <code>6 * (hours + days) * 36</code> bytes per
+ * airport, allocated with its first reading.
+ *
+ * Writers are serialized by the caller, readers copy a ring optimistically
+ * and retry if a writer changed it meanwhile.
+ *
+ * @author burak
+ */
+public class WeatherRollups {
+
+	/** data point types in ring order */
+	private static final DataPointType[] POINT_TYPES = DataPointType.values();
+
+	/** number of rings of an airport per resolution */
+	private static final int TYPES = POINT_TYPES.length;
+
+	/** resolutions in ring order */
+	private static final RollupResolution[] RESOLUTIONS = RollupResolution
+			.values();
+
+	/** number of buckets kept of each resolution */
+	private final int[] retentions = new int[RESOLUTIONS.length];
+
+	/** rings of the airports with any reading, keyed by iata code */
+	private final Map<String, Rings> rings = new ConcurrentHashMap<String, Rings>();
+
+	/**
+	 * @param hours
+	 *            number of hourly buckets kept, including the current one
+	 * @param days
+	 *            number of daily buckets kept, including the current one
+	 */
+	public WeatherRollups(int hours, int days) {
+		retentions[RollupResolution.HOUR.ordinal()] = Math.max(1, hours);
+		retentions[RollupResolution.DAY.ordinal()] = Math.max(1, days);
+	}
+
+	/**
+	 * Adds a reading to the buckets of its time. Readings older than the
+	 * bucket in their slot are ignored. Writers must be serialized by the
+	 * caller.
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param mean
+	 *            mean value of the data point
+	 * @param time
+	 *            time of the reading, in milliseconds since UTC epoch
+	 */
+	public void record(String iataCode, DataPointType pointType, double mean,
+			long time) {
+		Rings airportRings = rings.get(iataCode);
+		if (airportRings == null) {
+			airportRings = new Rings(retentions);
+			rings.put(iataCode, airportRings);
+		}
+		long stamp = airportRings.lock.writeLock();
+		try {
+			for (int r = 0; r < RESOLUTIONS.length; r++) {
+				Ring ring = airportRings.rings[r];
+				long bucket = Math.floorDiv(time, RESOLUTIONS[r].getMillis());
+				int slot = pointType.getSlot() * retentions[r]
+						+ (int) Math.floorMod(bucket, (long) retentions[r]);
+				if (ring.counts[slot] == 0 || ring.buckets[slot] < bucket) {
+					ring.buckets[slot] = bucket;
+					ring.counts[slot] = 1;
+					ring.mins[slot] = mean;
+					ring.maxs[slot] = mean;
+					ring.sums[slot] = mean;
+				} else if (ring.buckets[slot] == bucket) {
+					ring.counts[slot]++;
+					ring.mins[slot] = Math.min(ring.mins[slot], mean);
+					ring.maxs[slot] = Math.max(ring.maxs[slot], mean);
+					ring.sums[slot] += mean;
+				}
+			}
+		} finally {
+			airportRings.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Reads the retained buckets of an airport and data point type which
+	 * overlap the given time range, oldest first
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param resolution
+	 *            resolution of the buckets
+	 * @param from
+	 *            start of the time range, inclusive
+	 * @param to
+	 *            end of the time range, inclusive
+	 * @param now
+	 *            current time, buckets before the retention of the
+	 *            resolution up to it have expired
+	 * @return {@link WeatherRollup}, empty if there is no bucket
+	 */
+	public WeatherRollup read(String iataCode, DataPointType pointType,
+			RollupResolution resolution, long from, long to, long now) {
+		int r = resolution.ordinal();
+		int retention = retentions[r];
+		long[] buckets = new long[retention];
+		int[] counts = new int[retention];
+		double[] mins = new double[retention];
+		double[] maxs = new double[retention];
+		double[] sums = new double[retention];
+		Rings airportRings = rings.get(iataCode);
+		if (airportRings != null) {
+			Ring ring = airportRings.rings[r];
+			int offset = pointType.getSlot() * retention;
+			while (true) {
+				long stamp = airportRings.lock.tryOptimisticRead();
+				System.arraycopy(ring.buckets, offset, buckets, 0, retention);
+				System.arraycopy(ring.counts, offset, counts, 0, retention);
+				System.arraycopy(ring.mins, offset, mins, 0, retention);
+				System.arraycopy(ring.maxs, offset, maxs, 0, retention);
+				System.arraycopy(ring.sums, offset, sums, 0, retention);
+				if (stamp != 0 && airportRings.lock.validate(stamp)) {
+					break;
+				}
+			}
+		}
+		// walk the retained buckets oldest first, each has a single slot
+		long millis = resolution.getMillis();
+		long lastBucket = Math.floorDiv(now, millis);
+		long firstBucket = Math.max(lastBucket - retention + 1,
+				Math.floorDiv(from, millis));
+		lastBucket = Math.min(lastBucket, Math.floorDiv(to, millis));
+		int size = 0;
+		long[] starts = new long[retention];
+		int[] bucketCounts = new int[retention];
+		double[] bucketMins = new double[retention];
+		double[] bucketMaxs = new double[retention];
+		double[] bucketMeans = new double[retention];
+		for (long bucket = firstBucket; bucket <= lastBucket; bucket++) {
+			int slot = (int) Math.floorMod(bucket, (long) retention);
+			if (counts[slot] > 0 && buckets[slot] == bucket) {
+				starts[size] = bucket * millis;
+				bucketCounts[size] = counts[slot];
+				bucketMins[size] = mins[slot];
+				bucketMaxs[size] = maxs[slot];
+				bucketMeans[size] = sums[slot] / counts[slot];
+				size++;
+			}
+		}
+		return new WeatherRollup(iataCode, pointType, resolution,
+				Arrays.copyOf(starts, size), Arrays.copyOf(bucketCounts, size),
+				Arrays.copyOf(bucketMins, size), Arrays.copyOf(bucketMaxs,
+						size), Arrays.copyOf(bucketMeans, size));
+	}
+
+	/**
+	 * Drops the buckets of an airport
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 */
+	public void remove(String iataCode) {
+		rings.remove(iataCode);
+	}
+
+	/**
+	 * Drops all buckets
+	 */
+	public void clear() {
+		rings.clear();
+	}
+
+	/**
+	 * The rings of an airport, one per resolution
+	 */
+	private static final class Rings {
+
+		final StampedLock lock = new StampedLock();
+
+		final Ring[] rings = new Ring[RESOLUTIONS.length];
+
+		Rings(int[] retentions) {
+			for (int r = 0; r < RESOLUTIONS.length; r++) {
+				rings[r] = new Ring(TYPES * retentions[r]);
+			}
+		}
+	}
+
+	/**
+	 * The buckets of a resolution of an airport, indexed by
+	 * <code>type * retention + bucket % retention</code>
+	 */
+	private static final class Ring {
+
+		/** bucket numbers since UTC epoch */
+		final long[] buckets;
+
+		/** number of readings, 0 for an empty slot */
+		final int[] counts;
+
+		final double[] mins;
+
+		final double[] maxs;
+
+		final double[] sums;
+
+		Ring(int size) {
+			buckets = new long[size];
+			counts = new int[size];
+			mins = new double[size];
+			maxs = new double[size];
+			sums = new double[size];
+		}
+	}
+}
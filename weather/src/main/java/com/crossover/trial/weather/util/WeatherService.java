@@ -1,15 +1,39 @@
 package com.crossover.trial.weather.util;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.apache.log4j.Logger;
 
 import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.pojo.AtmosphericInformation;
 import com.crossover.trial.weather.pojo.DataPoint;
 import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.RollupResolution;
+import com.crossover.trial.weather.pojo.WeatherAggregate;
+import com.crossover.trial.weather.pojo.WeatherChanges;
+import com.crossover.trial.weather.pojo.WeatherReadings;
+import com.crossover.trial.weather.pojo.WeatherRollup;
+import com.crossover.trial.weather.pojo.WeatherUpdate;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * 
@@ -28,10 +52,133 @@ public class WeatherService {
 	private static final Logger logger = Logger.getLogger(WeatherService.class);
 
 	/**
-	 * atmospheric information for each airport, idx corresponds with
-	 * airportData
+	 * snapshots materialized from the store for readers: the atmospheric
+	 * information, json fragment and version of an airport. A snapshot is
+	 * dropped when its airport changes and rebuilt by the next reader.
 	 */
-	private static Map<String, AtmosphericInformation> atmosphericInformationMap = new HashMap<String, AtmosphericInformation>();
+	private static final Map<String, WeatherSnapshot> snapshotCache = new ConcurrentHashMap<String, WeatherSnapshot>();
+
+	/**
+	 * global version sequence, every change of the weather data or the known
+	 * airports gets the next value
+	 */
+	private static final AtomicLong versionSequence = new AtomicLong();
+
+	/** shared jackson object to json mapper, same as the one of the responses */
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	/**
+	 * system property of the number of changes retained by the change journal
+	 */
+	public static final String JOURNAL_CAPACITY_PROPERTY = "weather.journal.capacity";
+
+	/**
+	 * bounded journal of the changes, versions of the changes are assigned by
+	 * it
+	 */
+	private static final WeatherChangeJournal changeJournal = new WeatherChangeJournal(
+			Integer.getInteger(JOURNAL_CAPACITY_PROPERTY, 65536));
+
+	/**
+	 * system property of the file of a persistent weather store, the weather
+	 * data is kept on the heap only if it is not set
+	 */
+	public static final String STORE_FILE_PROPERTY = "weather.store.file";
+
+	/**
+	 * system property of the initial number of airports of a new persistent
+	 * weather store
+	 */
+	public static final String STORE_CAPACITY_PROPERTY = "weather.store.capacity";
+
+	/**
+	 * weather data of each airport with its version, which readers read
+	 * without locking
+	 */
+	private static final WeatherStore weatherStore = openStore();
+
+	/**
+	 * system property of the file of the write-ahead log, changes are not
+	 * logged if it is not set
+	 */
+	public static final String LOG_FILE_PROPERTY = "weather.log.file";
+
+	/**
+	 * system property of the time in milliseconds the write-ahead log waits
+	 * for more changes before it forces them to the file together. By default
+	 * it does not wait, changes made while the file is forced are forced
+	 * together by the next commit, and a window only pays off if forcing the
+	 * file takes longer than it.
+	 */
+	public static final String LOG_COMMIT_WINDOW_PROPERTY = "weather.log.commit.window";
+
+	/**
+	 * system property of the time in seconds between the checkpoints which
+	 * compact the write-ahead log
+	 */
+	public static final String LOG_CHECKPOINT_INTERVAL_PROPERTY = "weather.log.checkpoint.interval";
+
+	/**
+	 * write-ahead log of the changes, null if they are not logged. Changes
+	 * are appended while the writer lock is held, in the order in which they
+	 * are applied, and writers wait for them to be durable after releasing
+	 * it.
+	 */
+	private static final WeatherWriteAheadLog writeAheadLog = openLog();
+
+	/**
+	 * true once the write-ahead log has been replayed and its checkpoints
+	 * have been started
+	 */
+	private static boolean logReplayed;
+
+	/** periodic checkpoints of the write-ahead log, null until replayed */
+	private static volatile ScheduledExecutorService checkpointScheduler;
+
+	/** true once the service has been closed, changes are refused then */
+	private static boolean closed;
+
+	/**
+	 * system property of the number of readings kept per airport and data
+	 * point type by the history
+	 */
+	public static final String HISTORY_CAPACITY_PROPERTY = "weather.history.capacity";
+
+	/** recent readings of the data points of the airports */
+	private static final WeatherHistory history = new WeatherHistory(
+			Integer.getInteger(HISTORY_CAPACITY_PROPERTY, 64));
+
+	/**
+	 * system property of the number of hourly buckets kept by the rollups
+	 */
+	public static final String ROLLUP_HOURS_PROPERTY = "weather.rollup.hours";
+
+	/**
+	 * system property of the number of daily buckets kept by the rollups
+	 */
+	public static final String ROLLUP_DAYS_PROPERTY = "weather.rollup.days";
+
+	/** hourly and daily aggregates of the readings of the airports */
+	private static final WeatherRollups rollups = new WeatherRollups(
+			Integer.getInteger(ROLLUP_HOURS_PROPERTY, 48), Integer.getInteger(
+					ROLLUP_DAYS_PROPERTY, 31));
+
+	/**
+	 * system property of the length in minutes of the windows of the
+	 * quantile sketches, regional aggregates cover the last one to two
+	 * windows
+	 */
+	public static final String SKETCH_WINDOW_PROPERTY = "weather.sketch.window";
+
+	/** quantile sketches of the recent data points of the airports */
+	private static final WeatherSketches sketches = new WeatherSketches(
+			TimeUnit.MINUTES.toMillis(Integer.getInteger(
+					SKETCH_WINDOW_PROPERTY, 60)));
+
+	/**
+	 * listeners of the accepted data points
+	 */
+	private static final List<WeatherUpdateListener> updateListeners = new CopyOnWriteArrayList<WeatherUpdateListener>();
 
 	/**
 	 * radius frequency map
@@ -49,21 +196,34 @@ public class WeatherService {
 	public static final String RADIUS_FREQ = "radius_freq";
 
 	/**
-	 * This method puts given {@link AtmosphericInformation} value to the map
-	 * for given iataCode as the key
+	 * This method puts given {@link AtmosphericInformation} value to the store
+	 * for the given airport
 	 * 
-	 * @param iataCode
-	 *            iata code of the airport as key
+	 * @param airportData
+	 *            the airport, its iata code is the key
 	 * @param atmosphericInformation
 	 *            {@link AtmosphericInformation} as value
 	 */
-	public static void addAtmosphericInformation(String iataCode,
+	public static void addAtmosphericInformation(AirportData airportData,
 			AtmosphericInformation atmosphericInformation) {
-		atmosphericInformationMap.put(iataCode, atmosphericInformation);
+		long logSequence;
+		synchronized (WeatherService.class) {
+			checkWritable();
+			if (writeAheadLog != null) {
+				writeAheadLog.appendAirport(airportData, atmosphericInformation);
+			}
+			weatherStore.put(airportData, atmosphericInformation,
+					nextVersion());
+			snapshotCache.remove(airportData.getIata());
+			changeJournal.append(airportData.getIata(), null);
+			logSequence = getLogSequence();
+		}
+		awaitLogged(logSequence);
 	}
 
 	/**
-	 * Update the airports weather data with the collected data.
+	 * Update the airports weather data with the collected data. If changes
+	 * are logged, it returns once the data point is durable.
 	 *
 	 * @param iataCode
 	 *            the 3 letter IATA code
@@ -77,11 +237,256 @@ public class WeatherService {
 	 */
 	public static void addDataPoint(String iataCode, String pointType,
 			DataPoint dataPoint) throws WeatherException {
-		AtmosphericInformation atmInfo = getAtmosphericInformation(iataCode);
-		WeatherService.updateWeather(atmInfo, pointType, dataPoint);
-		logger.debug(MessageFormat
-				.format("New DataPoint: \"{0}\" has been added to the Atmospheric Info: \"{1}\"",
-						dataPoint, atmInfo));
+		// reject unknown point types before applying
+		DataPointType dataPointType = parsePointType(pointType);
+		WeatherUpdateResult result;
+		long logSequence;
+		synchronized (WeatherService.class) {
+			checkWritable();
+			result = applyDataPoint(iataCode, dataPointType, dataPoint);
+			logSequence = getLogSequence();
+		}
+		awaitLogged(logSequence);
+		if (logger.isDebugEnabled()) {
+			logger.debug(MessageFormat
+					.format("New DataPoint: \"{0}\" has been added to the Atmospheric Info: \"{1}\" with result: \"{2}\"",
+							dataPoint, getAtmosphericInformation(iataCode),
+							result));
+		}
+	}
+
+	/**
+	 * Updates the weather data of several airports in a single pass. Every
+	 * record is validated first, then the valid records of each airport are
+	 * written into its columns in a single step, so readers never see a half
+	 * applied update of an airport, and journaled in the order of the records
+	 * of the airport. Writers are serialized so no update is lost, the
+	 * records are logged by a single commit of the write-ahead log.
+	 *
+	 * @param updates
+	 *            the records to apply
+	 * @return the result of each record, in the order of the records
+	 */
+	public static List<WeatherUpdateResult> addDataPoints(
+			List<WeatherUpdate> updates) {
+		int size = updates.size();
+		List<WeatherUpdateResult> results = new ArrayList<WeatherUpdateResult>(
+				size);
+		DataPointType[] pointTypes = new DataPointType[size];
+		// the valid records of an airport are chained from its first one
+		int[] nextOfAirport = new int[size];
+		boolean[] firstOfAirport = new boolean[size];
+		Map<String, Integer> lastOfAirport = new HashMap<String, Integer>();
+		long logSequence;
+		synchronized (WeatherService.class) {
+			checkWritable();
+			for (int i = 0; i < size; i++) {
+				WeatherUpdate update = updates.get(i);
+				if (update == null) {
+					results.add(WeatherUpdateResult.MISSING_DATA_POINT);
+					continue;
+				}
+				// an unknown type is a result of the record, not an exception
+				pointTypes[i] = DataPointType.find(update.getPointType());
+				if (pointTypes[i] == null) {
+					logger.debug(MessageFormat.format(TYPE_MISMATCH_WARNING,
+							update.getPointType()));
+				}
+				WeatherUpdateResult result = validateDataPoint(
+						update.getIata(), pointTypes[i], update.getDataPoint());
+				results.add(result);
+				if (result == WeatherUpdateResult.APPLIED) {
+					nextOfAirport[i] = -1;
+					Integer last = lastOfAirport.put(update.getIata(), i);
+					if (last == null) {
+						firstOfAirport[i] = true;
+					} else {
+						nextOfAirport[last] = i;
+					}
+				}
+			}
+			// apply the chained records of every airport together
+			DataPoint[] dataPoints = new DataPoint[size];
+			DataPointType[] airportPointTypes = new DataPointType[size];
+			for (int i = 0; i < size; i++) {
+				if (!firstOfAirport[i]) {
+					continue;
+				}
+				int count = 0;
+				for (int j = i; j >= 0; j = nextOfAirport[j]) {
+					airportPointTypes[count] = pointTypes[j];
+					dataPoints[count++] = updates.get(j).getDataPoint();
+				}
+				applyDataPoints(updates.get(i).getIata(), airportPointTypes,
+						dataPoints, count);
+			}
+			logSequence = getLogSequence();
+		}
+		awaitLogged(logSequence);
+		logger.debug(MessageFormat.format(
+				"\"{0}\" of \"{1}\" DataPoints have been added",
+				Collections.frequency(results, WeatherUpdateResult.APPLIED),
+				updates.size()));
+		return results;
+	}
+
+	/**
+	 * Validates a data point, logs it and writes it into the columns of its
+	 * airport, then publishes the change. The caller must hold the writer lock
+	 * of the service.
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point, null if it could not be parsed
+	 * @param dataPoint
+	 *            the data point
+	 * @return result of the update
+	 */
+	private static WeatherUpdateResult applyDataPoint(String iataCode,
+			DataPointType pointType, DataPoint dataPoint) {
+		WeatherUpdateResult result = validateDataPoint(iataCode, pointType,
+				dataPoint);
+		if (result != WeatherUpdateResult.APPLIED) {
+			return result;
+		}
+		long updateTime = System.currentTimeMillis();
+		if (writeAheadLog != null) {
+			writeAheadLog.appendDataPoint(iataCode, pointType, dataPoint,
+					updateTime);
+		}
+		// write the columns before the change is journaled, so a reader of
+		// the journal finds at least the journaled state
+		weatherStore.write(iataCode, pointType, dataPoint, updateTime,
+				nextVersion());
+		recordReading(iataCode, pointType, dataPoint, updateTime);
+		snapshotCache.remove(iataCode);
+		publishChange(iataCode, pointType, dataPoint);
+		return WeatherUpdateResult.APPLIED;
+	}
+
+	/**
+	 * Checks a data point can be applied. The caller must hold the writer
+	 * lock of the service.
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point, null if it could not be parsed
+	 * @param dataPoint
+	 *            the data point
+	 * @return {@link WeatherUpdateResult#APPLIED} if it can be applied, the
+	 *         reason of its rejection otherwise
+	 */
+	private static WeatherUpdateResult validateDataPoint(String iataCode,
+			DataPointType pointType, DataPoint dataPoint) {
+		if (iataCode == null || !weatherStore.contains(iataCode)) {
+			return WeatherUpdateResult.UNKNOWN_AIRPORT;
+		} else if (pointType == null) {
+			return WeatherUpdateResult.INVALID_POINT_TYPE;
+		} else if (dataPoint == null) {
+			return WeatherUpdateResult.MISSING_DATA_POINT;
+		} else if (!pointType.isInRange(dataPoint.getMean())) {
+			return WeatherUpdateResult.OUT_OF_RANGE;
+		}
+		return WeatherUpdateResult.APPLIED;
+	}
+
+	/**
+	 * Logs validated data points of an airport and writes them into its
+	 * columns in a single step, then publishes the changes in their order.
+	 * The caller must hold the writer lock of the service.
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointTypes
+	 *            types of the data points
+	 * @param dataPoints
+	 *            the data points
+	 * @param count
+	 *            number of data points from the start of the arrays
+	 */
+	private static void applyDataPoints(String iataCode,
+			DataPointType[] pointTypes, DataPoint[] dataPoints, int count) {
+		long updateTime = System.currentTimeMillis();
+		if (writeAheadLog != null) {
+			for (int i = 0; i < count; i++) {
+				writeAheadLog.appendDataPoint(iataCode, pointTypes[i],
+						dataPoints[i], updateTime);
+			}
+		}
+		// write the columns before the changes are journaled, so a reader of
+		// the journal finds at least the journaled state
+		weatherStore.write(iataCode, pointTypes, dataPoints, count,
+				updateTime, nextVersion());
+		for (int i = 0; i < count; i++) {
+			recordReading(iataCode, pointTypes[i], dataPoints[i], updateTime);
+		}
+		snapshotCache.remove(iataCode);
+		for (int i = 0; i < count; i++) {
+			publishChange(iataCode, pointTypes[i], dataPoints[i]);
+		}
+	}
+
+	/**
+	 * Records an applied data point in the history, the rollups and the
+	 * sketches. The caller must hold the writer lock of the service.
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            the data point
+	 * @param updateTime
+	 *            time of the update, in milliseconds since UTC epoch
+	 */
+	private static void recordReading(String iataCode,
+			DataPointType pointType, DataPoint dataPoint, long updateTime) {
+		history.record(iataCode, pointType, dataPoint.getMean(), updateTime);
+		rollups.record(iataCode, pointType, dataPoint.getMean(), updateTime);
+		sketches.record(iataCode, pointType, dataPoint, updateTime);
+	}
+
+	/**
+	 * Records an applied data point in the change journal and notifies the
+	 * listeners
+	 *
+	 * @param iataCode
+	 *            iata code of the updated airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            applied data point
+	 */
+	private static void publishChange(String iataCode,
+			DataPointType pointType, DataPoint dataPoint) {
+		// the journal orders the change by its version
+		long version = changeJournal.append(iataCode, pointType);
+		// notify listeners of the accepted data point
+		for (WeatherUpdateListener listener : updateListeners) {
+			listener.weatherUpdated(iataCode, pointType, dataPoint, version);
+		}
+	}
+
+	/**
+	 * Registers a listener to be notified of every accepted data point
+	 * 
+	 * @param listener
+	 *            {@link WeatherUpdateListener} to add
+	 */
+	public static void addUpdateListener(WeatherUpdateListener listener) {
+		updateListeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener added by {@link #addUpdateListener}
+	 * 
+	 * @param listener
+	 *            {@link WeatherUpdateListener} to remove
+	 */
+	public static void removeUpdateListener(WeatherUpdateListener listener) {
+		updateListeners.remove(listener);
 	}
 
 	/**
@@ -90,15 +495,8 @@ public class WeatherService {
 	 * @return
 	 */
 	public static int calculateDataSize() {
-		int datasize = 0;
-		for (AtmosphericInformation ai : atmosphericInformationMap.values()) {
-			// we only count recent readings and updated in the last day
-			if (ai.hasAnyDataPointValue()
-					&& ai.getLastUpdateTime() > getOneDayBeforeInMillis()) {
-				datasize++;
-			}
-		}
-		return datasize;
+		// we only count recent readings and updated in the last day
+		return weatherStore.countUpdatedSince(getOneDayBeforeInMillis());
 	}
 
 	/**
@@ -127,15 +525,223 @@ public class WeatherService {
 	 * @return {@link AtmosphericInformation} value
 	 */
 	public static AtmosphericInformation getAtmosphericInformation(String iata) {
-		return atmosphericInformationMap.get(iata);
+		WeatherSnapshot snapshot = getSnapshot(iata);
+		return snapshot == null ? null : snapshot.getAtmosphericInformation();
+	}
+
+	/**
+	 * Returns the current weather snapshot of the airport with the given iata
+	 * code, readers needing its atmospheric information together with its
+	 * json fragment or version should take them from the same snapshot
+	 *
+	 * @param iata
+	 *            iata code given
+	 * @return {@link WeatherSnapshot}, or null if the airport is not known
+	 */
+	public static WeatherSnapshot getSnapshot(String iata) {
+		// the version is read before the data, so a snapshot never claims a
+		// newer version than its data
+		long version = weatherStore.getVersion(iata);
+		if (version < 0) {
+			snapshotCache.remove(iata);
+			return null;
+		}
+		WeatherSnapshot snapshot = snapshotCache.get(iata);
+		if (snapshot == null || snapshot.getVersion() != version) {
+			AtmosphericInformation atmInfo = weatherStore.read(iata);
+			if (atmInfo == null) {
+				return null;
+			}
+			snapshot = createSnapshot(atmInfo, version);
+			snapshotCache.put(iata, snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Checks the airport with the given iata code has any data point value,
+	 * without materializing its atmospheric information
+	 *
+	 * @param iata
+	 *            iata code given
+	 * @return <code>true</code> if the airport is known and has any data
+	 *         point value
+	 */
+	public static boolean hasAnyDataPointValue(String iata) {
+		return weatherStore.hasAnyDataPoint(iata);
+	}
+
+	/**
+	 * Passes every airport of the weather store to the given consumer, a
+	 * persistent or replayed store has the airports of the previous run
+	 *
+	 * @param consumer
+	 *            consumer of the airports
+	 */
+	public static void forEachStoredAirport(Consumer<AirportData> consumer) {
+		weatherStore.forEachAirport(consumer);
+	}
+
+	/**
+	 * Returns the pre-serialized json representation of the atmospheric
+	 * information of the airport with the given iata code
+	 *
+	 * @param iata
+	 *            iata code given
+	 * @return UTF-8 json bytes, or null if the airport is not known
+	 */
+	public static byte[] getJsonFragment(String iata) {
+		WeatherSnapshot snapshot = getSnapshot(iata);
+		return snapshot == null ? null : snapshot.getJsonFragment();
+	}
+
+	/**
+	 * Returns the version of the last change of the atmospheric information
+	 * of the airport with the given iata code
+	 *
+	 * @param iata
+	 *            iata code given
+	 * @return version, or -1 if the airport is not known
+	 */
+	public static long getVersion(String iata) {
+		return weatherStore.getVersion(iata);
+	}
+
+	/**
+	 * Returns the recent readings of a data point type of the airport with
+	 * the given iata code in the given time range, see {@link WeatherHistory}
+	 *
+	 * @param iata
+	 *            iata code given
+	 * @param pointType
+	 *            the data point type as a string
+	 * @param from
+	 *            start of the time range in milliseconds since UTC epoch,
+	 *            inclusive
+	 * @param to
+	 *            end of the time range in milliseconds since UTC epoch,
+	 *            inclusive
+	 * @return {@link WeatherReadings} oldest first, or null if the airport is
+	 *         not known
+	 * @throws WeatherException
+	 *             if it is not a data point type
+	 */
+	public static WeatherReadings getHistory(String iata, String pointType,
+			long from, long to) throws WeatherException {
+		DataPointType dataPointType = parsePointType(pointType);
+		if (!weatherStore.contains(iata)) {
+			return null;
+		}
+		return history.read(iata, dataPointType, from, to);
+	}
+
+	/**
+	 * Returns the precomputed aggregates of a data point type of the airport
+	 * with the given iata code per bucket of the given resolution in the
+	 * given time range, see {@link WeatherRollups}
+	 *
+	 * @param iata
+	 *            iata code given
+	 * @param pointType
+	 *            the data point type as a string
+	 * @param resolution
+	 *            the {@link RollupResolution} as a string
+	 * @param from
+	 *            start of the time range in milliseconds since UTC epoch,
+	 *            inclusive
+	 * @param to
+	 *            end of the time range in milliseconds since UTC epoch,
+	 *            inclusive
+	 * @return {@link WeatherRollup} oldest first, or null if the airport is
+	 *         not known
+	 * @throws WeatherException
+	 *             if it is not a data point type or a resolution
+	 */
+	public static WeatherRollup getRollup(String iata, String pointType,
+			String resolution, long from, long to) throws WeatherException {
+		DataPointType dataPointType = parsePointType(pointType);
+		RollupResolution rollupResolution = parseResolution(resolution);
+		if (!weatherStore.contains(iata)) {
+			return null;
+		}
+		return rollups.read(iata, dataPointType, rollupResolution, from, to,
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * Estimates quantiles of the recent readings of a data point type over
+	 * the given airports by merging their sketches, see
+	 * {@link WeatherSketches}. Airports without recent readings are skipped.
+	 *
+	 * @param iata
+	 *            iata code of the airport at the center
+	 * @param pointType
+	 *            the data point type as a string
+	 * @param radius
+	 *            radius in KM the airports were found in
+	 * @param iataCodes
+	 *            iata codes of the airports in the radius
+	 * @param quantiles
+	 *            comma separated quantiles between 0 and 1
+	 * @return {@link WeatherAggregate} of the airports
+	 * @throws WeatherException
+	 *             if it is not a data point type or a quantile is invalid
+	 */
+	public static WeatherAggregate getAggregate(String iata,
+			String pointType, double radius, Collection<String> iataCodes,
+			String quantiles) throws WeatherException {
+		DataPointType dataPointType = parsePointType(pointType);
+		double[] qs = parseQuantiles(quantiles);
+		long now = System.currentTimeMillis();
+		QuantileSketch merged = new QuantileSketch();
+		int airports = 0;
+		for (String iataCode : iataCodes) {
+			if (sketches.mergeInto(iataCode, dataPointType, now, merged)) {
+				airports++;
+			}
+		}
+		double[] values = new double[merged.getTotalWeight() > 0 ? qs.length
+				: 0];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = merged.quantile(qs[i]);
+		}
+		// readings are added in thirds, round off their sum
+		return new WeatherAggregate(iata, dataPointType, radius, airports,
+				Math.round(merged.getTotalWeight()), qs, values);
+	}
+
+	/**
+	 * Returns the changes of the atmospheric information after the given
+	 * version, see {@link WeatherChangeJournal}
+	 *
+	 * @param sinceVersion
+	 *            last version known by the caller
+	 * @return {@link WeatherChanges} after the version
+	 */
+	public static WeatherChanges getChangesSince(long sinceVersion) {
+		return changeJournal.getChangesSince(sinceVersion);
+	}
+
+	/**
+	 * Returns the next value of the global version sequence
+	 *
+	 * @return version which is greater than all previous ones
+	 */
+	public static long nextVersion() {
+		return versionSequence.incrementAndGet();
 	}
 
 	/**
 	 * clears the contents of the maps
 	 */
-	public static void clear() {
-		atmosphericInformationMap.clear();
+	public static synchronized void clear() {
+		weatherStore.clear();
+		snapshotCache.clear();
+		history.clear();
+		rollups.clear();
+		sketches.clear();
 		radiusFrequencyMap.clear();
+		changeJournal.reset();
 	}
 
 	/**
@@ -145,7 +751,141 @@ public class WeatherService {
 	 * @param iataCode
 	 */
 	public static void removeAtmosphericInfo(String iataCode) {
-		atmosphericInformationMap.remove(iataCode);
+		long logSequence;
+		synchronized (WeatherService.class) {
+			checkWritable();
+			snapshotCache.remove(iataCode);
+			if (writeAheadLog != null && weatherStore.contains(iataCode)) {
+				writeAheadLog.appendRemoval(iataCode);
+			}
+			if (weatherStore.remove(iataCode)) {
+				history.remove(iataCode);
+				rollups.remove(iataCode);
+				sketches.remove(iataCode);
+				changeJournal.append(iataCode, null);
+			}
+			logSequence = getLogSequence();
+		}
+		awaitLogged(logSequence);
+	}
+
+	/**
+	 * Replays the write-ahead log into the weather store and starts its
+	 * periodic checkpoints. It must be called on start before any change, the
+	 * airports of the store are then restored by
+	 * {@link AirportService#restoreAirports}.
+	 *
+	 * @return number of replayed changes
+	 */
+	public static synchronized int replayWriteAheadLog() {
+		if (writeAheadLog == null || logReplayed) {
+			return 0;
+		}
+		long start = System.currentTimeMillis();
+		int count;
+		try {
+			count = writeAheadLog
+					.replay(new WeatherWriteAheadLog.RecordHandler() {
+
+						@Override
+						public void airportAdded(AirportData airportData,
+								AtmosphericInformation atmInfo) {
+							weatherStore.put(airportData, atmInfo,
+									nextVersion());
+						}
+
+						@Override
+						public void dataPointAdded(String iataCode,
+								DataPointType pointType, DataPoint dataPoint,
+								long updateTime) {
+							weatherStore.write(iataCode, pointType,
+									dataPoint, updateTime, nextVersion());
+							recordReading(iataCode, pointType,
+									dataPoint, updateTime);
+						}
+
+						@Override
+						public void airportRemoved(String iataCode) {
+							weatherStore.remove(iataCode);
+							history.remove(iataCode);
+							rollups.remove(iataCode);
+							sketches.remove(iataCode);
+						}
+					});
+		} catch (IOException e) {
+			throw new IllegalStateException(
+					"Weather log could not be replayed", e);
+		}
+		snapshotCache.clear();
+		changeJournal.reset();
+		logReplayed = true;
+		scheduleCheckpoints();
+		logger.info(MessageFormat.format(
+				"\"{0}\" logged changes have been replayed in \"{1}\" ms", count,
+				System.currentTimeMillis() - start));
+		return count;
+	}
+
+	/**
+	 * Compacts the write-ahead log into one record per airport of the store,
+	 * if anything has been logged since the last checkpoint
+	 */
+	public static void checkpointWriteAheadLog() {
+		if (writeAheadLog == null
+				|| writeAheadLog.getBytesSinceCheckpoint() == 0) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			int count = writeAheadLog.checkpoint(weatherStore,
+					WeatherService.class);
+			logger.info(MessageFormat.format(
+					"Weather log has been compacted to \"{0}\" airports in \"{1}\" ms",
+					count, System.currentTimeMillis() - start));
+		} catch (IOException e) {
+			// the old log is kept, the next checkpoint tries again
+			logger.error("Weather log could not be compacted", e);
+		}
+	}
+
+	/**
+	 * Closes the service on shutdown. The checkpoints are stopped, the
+	 * pending changes are committed to the write-ahead log and the weather
+	 * store is forced to the disk if it is backed by a file. Changes are
+	 * refused afterwards.
+	 */
+	public static void close() {
+		// a running checkpoint takes the writer lock, let it finish first
+		ScheduledExecutorService scheduler = checkpointScheduler;
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (WeatherService.class) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (writeAheadLog != null) {
+				try {
+					writeAheadLog.close();
+				} catch (IOException e) {
+					logger.error("Weather log could not be closed", e);
+				}
+			}
+			if (weatherStore instanceof Closeable) {
+				try {
+					((Closeable) weatherStore).close();
+				} catch (IOException e) {
+					logger.error("Weather store could not be closed", e);
+				}
+			}
+		}
+		logger.info("Weather service has been closed");
 	}
 
 	/**
@@ -155,151 +895,237 @@ public class WeatherService {
 	 *            radius value
 	 */
 	public static void updateRadiusDataFrequency(Double radius) {
-		radiusFrequencyMap.put(radius,
-				radiusFrequencyMap.getOrDefault(radius, 0));
+		updateRadiusDataFrequencies(Collections.singletonList(radius));
+	}
+
+	/**
+	 * updates radius data frequencies of the given radii, a radius given n
+	 * times is counted n times
+	 * 
+	 * @param radii
+	 *            radius values
+	 */
+	public static void updateRadiusDataFrequencies(Collection<Double> radii) {
+		for (Double radius : radii) {
+			radiusFrequencyMap.merge(radius, 1, Integer::sum);
+		}
 	}
 
 	/**
-	 * update atmospheric information with the given data point for the given
-	 * point type
+	 * parses the given point type case insensitively
 	 *
-	 * @param atmInfo
-	 *            the atmospheric information object to update
 	 * @param pointType
 	 *            the data point type as a string
-	 * @param dataPoint
-	 *            the actual data point
+	 * @return the {@link DataPointType}
+	 * @throws WeatherException
+	 *             if it is not a data point type
 	 */
-	public static void updateWeather(AtmosphericInformation atmInfo,
-			String pointType, DataPoint dataPoint) throws WeatherException {
-		try {
-
-			// switch point type value as data type to jump into data type cases
-			switch (DataPointType.valueOf(pointType.toUpperCase())) {
-			case WIND:
-				updateWind(dataPoint, atmInfo);
-				return;
-			case TEMPERATURE:
-				updateTemperature(dataPoint, atmInfo);
-				return;
-			case HUMIDTY:
-				updateHumidity(dataPoint, atmInfo);
-				return;
-			case PRESSURE:
-				updatePressure(dataPoint, atmInfo);
-				return;
-			case CLOUDCOVER:
-				updateCloudCover(dataPoint, atmInfo);
-				return;
-			case PRECIPITATION:
-				updatePrecipitation(dataPoint, atmInfo);
-				return;
-			}
-		} catch (IllegalArgumentException iae) {
+	private static DataPointType parsePointType(String pointType)
+			throws WeatherException {
+		DataPointType dataPointType = DataPointType.find(pointType);
+		if (dataPointType == null) {
 			throw new WeatherException(MessageFormat.format(
 					TYPE_MISMATCH_WARNING, pointType));
 		}
-
+		return dataPointType;
 	}
 
-	private static long getOneDayBeforeInMillis() {
-		return System.currentTimeMillis() - DAY_IN_MILLIS;
+	/**
+	 * parses the given rollup resolution case insensitively
+	 *
+	 * @param resolution
+	 *            the resolution as a string
+	 * @return the {@link RollupResolution}
+	 * @throws WeatherException
+	 *             if it is not a resolution
+	 */
+	private static RollupResolution parseResolution(String resolution)
+			throws WeatherException {
+		for (RollupResolution rollupResolution : RollupResolution.values()) {
+			if (rollupResolution.name().equalsIgnoreCase(resolution)) {
+				return rollupResolution;
+			}
+		}
+		throw new WeatherException(MessageFormat.format(
+				"Unknown rollup resolution: \"{0}\"", resolution));
 	}
 
 	/**
-	 * Updates cloud cover value of {@link AtmosphericInformation} given by
-	 * checking mean value of given data point
-	 * 
-	 * @param dataPoint
-	 * @param atmInfo
+	 * parses the given comma separated quantiles
+	 *
+	 * @param quantiles
+	 *            the quantiles as a string
+	 * @return the quantiles in the given order
+	 * @throws WeatherException
+	 *             if a quantile is not a number between 0 and 1
 	 */
-	private static void updateCloudCover(DataPoint dataPoint,
-			AtmosphericInformation atmInfo) {
-		if (dataPoint.getMean() >= 0 && dataPoint.getMean() < 100) {
-			atmInfo.setCloudCover(dataPoint);
-			atmInfo.setLastUpdateTime(System.currentTimeMillis());
-			logger.debug("Cloudcover value updated");
+	private static double[] parseQuantiles(String quantiles)
+			throws WeatherException {
+		String[] parts = quantiles.split(",");
+		double[] qs = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			try {
+				qs[i] = Double.parseDouble(parts[i].trim());
+			} catch (NumberFormatException e) {
+				qs[i] = Double.NaN;
+			}
+			if (!(qs[i] >= 0 && qs[i] <= 1)) {
+				throw new WeatherException(MessageFormat.format(
+						"Invalid quantile: \"{0}\"", parts[i]));
+			}
 		}
+		return qs;
 	}
 
 	/**
-	 * Updates humidity value of {@link AtmosphericInformation} given by
-	 * checking mean value of given data point
-	 * 
-	 * @param dataPoint
+	 * Creates the snapshot of the given atmospheric information with its json
+	 * fragment
+	 *
 	 * @param atmInfo
+	 *            atmospheric information of an airport
+	 * @param version
+	 *            version of the atmospheric information
+	 * @return {@link WeatherSnapshot} to publish
 	 */
-	private static void updateHumidity(DataPoint dataPoint,
-			AtmosphericInformation atmInfo) {
-		if (dataPoint.getMean() >= 0 && dataPoint.getMean() < 100) {
-			atmInfo.setHumidity(dataPoint);
-			atmInfo.setLastUpdateTime(System.currentTimeMillis());
-			logger.debug("Humidity value updated");
+	private static WeatherSnapshot createSnapshot(
+			AtmosphericInformation atmInfo, long version) {
+		byte[] jsonFragment = null;
+		try {
+			jsonFragment = objectMapper.writeValueAsBytes(atmInfo);
+		} catch (JsonProcessingException e) {
+			// responses fall back to serializing the object itself
+			logger.error(e.getMessage());
 		}
+		return new WeatherSnapshot(atmInfo, jsonFragment, version);
 	}
 
 	/**
-	 * Updates precipitation value of {@link AtmosphericInformation} given by
-	 * checking mean value of given data point
-	 * 
-	 * @param dataPoint
-	 * @param atmInfo
+	 * Opens the weather store, a persistent one if its file is configured.
+	 * The version sequence continues after the versions of a persistent
+	 * store, and the change journal starts after them too, so no reader of
+	 * the previous run is served changes it can not see.
+	 *
+	 * @return {@link WeatherStore} to use
 	 */
-	private static void updatePrecipitation(DataPoint dataPoint,
-			AtmosphericInformation atmInfo) {
-		if (dataPoint.getMean() >= 0 && dataPoint.getMean() < 100) {
-			atmInfo.setPrecipitation(dataPoint);
-			atmInfo.setLastUpdateTime(System.currentTimeMillis());
-			logger.debug("Precipitation value updated");
+	private static WeatherStore openStore() {
+		String file = System.getProperty(STORE_FILE_PROPERTY);
+		if (file == null) {
+			return new WeatherColumnStore();
 		}
+		long start = System.currentTimeMillis();
+		MappedWeatherStore store;
+		try {
+			store = new MappedWeatherStore(Paths.get(file), Integer.getInteger(
+					STORE_CAPACITY_PROPERTY, 16384));
+		} catch (IOException e) {
+			logger.error(e.getMessage());
+			throw new IllegalStateException(MessageFormat.format(
+					"Weather store \"{0}\" could not be opened", file), e);
+		}
+		versionSequence.accumulateAndGet(store.getMaxVersion(), Math::max);
+		changeJournal.reset();
+		logger.info(MessageFormat.format(
+				"Weather store \"{0}\" with \"{1}\" airports has been opened in \"{2}\" ms",
+				file, store.size(), System.currentTimeMillis() - start));
+		return store;
 	}
 
 	/**
-	 * Updates pressure value of {@link AtmosphericInformation} given by
-	 * checking mean value of given data point
-	 * 
-	 * @param dataPoint
-	 * @param atmInfo
+	 * Opens the write-ahead log if its file is configured
+	 *
+	 * @return {@link WeatherWriteAheadLog}, or null if changes are not logged
 	 */
-	private static void updatePressure(DataPoint dataPoint,
-			AtmosphericInformation atmInfo) {
-		if (dataPoint.getMean() >= 650 && dataPoint.getMean() < 800) {
-			atmInfo.setPressure(dataPoint);
-			atmInfo.setLastUpdateTime(System.currentTimeMillis());
-			logger.debug("Pressure value updated");
+	private static WeatherWriteAheadLog openLog() {
+		String file = System.getProperty(LOG_FILE_PROPERTY);
+		if (file == null) {
+			return null;
+		}
+		try {
+			return new WeatherWriteAheadLog(Paths.get(file), Long.getLong(
+					LOG_COMMIT_WINDOW_PROPERTY, 0));
+		} catch (IOException e) {
+			logger.error(e.getMessage());
+			throw new IllegalStateException(MessageFormat.format(
+					"Weather log \"{0}\" could not be opened", file), e);
 		}
 	}
 
 	/**
-	 * Updates temperature value of {@link AtmosphericInformation} given by
-	 * checking mean value of given data point
-	 * 
-	 * @param dataPoint
-	 * @param atmInfo
+	 * Starts the periodic checkpoints of the write-ahead log, which must not
+	 * run before it is replayed as they would drop the changes of the
+	 * previous run
 	 */
-	private static void updateTemperature(DataPoint dataPoint,
-			AtmosphericInformation atmInfo) {
-		if (dataPoint.getMean() >= -50 && dataPoint.getMean() < 100) {
-			atmInfo.setTemperature(dataPoint);
-			atmInfo.setLastUpdateTime(System.currentTimeMillis());
-			logger.debug("Temperature value updated");
+	private static void scheduleCheckpoints() {
+		long interval = Long.getLong(LOG_CHECKPOINT_INTERVAL_PROPERTY, 60);
+		checkpointScheduler = Executors
+				.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable,
+							"weather-log-checkpoint");
+					thread.setDaemon(true);
+					return thread;
+				});
+		checkpointScheduler.scheduleWithFixedDelay(
+				WeatherService::checkpointWriteAheadLog, interval, interval,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the sequence of the last logged change, the caller must hold
+	 * the writer lock
+	 *
+	 * @return sequence to wait for, 0 if changes are not logged
+	 */
+	private static long getLogSequence() {
+		return writeAheadLog == null ? 0 : writeAheadLog
+				.getAppendedSequence();
+	}
+
+	/**
+	 * Rejects changes once the service is closed or the write-ahead log has
+	 * failed, the caller must hold the writer lock. They would be applied to
+	 * the store but never become durable, so writes are refused until the
+	 * server is restarted.
+	 *
+	 * @throws IllegalStateException
+	 *             if changes can not be applied or logged
+	 */
+	private static void checkWritable() {
+		if (closed) {
+			throw new IllegalStateException("Weather service is closed");
+		}
+		if (writeAheadLog == null) {
+			return;
+		}
+		try {
+			writeAheadLog.checkWritable();
+		} catch (IOException e) {
+			throw new IllegalStateException(e.getMessage(), e);
 		}
 	}
 
 	/**
-	 * Updates wind value of {@link AtmosphericInformation} given by checking
-	 * mean value of given data point
-	 * 
-	 * @param dataPoint
-	 * @param atmInfo
+	 * Waits until the logged changes up to the given sequence are durable.
+	 * Writers wait after releasing the writer lock, so the changes of
+	 * concurrent writers are forced to the file together.
+	 *
+	 * @param logSequence
+	 *            sequence returned by {@link #getLogSequence}
+	 * @throws IllegalStateException
+	 *             if the changes could not be logged
 	 */
-	private static void updateWind(DataPoint dataPoint,
-			AtmosphericInformation atmInfo) {
-		if (dataPoint.getMean() >= 0) {
-			atmInfo.setWind(dataPoint);
-			atmInfo.setLastUpdateTime(System.currentTimeMillis());
-			logger.debug("Wind value updated");
+	private static void awaitLogged(long logSequence) {
+		if (writeAheadLog == null) {
+			return;
+		}
+		try {
+			writeAheadLog.awaitDurable(logSequence);
+		} catch (IOException e) {
+			throw new IllegalStateException(e.getMessage(), e);
 		}
 	}
 
+	private static long getOneDayBeforeInMillis() {
+		return System.currentTimeMillis() - DAY_IN_MILLIS;
+	}
+
 }
@@ -0,0 +1,176 @@
+package com.crossover.trial.weather.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * {@link QuantileSketch}es of the recent data points of the airports, which
+ * merge into the distribution of a data point type over a region. A data
+ * point summarizes its count readings by their quartiles, so it is added as
+ * its first, second and third quartile with a third of its count each.
+ *
+ * Every airport and data point type has the sketch of the current time
+ * window and the one of the previous window. A data point of a new window
+ * clears the older sketch and makes it current, so merged sketches cover the
+ * last one to two windows. Sketches are allocated with the first data point
+ * of their airport and type and dropped with their airport.
+ *
+ * Writers are serialized by the caller. Readers merge the sketches of an
+ * airport under its read lock, which writers only wait for while a sketch is
+ * merged.
+ *
+ * @author burak
+ */
+public class WeatherSketches {
+
+	/** number of sketch pairs of an airport */
+	private static final int TYPES = DataPointType.values().length;
+
+	/** length of a window in milliseconds */
+	private final long windowMillis;
+
+	/** sketches of the airports with any data point, keyed by iata code */
+	private final Map<String, AirportSketches> sketches = new ConcurrentHashMap<String, AirportSketches>();
+
+	/**
+	 * @param windowMillis
+	 *            length of a window in milliseconds
+	 */
+	public WeatherSketches(long windowMillis) {
+		this.windowMillis = Math.max(1, windowMillis);
+	}
+
+	/**
+	 * Adds a data point to the sketch of its airport, type and window.
+	 * Writers must be serialized by the caller.
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            the data point
+	 * @param time
+	 *            time of the data point, in milliseconds since UTC epoch
+	 */
+	public void record(String iataCode, DataPointType pointType,
+			DataPoint dataPoint, long time) {
+		AirportSketches airportSketches = sketches.get(iataCode);
+		if (airportSketches == null) {
+			airportSketches = new AirportSketches();
+			sketches.put(iataCode, airportSketches);
+		}
+		int type = pointType.getSlot();
+		long window = Math.floorDiv(time, windowMillis);
+		long stamp = airportSketches.lock.writeLock();
+		try {
+			QuantileSketch[] current = airportSketches.current;
+			QuantileSketch[] previous = airportSketches.previous;
+			if (current[type] == null) {
+				current[type] = new QuantileSketch();
+				previous[type] = new QuantileSketch();
+				airportSketches.windows[type] = window;
+			} else if (window > airportSketches.windows[type]) {
+				if (window > airportSketches.windows[type] + 1) {
+					// both windows have expired
+					current[type].clear();
+				}
+				// the older sketch is reused for the new window
+				QuantileSketch older = previous[type];
+				older.clear();
+				previous[type] = current[type];
+				current[type] = older;
+				airportSketches.windows[type] = window;
+			} else if (window < airportSketches.windows[type] - 1) {
+				// older than the previous window
+				return;
+			}
+			QuantileSketch sketch = window == airportSketches.windows[type]
+					? current[type] : previous[type];
+			double weight = Math.max(1, dataPoint.getCount()) / 3.0;
+			sketch.add(dataPoint.getFirst(), weight);
+			sketch.add(dataPoint.getSecond(), weight);
+			sketch.add(dataPoint.getThird(), weight);
+		} finally {
+			airportSketches.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Merges the sketches of an airport and data point type which are not
+	 * older than the previous window before the given time into the given
+	 * sketch
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param now
+	 *            current time, in milliseconds since UTC epoch
+	 * @param target
+	 *            sketch to merge into
+	 * @return <code>true</code> if the airport had a recent sketch
+	 */
+	public boolean mergeInto(String iataCode, DataPointType pointType,
+			long now, QuantileSketch target) {
+		AirportSketches airportSketches = sketches.get(iataCode);
+		if (airportSketches == null) {
+			return false;
+		}
+		int type = pointType.getSlot();
+		long window = Math.floorDiv(now, windowMillis);
+		long stamp = airportSketches.lock.readLock();
+		try {
+			QuantileSketch current = airportSketches.current[type];
+			long currentWindow = airportSketches.windows[type];
+			if (current == null || currentWindow < window - 1) {
+				return false;
+			}
+			target.merge(current);
+			if (currentWindow == window) {
+				target.merge(airportSketches.previous[type]);
+			}
+			return true;
+		} finally {
+			airportSketches.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Drops the sketches of an airport
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 */
+	public void remove(String iataCode) {
+		sketches.remove(iataCode);
+	}
+
+	/**
+	 * Drops all sketches
+	 */
+	public void clear() {
+		sketches.clear();
+	}
+
+	/**
+	 * The sketches of an airport indexed by data point type
+	 */
+	private static final class AirportSketches {
+
+		final StampedLock lock = new StampedLock();
+
+		/** sketches of the current windows */
+		final QuantileSketch[] current = new QuantileSketch[TYPES];
+
+		/** sketches of the windows before the current ones */
+		final QuantileSketch[] previous = new QuantileSketch[TYPES];
+
+		/** numbers of the current windows since UTC epoch */
+		final long[] windows = new long[TYPES];
+	}
+}
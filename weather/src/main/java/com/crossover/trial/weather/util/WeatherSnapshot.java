@@ -0,0 +1,52 @@
+package com.crossover.trial.weather.util;
+
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+
+/**
+ * Immutable snapshot of an airport's weather: its atmospheric information,
+ * the json fragment generated from it and its version. A snapshot is
+ * published as a whole by swapping a reference, so readers never lock and
+ * never see the parts of different updates mixed. Readers needing more than
+ * one part should take them from the same snapshot.
+ *
+ * @author burak
+ */
+public final class WeatherSnapshot {
+
+	/** atmospheric information of the airport */
+	private final AtmosphericInformation atmosphericInformation;
+
+	/** UTF-8 json representation, null if it could not be generated */
+	private final byte[] jsonFragment;
+
+	/** version of the last change */
+	private final long version;
+
+	/**
+	 * @param atmosphericInformation
+	 *            atmospheric information of the airport
+	 * @param jsonFragment
+	 *            UTF-8 json representation of the atmospheric information,
+	 *            must not be changed afterwards
+	 * @param version
+	 *            version of the last change
+	 */
+	public WeatherSnapshot(AtmosphericInformation atmosphericInformation,
+			byte[] jsonFragment, long version) {
+		this.atmosphericInformation = atmosphericInformation;
+		this.jsonFragment = jsonFragment;
+		this.version = version;
+	}
+
+	public AtmosphericInformation getAtmosphericInformation() {
+		return atmosphericInformation;
+	}
+
+	public byte[] getJsonFragment() {
+		return jsonFragment;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+}
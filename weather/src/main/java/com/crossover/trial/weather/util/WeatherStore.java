@@ -0,0 +1,149 @@
+package com.crossover.trial.weather.util;
+
+import java.util.function.Consumer;
+
+import com.crossover.trial.weather.pojo.AirportData;
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * Storage of the weather data of the airports used by {@link WeatherService}.
+ * Writers are serialized by the store, readers never lock and always see the
+ * data points, last update time and version of an airport of the same
+ * moment.
+ *
+ * @author burak
+ */
+public interface WeatherStore {
+
+	/**
+	 * Adds the given airport, or replaces all its data points if it is
+	 * already known
+	 *
+	 * @param airportData
+	 *            the airport
+	 * @param atmInfo
+	 *            atmospheric information to store
+	 * @param version
+	 *            version of the change
+	 */
+	void put(AirportData airportData, AtmosphericInformation atmInfo,
+			long version);
+
+	/**
+	 * Writes a data point of the airport with the given iata code
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            the data point, its values are copied
+	 * @param updateTime
+	 *            time of the update, in milliseconds since UTC epoch
+	 * @param version
+	 *            version of the change
+	 * @return <code>false</code> if the airport is not known
+	 */
+	boolean write(String iataCode, DataPointType pointType,
+			DataPoint dataPoint, long updateTime, long version);
+
+	/**
+	 * Writes several data points of the airport with the given iata code in
+	 * a single step, readers see either none or all of them
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointTypes
+	 *            types of the data points
+	 * @param dataPoints
+	 *            the data points, their values are copied and a later one of
+	 *            the same type replaces an earlier one
+	 * @param count
+	 *            number of data points to write from the start of the arrays
+	 * @param updateTime
+	 *            time of the update, in milliseconds since UTC epoch
+	 * @param version
+	 *            version of the change
+	 * @return <code>false</code> if the airport is not known
+	 */
+	boolean write(String iataCode, DataPointType[] pointTypes,
+			DataPoint[] dataPoints, int count, long updateTime, long version);
+
+	/**
+	 * Removes the airport with the given iata code
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @return <code>false</code> if the airport is not known
+	 */
+	boolean remove(String iataCode);
+
+	/**
+	 * clears the store
+	 */
+	void clear();
+
+	/**
+	 * Reads the atmospheric information of the airport with the given iata
+	 * code, creating new {@link DataPoint}s from the stored values
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @return {@link AtmosphericInformation}, or null if the airport is not
+	 *         known
+	 */
+	AtmosphericInformation read(String iataCode);
+
+	/**
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @return version of the last change of the airport, or -1 if it is not
+	 *         known
+	 */
+	long getVersion(String iataCode);
+
+	/**
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @return <code>true</code> if the airport is known and has any data
+	 *         point
+	 */
+	boolean hasAnyDataPoint(String iataCode);
+
+	/**
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @return <code>true</code> if the airport is known
+	 */
+	boolean contains(String iataCode);
+
+	/**
+	 * Counts the airports having any data point which have been updated after
+	 * the given time. Airports changing meanwhile may be counted either way.
+	 *
+	 * @param time
+	 *            time in milliseconds since UTC epoch
+	 * @return number of airports
+	 */
+	int countUpdatedSince(long time);
+
+	/**
+	 * Passes every stored airport to the given consumer
+	 *
+	 * @param consumer
+	 *            consumer of the airports
+	 */
+	void forEachAirport(Consumer<AirportData> consumer);
+
+	/**
+	 * @return the greatest version of the stored airports, 0 if there is none
+	 */
+	long getMaxVersion();
+
+	/**
+	 * @return number of known airports
+	 */
+	int size();
+}
@@ -0,0 +1,33 @@
+package com.crossover.trial.weather.util;
+
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * Listener of the data points accepted by {@link WeatherService}. Listeners
+ * are called on the ingesting thread after the data point and the version of
+ * its airport have been stored, so they must return quickly and must not
+ * throw.
+ *
+ * @author burak
+ */
+@FunctionalInterface
+public interface WeatherUpdateListener {
+
+	/**
+	 * Called after a data point has been applied to the atmospheric
+	 * information of an airport
+	 *
+	 * @param iataCode
+	 *            iata code of the updated airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            applied data point
+	 * @param version
+	 *            version of the airport's atmospheric information after the
+	 *            update
+	 */
+	void weatherUpdated(String iataCode, DataPointType pointType,
+			DataPoint dataPoint, long version);
+}
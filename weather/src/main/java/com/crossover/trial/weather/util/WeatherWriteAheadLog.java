@@ -0,0 +1,757 @@
+package com.crossover.trial.weather.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.crossover.trial.weather.pojo.AirportData;
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * An append-only write-ahead log of the changes of the airports and their
+ * weather data. Writers append binary records to a buffer in memory, in the
+ * order in which they apply the changes, and then wait until their records
+ * are durable. A committer thread writes the buffer and forces the file once
+ * per commit window, so concurrent writers share a single fsync.
+ *
+ * The records are replayed on start by {@link #replay}. A record which is
+ * not complete, left by a crash in the middle of a write, ends the log and is
+ * dropped. A {@link #checkpoint} rewrites the log as one record per airport
+ * of the current state, which compacts it to the size of the store.
+ *
+ * Every record overwrites what it changes, so replaying a record which is
+ * already applied is harmless. Records are
+ *
+ * <pre>
+ * int    length of the body
+ * int    CRC32 of the body
+ * body:
+ * byte   kind: 1 data point, 2 airport, 3 removal of an airport
+ * short  length of the iata code, followed by its UTF-8 bytes
+ * data point: byte point type, long update time, values
+ * airport:    double latitude, double longitude, long update time,
+ *             int presence mask, values of each present point type
+ * removal:    nothing else
+ * </pre>
+ *
+ * where the values of a data point are double mean, int first, int second,
+ * int third and int count.
+ *
+ * @author burak
+ */
+public class WeatherWriteAheadLog implements Closeable {
+
+	private static final Logger logger = Logger
+			.getLogger(WeatherWriteAheadLog.class);
+
+	private static final byte DATA_POINT = 1;
+
+	private static final byte AIRPORT = 2;
+
+	private static final byte REMOVAL = 3;
+
+	/** length and checksum of a record */
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	/** size of the values of a data point */
+	private static final int VALUES_SIZE = 24;
+
+	/**
+	 * size of a record without its iata code, enough for any kind: an airport
+	 * record with its kind, iata length, location, update time, presence mask
+	 * and the values of every point type
+	 */
+	private static final int MAX_FIXED_RECORD_SIZE = RECORD_HEADER_SIZE + 1
+			+ 2 + 8 + 8 + 8 + 4 + DataPointType.count() * VALUES_SIZE;
+
+	/** longer bodies are taken for corrupted lengths */
+	private static final int MAX_BODY_SIZE = 1 << 16;
+
+	/** initial size of the record buffers */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** size of the buffer of a checkpoint written at once */
+	private static final int CHECKPOINT_BUFFER_SIZE = 1 << 20;
+
+	/** data point types in slot order */
+	private static final DataPointType[] POINT_TYPES = DataPointType.values();
+
+	/** path of the log */
+	private final Path path;
+
+	/** time in milliseconds the committer waits for more records */
+	private final long commitWindowMillis;
+
+	/**
+	 * serializes writing and forcing the file, held by the committer and by
+	 * checkpoints
+	 */
+	private final Object commitLock = new Object();
+
+	/** committer thread */
+	private final Thread committer;
+
+	/** checksum of the appended records, used under the log lock */
+	private final CRC32 checksum = new CRC32();
+
+	/** channel of the log, guarded by the commit lock */
+	private FileChannel channel;
+
+	/** length of the records found on open, which are replayed */
+	private final long replayLength;
+
+	/** appended records which are not written yet */
+	private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/** records being written by the committer, guarded by the commit lock */
+	private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/** number of appended records */
+	private long appendedSequence;
+
+	/** number of appended records which are durable */
+	private long durableSequence;
+
+	/**
+	 * first failure of a commit or the closing of the log, after which no
+	 * record becomes durable
+	 */
+	private IOException failure;
+
+	/** true once the log has been closed */
+	private boolean closed;
+
+	/** length of the log file */
+	private volatile long length;
+
+	/** length of the log file after the last checkpoint */
+	private volatile long checkpointLength;
+
+	/** number of commits which forced the file */
+	private volatile long commitCount;
+
+	/**
+	 * Opens the log in the given file, creating the file if it does not
+	 * exist. An incomplete record at the end of the file is truncated.
+	 *
+	 * @param path
+	 *            path of the file
+	 * @param commitWindowMillis
+	 *            time in milliseconds the committer waits for more records
+	 *            after the first one, 0 to commit at once
+	 * @throws IOException
+	 *             if the file can not be opened
+	 */
+	public WeatherWriteAheadLog(Path path, long commitWindowMillis)
+			throws IOException {
+		this.path = path;
+		this.commitWindowMillis = commitWindowMillis;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			replayLength = readRecords(Long.MAX_VALUE, null);
+			if (replayLength < channel.size()) {
+				logger.warn(MessageFormat.format(
+						"\"{0}\" incomplete bytes at the end of \"{1}\" have been dropped",
+						channel.size() - replayLength, path));
+				channel.truncate(replayLength);
+			}
+			channel.position(replayLength);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		length = replayLength;
+		committer = new Thread(this::commitRecords, "weather-log-committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Appends the addition of an airport with its atmospheric information
+	 *
+	 * @param airportData
+	 *            the airport
+	 * @param atmInfo
+	 *            atmospheric information of the airport
+	 * @return sequence of the record, see {@link #awaitDurable}
+	 */
+	public synchronized long appendAirport(AirportData airportData,
+			AtmosphericInformation atmInfo) {
+		byte[] iata = encode(airportData.getIata());
+		pending = ensureCapacity(pending, MAX_FIXED_RECORD_SIZE + iata.length);
+		putAirport(pending, checksum, iata, airportData, atmInfo);
+		return appended();
+	}
+
+	/**
+	 * Appends a data point of an airport
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @param pointType
+	 *            type of the data point
+	 * @param dataPoint
+	 *            the data point
+	 * @param updateTime
+	 *            time of the update, in milliseconds since UTC epoch
+	 * @return sequence of the record, see {@link #awaitDurable}
+	 */
+	public synchronized long appendDataPoint(String iataCode,
+			DataPointType pointType, DataPoint dataPoint, long updateTime) {
+		byte[] iata = encode(iataCode);
+		pending = ensureCapacity(pending, MAX_FIXED_RECORD_SIZE + iata.length);
+		int start = startRecord(pending, DATA_POINT, iata);
+		pending.put((byte) pointType.getSlot());
+		pending.putLong(updateTime);
+		putValues(pending, dataPoint);
+		endRecord(pending, checksum, start);
+		return appended();
+	}
+
+	/**
+	 * Appends the removal of an airport
+	 *
+	 * @param iataCode
+	 *            iata code of the airport
+	 * @return sequence of the record, see {@link #awaitDurable}
+	 */
+	public synchronized long appendRemoval(String iataCode) {
+		byte[] iata = encode(iataCode);
+		pending = ensureCapacity(pending, MAX_FIXED_RECORD_SIZE + iata.length);
+		endRecord(pending, checksum, startRecord(pending, REMOVAL, iata));
+		return appended();
+	}
+
+	/**
+	 * @return sequence of the last appended record, 0 if there is none
+	 */
+	public synchronized long getAppendedSequence() {
+		return appendedSequence;
+	}
+
+	/**
+	 * Checks records can still become durable. A failed commit is permanent,
+	 * so writers check the log before they apply a change which could not
+	 * be logged.
+	 *
+	 * @throws IOException
+	 *             if a commit has failed or the log is closed
+	 */
+	public synchronized void checkWritable() throws IOException {
+		if (failure != null) {
+			throw new IOException(MessageFormat.format(
+					"Weather log \"{0}\" has failed", path), failure);
+		}
+	}
+
+	/**
+	 * Waits until the record with the given sequence and all records before
+	 * it are durable
+	 *
+	 * @param sequence
+	 *            sequence of a record
+	 * @throws IOException
+	 *             if the records could not be written, or the thread is
+	 *             interrupted while waiting
+	 */
+	public synchronized void awaitDurable(long sequence) throws IOException {
+		while (durableSequence < sequence) {
+			if (failure != null) {
+				throw new IOException(MessageFormat.format(
+						"Weather log \"{0}\" has failed", path), failure);
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for the weather log");
+			}
+		}
+	}
+
+	/**
+	 * Replays the records found when the log was opened, in the order in
+	 * which they were appended
+	 *
+	 * @param handler
+	 *            handler of the records
+	 * @return number of replayed records
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	public int replay(RecordHandler handler) throws IOException {
+		int[] count = new int[1];
+		readRecords(replayLength, new RecordHandler() {
+
+			@Override
+			public void airportAdded(AirportData airportData,
+					AtmosphericInformation atmInfo) {
+				handler.airportAdded(airportData, atmInfo);
+				count[0]++;
+			}
+
+			@Override
+			public void dataPointAdded(String iataCode,
+					DataPointType pointType, DataPoint dataPoint,
+					long updateTime) {
+				handler.dataPointAdded(iataCode, pointType, dataPoint,
+						updateTime);
+				count[0]++;
+			}
+
+			@Override
+			public void airportRemoved(String iataCode) {
+				handler.airportRemoved(iataCode);
+				count[0]++;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * Rewrites the log as one airport record per airport of the given store.
+	 * The pending records are committed to the old log first, and the new
+	 * log replaces it only once it is durable, so a crash leaves either of
+	 * them complete. Records appended meanwhile follow the checkpoint, they
+	 * may be applied to the store already but replaying them again is
+	 * harmless. Commits wait for the checkpoint.
+	 *
+	 * Writers append to the log before they write the store, so the pending
+	 * records are committed and the airports are listed under the writer
+	 * lock. Otherwise a committed record could be missing from both the
+	 * store and the new log.
+	 *
+	 * @param store
+	 *            store of the current state of the logged changes
+	 * @param writerLock
+	 *            lock held by the writers while they append to the log and
+	 *            write the store
+	 * @return number of airport records written
+	 * @throws IOException
+	 *             if the new log can not be written
+	 */
+	public int checkpoint(WeatherStore store, Object writerLock)
+			throws IOException {
+		synchronized (commitLock) {
+			List<AirportData> airports = new ArrayList<AirportData>(
+					store.size());
+			synchronized (writerLock) {
+				commit();
+				store.forEachAirport(airports::add);
+			}
+			Path compactPath = path.resolveSibling(path.getFileName()
+					+ ".compact");
+			int count = 0;
+			try (FileChannel compactChannel = FileChannel.open(compactPath,
+					StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE)) {
+				ByteBuffer records = ByteBuffer.allocate(CHECKPOINT_BUFFER_SIZE);
+				CRC32 compactChecksum = new CRC32();
+				for (AirportData airportData : airports) {
+					AtmosphericInformation atmInfo = store.read(airportData
+							.getIata());
+					if (atmInfo == null) {
+						// removed meanwhile, its removal record follows
+						continue;
+					}
+					byte[] iata = encode(airportData.getIata());
+					if (records.remaining() < MAX_FIXED_RECORD_SIZE
+							+ iata.length) {
+						write(compactChannel, records);
+					}
+					putAirport(records, compactChecksum, iata, airportData,
+							atmInfo);
+					count++;
+				}
+				write(compactChannel, records);
+				compactChannel.force(true);
+			}
+			Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			channel.close();
+			channel = FileChannel.open(path, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			length = channel.size();
+			channel.position(length);
+			checkpointLength = length;
+			return count;
+		}
+	}
+
+	/**
+	 * @return number of bytes written to the log since the last checkpoint
+	 */
+	public long getBytesSinceCheckpoint() {
+		return length - checkpointLength;
+	}
+
+	/**
+	 * @return number of commits which forced the file
+	 */
+	public long getCommitCount() {
+		return commitCount;
+	}
+
+	/**
+	 * Commits the pending records and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (commitLock) {
+			commit();
+			channel.close();
+		}
+		synchronized (this) {
+			// records appended from now on never become durable
+			if (failure == null) {
+				failure = new ClosedChannelException();
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Loop of the committer thread, commits the pending records once per
+	 * commit window until the log is closed
+	 */
+	private void commitRecords() {
+		while (true) {
+			synchronized (this) {
+				while (!closed && pending.position() == 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (closed) {
+					return;
+				}
+			}
+			if (commitWindowMillis > 0) {
+				// let concurrent writers join the commit
+				try {
+					Thread.sleep(commitWindowMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			synchronized (commitLock) {
+				commit();
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending records and forces them to the file, the caller
+	 * must hold the commit lock
+	 */
+	private void commit() {
+		long sequence;
+		synchronized (this) {
+			if (pending.position() == 0) {
+				return;
+			}
+			ByteBuffer records = pending;
+			pending = writing;
+			writing = records;
+			sequence = appendedSequence;
+		}
+		IOException error = null;
+		try {
+			write(channel, writing);
+			channel.force(false);
+			length = channel.position();
+			commitCount++;
+		} catch (IOException e) {
+			error = e;
+			writing.clear();
+		}
+		synchronized (this) {
+			if (error == null) {
+				durableSequence = sequence;
+			} else if (failure == null) {
+				logger.error(MessageFormat.format(
+						"Weather log \"{0}\" could not be written", path),
+						error);
+				failure = error;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Counts an appended record and wakes up the committer
+	 *
+	 * @return sequence of the record
+	 */
+	private long appended() {
+		appendedSequence++;
+		notifyAll();
+		return appendedSequence;
+	}
+
+	/**
+	 * Reads the records from the beginning of the file up to the first
+	 * incomplete one
+	 *
+	 * @param limit
+	 *            number of bytes to read at most
+	 * @param handler
+	 *            handler of the records, null to only check them
+	 * @return length of the complete records
+	 */
+	private long readRecords(long limit, RecordHandler handler)
+			throws IOException {
+		long position = 0;
+		byte[] body = new byte[MAX_BODY_SIZE];
+		CRC32 recordChecksum = new CRC32();
+		try (InputStream file = Files.newInputStream(path)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					file, BUFFER_SIZE));
+			while (position + RECORD_HEADER_SIZE <= limit) {
+				int bodyLength;
+				int bodyChecksum;
+				try {
+					bodyLength = in.readInt();
+					bodyChecksum = in.readInt();
+					if (bodyLength <= 0 || bodyLength > MAX_BODY_SIZE
+							|| position + RECORD_HEADER_SIZE + bodyLength > limit) {
+						break;
+					}
+					in.readFully(body, 0, bodyLength);
+				} catch (EOFException e) {
+					break;
+				}
+				recordChecksum.reset();
+				recordChecksum.update(body, 0, bodyLength);
+				if ((int) recordChecksum.getValue() != bodyChecksum
+						|| !readRecord(ByteBuffer.wrap(body, 0, bodyLength),
+								handler)) {
+					break;
+				}
+				position += RECORD_HEADER_SIZE + bodyLength;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Decodes the body of a record and passes it to the handler
+	 *
+	 * @return false if the body is not a valid record
+	 */
+	private static boolean readRecord(ByteBuffer body, RecordHandler handler) {
+		try {
+			byte kind = body.get();
+			byte[] iata = new byte[body.getShort()];
+			body.get(iata);
+			String iataCode = new String(iata, StandardCharsets.UTF_8);
+			switch (kind) {
+			case DATA_POINT:
+				DataPointType pointType = DataPointType.fromSlot(body.get());
+				if (pointType == null) {
+					return false;
+				}
+				long updateTime = body.getLong();
+				DataPoint dataPoint = getValues(body);
+				if (handler != null) {
+					handler.dataPointAdded(iataCode, pointType, dataPoint,
+							updateTime);
+				}
+				return true;
+			case AIRPORT:
+				AirportData airportData = new AirportData(iataCode,
+						body.getDouble(), body.getDouble());
+				long lastUpdateTime = body.getLong();
+				int mask = body.getInt();
+				DataPoint[] dataPoints = new DataPoint[POINT_TYPES.length];
+				for (int type = 0; type < POINT_TYPES.length; type++) {
+					if ((mask & (1 << type)) != 0) {
+						dataPoints[type] = getValues(body);
+					}
+				}
+				if (handler != null) {
+					handler.airportAdded(airportData,
+							AtmosphericInformation.fromDataPoints(dataPoints,
+									lastUpdateTime));
+				}
+				return true;
+			case REMOVAL:
+				if (handler != null) {
+					handler.airportRemoved(iataCode);
+				}
+				return true;
+			default:
+				return false;
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException
+				| NegativeArraySizeException e) {
+			return false;
+		}
+	}
+
+	private static void putAirport(ByteBuffer b, CRC32 checksum, byte[] iata,
+			AirportData airportData, AtmosphericInformation atmInfo) {
+		int start = startRecord(b, AIRPORT, iata);
+		b.putDouble(airportData.getLatitude());
+		b.putDouble(airportData.getLongitude());
+		b.putLong(atmInfo.getLastUpdateTime());
+		int maskPosition = b.position();
+		b.putInt(0);
+		int mask = 0;
+		for (DataPointType pointType : POINT_TYPES) {
+			DataPoint dataPoint = atmInfo.getDataPoint(pointType);
+			if (dataPoint != null) {
+				putValues(b, dataPoint);
+				mask |= 1 << pointType.getSlot();
+			}
+		}
+		b.putInt(maskPosition, mask);
+		endRecord(b, checksum, start);
+	}
+
+	/**
+	 * Starts a record at the current position, leaving room for its length
+	 * and checksum
+	 *
+	 * @return start of the record
+	 */
+	private static int startRecord(ByteBuffer b, byte kind, byte[] iata) {
+		int start = b.position();
+		b.position(start + RECORD_HEADER_SIZE);
+		b.put(kind);
+		b.putShort((short) iata.length);
+		b.put(iata);
+		return start;
+	}
+
+	/**
+	 * Fills in the length and checksum of the record started at the given
+	 * position
+	 */
+	private static void endRecord(ByteBuffer b, CRC32 checksum, int start) {
+		int bodyStart = start + RECORD_HEADER_SIZE;
+		int bodyLength = b.position() - bodyStart;
+		checksum.reset();
+		checksum.update(b.array(), b.arrayOffset() + bodyStart, bodyLength);
+		b.putInt(start, bodyLength);
+		b.putInt(start + 4, (int) checksum.getValue());
+	}
+
+	private static void putValues(ByteBuffer b, DataPoint dataPoint) {
+		b.putDouble(dataPoint.getMean());
+		b.putInt(dataPoint.getFirst());
+		b.putInt(dataPoint.getSecond());
+		b.putInt(dataPoint.getThird());
+		b.putInt(dataPoint.getCount());
+	}
+
+	private static DataPoint getValues(ByteBuffer b) {
+		return WeatherColumnStore.newDataPoint(b.getDouble(), b.getInt(),
+				b.getInt(), b.getInt(), b.getInt());
+	}
+
+	/**
+	 * @return the given buffer, or a larger copy of it if it has less than
+	 *         the given number of bytes remaining
+	 */
+	private static ByteBuffer ensureCapacity(ByteBuffer b, int size) {
+		if (b.remaining() >= size) {
+			return b;
+		}
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(b.capacity() * 2,
+				b.position() + size));
+		b.flip();
+		larger.put(b);
+		return larger;
+	}
+
+	/**
+	 * Writes the given buffer to the channel and clears it
+	 */
+	private static void write(FileChannel channel, ByteBuffer b)
+			throws IOException {
+		b.flip();
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+		b.clear();
+	}
+
+	private static byte[] encode(String iataCode) {
+		byte[] iata = iataCode.getBytes(StandardCharsets.UTF_8);
+		if (iata.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException(MessageFormat.format(
+					"Iata code of \"{0}\" bytes is too long", iata.length));
+		}
+		return iata;
+	}
+
+	/**
+	 * Handler of the records of a log being replayed
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * @param airportData
+		 *            added airport
+		 * @param atmInfo
+		 *            atmospheric information of the airport
+		 */
+		void airportAdded(AirportData airportData,
+				AtmosphericInformation atmInfo);
+
+		/**
+		 * @param iataCode
+		 *            iata code of the airport
+		 * @param pointType
+		 *            type of the data point
+		 * @param dataPoint
+		 *            the data point
+		 * @param updateTime
+		 *            time of the update, in milliseconds since UTC epoch
+		 */
+		void dataPointAdded(String iataCode, DataPointType pointType,
+				DataPoint dataPoint, long updateTime);
+
+		/**
+		 * @param iataCode
+		 *            iata code of the removed airport
+		 */
+		void airportRemoved(String iataCode);
+	}
+}
@@ -2,6 +2,7 @@ package com.crossover.trial.weather;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
 import java.util.Map;
 
 import org.junit.After;
@@ -16,7 +17,9 @@ public class AirportServiceTest {
 	private static final Double ZERO_POINT_FIVE = new Double(0.5);
 
 	private static final Double DISTANCE_IN_RADIANS = new Double(
-			181.29685614469278);
+			331.41871053634435);
+
+	private static final double DISTANCE_DELTA = 1e-9;
 
 	/**
 	 * Sample Airport with ADB iata code
@@ -86,7 +89,144 @@ public class AirportServiceTest {
 		// calculate distance between ADB and SAW airports
 		Double actual = new Double(AirportService.calculateDistance(ADB, SAW));
 		// check if it is as expected
-		assertEquals(DISTANCE_IN_RADIANS, actual);
+		assertEquals(DISTANCE_IN_RADIANS, actual, DISTANCE_DELTA);
+	}
+
+	@Test
+	public void testFindAirportsInRadius() throws Exception {
+		// add two airports which are 331 km away from each other
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		AirportService.addAirport(SAW.getIata(), SAW.getLatitude(),
+				SAW.getLongitude());
+		// only the reference airport itself is in a small radius
+		List<AirportData> airports = AirportService.findAirportsInRadius(ADB,
+				100);
+		assertEquals(1, airports.size());
+		assertEquals(ADB, airports.get(0));
+		// both airports are in a large radius
+		assertEquals(2, AirportService.findAirportsInRadius(ADB, 400).size());
+		// nothing is in a negative radius
+		assertTrue(AirportService.findAirportsInRadius(ADB, -1).isEmpty());
+	}
+
+	@Test
+	public void testFindAirportsInWholeSphere() throws Exception {
+		// add three airports and delete the first one
+		AirportData esb = new AirportData("ESB", 40.128082, 32.995083);
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		AirportService.addAirport(SAW.getIata(), SAW.getLatitude(),
+				SAW.getLongitude());
+		AirportService.addAirport(esb.getIata(), esb.getLatitude(),
+				esb.getLongitude());
+		AirportService.deleteAirport(ADB.getIata());
+		// check a radius covering the whole earth finds the remaining ones
+		List<AirportData> airports = AirportService.findAirportsInRadius(SAW,
+				30000);
+		assertEquals(2, airports.size());
+		assertTrue(airports.contains(SAW));
+		assertTrue(airports.contains(esb));
+	}
+
+	@Test
+	public void testFindAirportsInRadiusAcrossAntimeridian() throws Exception {
+		// add two airports on both sides of the antimeridian
+		AirportData suva = new AirportData("SUV", -18.043333, 178.559228);
+		AirportData vavau = new AirportData("VAV", -18.585336, -173.961811);
+		AirportService.addAirport(suva.getIata(), suva.getLatitude(),
+				suva.getLongitude());
+		AirportService.addAirport(vavau.getIata(), vavau.getLatitude(),
+				vavau.getLongitude());
+		// check they are found from both sides
+		assertEquals(2, AirportService.findAirportsInRadius(suva, 1000).size());
+		assertEquals(2, AirportService.findAirportsInRadius(vavau, 1000)
+				.size());
+	}
+
+	@Test
+	public void testFindAirportsInRadiusAcrossPole() throws Exception {
+		// add two airports on the opposite sides of the north pole
+		AirportData alert = new AirportData("YLT", 82.517778, -62.280556);
+		AirportData nordAirport = new AirportData("NRD", 81.6, 16.666667);
+		AirportService.addAirport(alert.getIata(), alert.getLatitude(),
+				alert.getLongitude());
+		AirportService.addAirport(nordAirport.getIata(),
+				nordAirport.getLatitude(), nordAirport.getLongitude());
+		// check they are found over the pole
+		double distance = AirportService.calculateDistance(alert, nordAirport);
+		assertEquals(2, AirportService.findAirportsInRadius(alert, distance)
+				.size());
+		assertEquals(1,
+				AirportService.findAirportsInRadius(alert, distance - 1).size());
+	}
+
+	@Test
+	public void testFindAirportsInNeighbourRadius() throws Exception {
+		// add three airports, ESB is 323 km and ADB is 331 km away from SAW
+		AirportData esb = new AirportData("ESB", 40.128082, 32.995083);
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		AirportService.addAirport(SAW.getIata(), SAW.getLatitude(),
+				SAW.getLongitude());
+		AirportService.addAirport(esb.getIata(), esb.getLatitude(),
+				esb.getLongitude());
+		// check airports in a bucket radius are ordered by distance
+		List<AirportData> airports = AirportService.findAirportsInRadius(SAW,
+				500);
+		assertEquals(3, airports.size());
+		assertEquals(SAW, airports.get(0));
+		assertEquals(esb, airports.get(1));
+		assertEquals(ADB, airports.get(2));
+		// check radius between buckets
+		assertEquals(2, AirportService.findAirportsInRadius(SAW, 325).size());
+		// check lists are updated after deletion
+		AirportService.deleteAirport(esb.getIata());
+		assertEquals(2, AirportService.findAirportsInRadius(SAW, 500).size());
+		assertEquals(1, AirportService.findAirportsInRadius(SAW, 200).size());
+	}
+
+	@Test
+	public void testFindNearestAirports() throws Exception {
+		// add three airports
+		AirportData esb = new AirportData("ESB", 40.128082, 32.995083);
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		AirportService.addAirport(SAW.getIata(), SAW.getLatitude(),
+				SAW.getLongitude());
+		AirportService.addAirport(esb.getIata(), esb.getLatitude(),
+				esb.getLongitude());
+		// check airports are ordered by distance to SAW
+		List<AirportData> nearest = AirportService.findNearestAirports(SAW, 3,
+				airportData -> true);
+		assertEquals(SAW, nearest.get(0));
+		assertEquals(esb, nearest.get(1));
+		assertEquals(ADB, nearest.get(2));
+		// check filtered airports are skipped
+		nearest = AirportService.findNearestAirports(SAW, 1,
+				airportData -> !airportData.equals(SAW));
+		assertEquals(1, nearest.size());
+		assertEquals(esb, nearest.get(0));
+		// check deleted airports are not found
+		AirportService.deleteAirport(esb.getIata());
+		assertEquals(2,
+				AirportService.findNearestAirports(SAW, 3, airportData -> true)
+						.size());
+	}
+
+	@Test
+	public void testFindAirportsInRadiusAfterMove() throws Exception {
+		// add an airport and add it again with another location
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		AirportService.addAirport(ADB.getIata(), SAW.getLatitude(),
+				SAW.getLongitude());
+		// check it is only found at the new location
+		assertEquals(1, AirportService.findAirportsInRadius(SAW, 1).size());
+		assertTrue(AirportService.findAirportsInRadius(ADB, 1).isEmpty());
+		// check it is not found after deletion
+		AirportService.deleteAirport(ADB.getIata());
+		assertTrue(AirportService.findAirportsInRadius(SAW, 1).isEmpty());
 	}
 
 	/**
@@ -1,34 +1,82 @@
 package com.crossover.trial.weather;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
-
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.glassfish.jersey.server.ResourceConfig;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.crossover.trial.weather.endpoint.collector.RestWeatherCollectorEndpoint;
 import com.crossover.trial.weather.endpoint.collector.WeatherCollectorEndpoint;
+import com.crossover.trial.weather.endpoint.collector.WeatherDatagramListener;
+import com.crossover.trial.weather.endpoint.collector.WeatherFrameListener;
+import com.crossover.trial.weather.endpoint.collector.WeatherFrames;
+import com.crossover.trial.weather.endpoint.query.AtmosphericInformationListWriter;
 import com.crossover.trial.weather.endpoint.query.RestWeatherQueryEndpoint;
 import com.crossover.trial.weather.endpoint.query.WeatherQueryEndpoint;
 import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.pojo.AtmosphericInformation;
 import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.WeatherUpdate;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
 import com.crossover.trial.weather.util.AirportService;
 import com.crossover.trial.weather.util.WeatherService;
+import com.crossover.trial.weather.util.WeatherUpdateListener;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 public class WeatherEndpointTest {
 
 	private static final String IATA_FREQ = "iata_freq";
 
+	private static final String CACHE = "cache";
+
+	private static final String HITS = "hits";
+
+	private static final String SUBSCRIPTIONS = "subscriptions";
+
+	private static final String OPEN = "open";
+
+	private static final String DATAGRAMS = "datagrams";
+
+	private static final String INGEST = "ingest";
+
 	private static final String DATASIZE = "datasize";
 
 	private static final String CLOUDCOVER = "cloudcover";
@@ -100,6 +148,8 @@ public class WeatherEndpointTest {
 		assertEquals(1, pingResult.getAsJsonObject().get(DATASIZE).getAsInt());
 		assertEquals(5, pingResult.getAsJsonObject().get(IATA_FREQ)
 				.getAsJsonObject().entrySet().size());
+		// updates are applied at once in the tests, so no ingest stats
+		assertTrue(pingResult.getAsJsonObject().get(INGEST).isJsonObject());
 	}
 
 	@Test
@@ -108,6 +158,13 @@ public class WeatherEndpointTest {
 		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query
 				.weather(BOS.getIata(), ZERO).getEntity();
 		assertEquals(ais.get(0).getWind(), _dp);
+
+		// check an unknown airport has no atmospheric information
+		for (String radius : Arrays.asList(ZERO, "100")) {
+			Response unknown = _query.weather("ZZZ", radius);
+			assertEquals(200, unknown.getStatus());
+			assertTrue(((List<?>) unknown.getEntity()).isEmpty());
+		}
 	}
 
 	@Test
@@ -127,6 +184,287 @@ public class WeatherEndpointTest {
 		assertEquals(3, ais.size());
 	}
 
+	@Test
+	public void testGetNearbyCached() throws Exception {
+		// update weather of JFK airport
+		_update.updateWeather(JFK.getIata(), WIND, _gson.toJson(_dp));
+
+		// request weather info related to JFK airport twice
+		Object first = _query.weather(JFK.getIata(), "200").getEntity();
+		Object second = _query.weather(JFK.getIata(), "200").getEntity();
+		// check the second result is served from the cache
+		assertSame(first, second);
+		JsonElement cacheStats = new JsonParser().parse(_query.ping())
+				.getAsJsonObject().get(CACHE);
+		assertTrue(cacheStats.getAsJsonObject().get(HITS).getAsLong() > 0);
+
+		// update weather of LGA airport in the radius
+		_update.updateWeather(LGA.getIata(), WIND, _gson.toJson(_dp));
+		// check the cached result has been invalidated
+		@SuppressWarnings("unchecked")
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query
+				.weather(JFK.getIata(), "200").getEntity();
+		assertNotSame(first, ais);
+		assertEquals(2, ais.size());
+	}
+
+	@Test
+	public void testGetNearbyTagged() throws Exception {
+		// update weather of JFK airport
+		_update.updateWeather(JFK.getIata(), WIND, _gson.toJson(_dp));
+
+		// request weather info related to JFK airport twice
+		EntityTag first = _query.weather(JFK.getIata(), "200").getEntityTag();
+		EntityTag second = _query.weather(JFK.getIata(), "200").getEntityTag();
+		// check the unchanged result keeps its tag
+		assertNotNull(first);
+		assertEquals(first, second);
+
+		// update weather of LGA airport in the radius
+		_update.updateWeather(LGA.getIata(), WIND, _gson.toJson(_dp));
+		// check the tag has changed
+		assertNotEquals(first, _query.weather(JFK.getIata(), "200")
+				.getEntityTag());
+	}
+
+	@Test
+	public void testGetNearbyNotModified() throws Exception {
+		_update.updateWeather(JFK.getIata(), WIND, _gson.toJson(_dp));
+		HttpServer server = startServer();
+		try {
+			// request weather info related to JFK airport over http
+			URL url = getUrl(server, "/query/weather/JFK/200");
+			HttpURLConnection connection = (HttpURLConnection) url
+					.openConnection();
+			assertEquals(Response.Status.OK.getStatusCode(),
+					connection.getResponseCode());
+			String tag = connection.getHeaderField("ETag");
+			assertNotNull(tag);
+			connection.getInputStream().close();
+
+			// check a request with the tag is answered without a body
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("If-None-Match", tag);
+			assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(),
+					connection.getResponseCode());
+			assertEquals(tag, connection.getHeaderField("ETag"));
+			assertEquals(-1, connection.getInputStream().read());
+
+			// check the old tag no longer matches once LGA in the radius
+			// changes
+			_update.updateWeather(LGA.getIata(), WIND, _gson.toJson(_dp));
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("If-None-Match", tag);
+			assertEquals(Response.Status.OK.getStatusCode(),
+					connection.getResponseCode());
+			assertNotEquals(tag, connection.getHeaderField("ETag"));
+			connection.getInputStream().close();
+		} finally {
+			server.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testGetNearbyStreamed() throws Exception {
+		// update weather of JFK airport, BOS has been updated in setup
+		_update.updateWeather(JFK.getIata(), WIND, _gson.toJson(_dp));
+
+		// request weather info of a large radius around JFK
+		Object entity = _query.weather(JFK.getIata(), "1000").getEntity();
+		// check the response is streamed
+		assertTrue(entity instanceof StreamingOutput);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		((StreamingOutput) entity).write(output);
+		// check both airports with data have been written
+		JsonArray ais = new JsonParser().parse(
+				output.toString(StandardCharsets.UTF_8.name()))
+				.getAsJsonArray();
+		assertEquals(2, ais.size());
+	}
+
+	@Test
+	public void testGetBatch() throws Exception {
+		// update weather of JFK and EWR airports, BOS has been updated in setup
+		_update.updateWeather(JFK.getIata(), WIND, _gson.toJson(_dp));
+		_update.updateWeather(EWR.getIata(), WIND, _gson.toJson(_dp));
+
+		// request overlapping radii of JFK and BOS itself in one batch
+		Object entity = _query.batchWeather(
+				"[{iata:JFK,radius:200},{iata:JFK,radius:20},{iata:BOS}]")
+				.getEntity();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		((StreamingOutput) entity).write(output);
+		JsonArray results = new JsonParser().parse(
+				output.toString(StandardCharsets.UTF_8.name()))
+				.getAsJsonArray();
+		// check results are in request order
+		assertEquals(3, results.size());
+		assertEquals(JFK.getIata(), results.get(0).getAsJsonObject()
+				.get("iata").getAsString());
+		assertEquals(2, results.get(0).getAsJsonObject().get("weather")
+				.getAsJsonArray().size());
+		assertEquals(1, results.get(1).getAsJsonObject().get("weather")
+				.getAsJsonArray().size());
+		assertEquals(BOS.getIata(), results.get(2).getAsJsonObject()
+				.get("iata").getAsString());
+		assertEquals(1, results.get(2).getAsJsonObject().get("weather")
+				.getAsJsonArray().size());
+
+		// check an unknown airport has an empty result
+		entity = _query.batchWeather("[{iata:ZZZ}]").getEntity();
+		output.reset();
+		((StreamingOutput) entity).write(output);
+		assertEquals(0, new JsonParser()
+				.parse(output.toString(StandardCharsets.UTF_8.name()))
+				.getAsJsonArray().get(0).getAsJsonObject().get("weather")
+				.getAsJsonArray().size());
+
+		// check a body which is not a list of queries is a bad request
+		for (String queriesJson : new String[] { "", "[null]", "[{}]", "[" }) {
+			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), _query
+					.batchWeather(queriesJson).getStatus());
+		}
+	}
+
+	@Test
+	public void testChanges() throws Exception {
+		// check the changes since the start are answered
+		Object entity = _query.changes(ZERO).getEntity();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		((StreamingOutput) entity).write(output);
+		assertTrue(new JsonParser()
+				.parse(output.toString(StandardCharsets.UTF_8.name()))
+				.getAsJsonObject().has("version"));
+
+		// check a version which is not a number is a bad request
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), _query
+				.changes("abc").getStatus());
+	}
+
+	@Test
+	public void testSubscribe() throws Exception {
+		// subscribe to the changes of BOS airport
+		Object entity = _query.subscribe(BOS.getIata(), ZERO).getEntity();
+		assertTrue(entity instanceof ChunkedOutput);
+		assertEquals(1, getOpenSubscriptions());
+
+		// disconnect and update BOS, the failing write closes the
+		// subscription
+		((ChunkedOutput<?>) entity).close();
+		_update.updateWeather(BOS.getIata(), WIND, _gson.toJson(_dp));
+		for (int i = 0; i < 100 && getOpenSubscriptions() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, getOpenSubscriptions());
+
+		// unknown airports can not be subscribed
+		assertEquals(Response.Status.NOT_FOUND.getStatusCode(), _query
+				.subscribe("XXX", ZERO).getStatus());
+		// a radius which is not a number is a bad request
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), _query
+				.subscribe(BOS.getIata(), "far").getStatus());
+		assertEquals(0, getOpenSubscriptions());
+	}
+
+	@Test
+	public void testSubscribeEvents() throws Exception {
+		HttpServer server = startServer();
+		try {
+			// subscribe to the changes of BOS airport over http
+			HttpURLConnection connection = (HttpURLConnection) getUrl(server,
+					"/query/subscribe/BOS").openConnection();
+			connection.setReadTimeout(5000);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					connection.getInputStream(), StandardCharsets.UTF_8));
+			assertEquals(":subscribed", reader.readLine());
+
+			// check an update of BOS is pushed with its weather
+			_dp.setMean(42);
+			_update.updateWeather(BOS.getIata(), WIND, _gson.toJson(_dp));
+			String line = reader.readLine();
+			while (!line.startsWith("data: ")) {
+				line = reader.readLine();
+			}
+			JsonObject event = new JsonParser().parse(line.substring(6))
+					.getAsJsonObject();
+			assertEquals(BOS.getIata(), event.get("iata").getAsString());
+			assertEquals(42, event.get("weather").getAsJsonObject()
+					.get("wind").getAsJsonObject().get("mean").getAsDouble(),
+					0);
+
+			// disconnect, the next event closes the subscription
+			connection.disconnect();
+			for (int i = 0; i < 100 && getOpenSubscriptions() > 0; i++) {
+				_update.updateWeather(BOS.getIata(), WIND, _gson.toJson(_dp));
+				Thread.sleep(50);
+			}
+			assertEquals(0, getOpenSubscriptions());
+		} finally {
+			server.shutdownNow();
+		}
+	}
+
+	/**
+	 * Starts the endpoints in a http server on a free port
+	 */
+	private static HttpServer startServer() throws IOException {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		ResourceConfig resourceConfig = new ResourceConfig();
+		resourceConfig.register(RestWeatherCollectorEndpoint.class);
+		resourceConfig.register(RestWeatherQueryEndpoint.class);
+		resourceConfig.register(AtmosphericInformationListWriter.class);
+		return GrizzlyHttpServerFactory.createHttpServer(
+				URI.create("http://localhost:" + port + "/"), resourceConfig);
+	}
+
+	/**
+	 * @return url of the given path on the given server
+	 */
+	private static URL getUrl(HttpServer server, String path)
+			throws IOException {
+		return new URL("http://localhost:"
+				+ server.getListeners().iterator().next().getPort() + path);
+	}
+
+	/**
+	 * @return number of open subscriptions reported by ping
+	 */
+	private long getOpenSubscriptions() {
+		return new JsonParser().parse(_query.ping()).getAsJsonObject()
+				.get(SUBSCRIPTIONS).getAsJsonObject().get(OPEN).getAsLong();
+	}
+
+	@Test
+	public void testGetNearest() throws Exception {
+		// update weather of JFK and EWR airports, LGA is closer to JFK than
+		// EWR but has no data
+		_update.updateWeather(JFK.getIata(), WIND, _gson.toJson(_dp));
+		double jfkMean = _dp.getMean();
+		_dp.setMean(40);
+		_update.updateWeather(EWR.getIata(), WIND, _gson.toJson(_dp));
+
+		// request weather info of the two nearest airports to JFK
+		@SuppressWarnings("unchecked")
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query
+				.nearest(JFK.getIata(), "2").getEntity();
+		// check JFK itself and then EWR are returned
+		assertEquals(2, ais.size());
+		assertEquals(jfkMean, ais.get(0).getWind().getMean(), 0);
+		assertEquals(40, ais.get(1).getWind().getMean(), 0);
+
+		// check a count larger than the airports returns every airport with
+		// data, BOS of setUp too, and an invalid count is rejected
+		assertEquals(3, ((List<?>) _query.nearest(JFK.getIata(),
+				Integer.toString(Integer.MAX_VALUE)).getEntity()).size());
+		for (String k : Arrays.asList("abc", "0", "-1", "1.5", "")) {
+			assertEquals(400, _query.nearest(JFK.getIata(), k).getStatus());
+		}
+		assertEquals(404, _query.nearest("XXX", "2").getStatus());
+	}
+
 	@Test
 	public void testUpdate() throws Exception {
 
@@ -161,6 +499,408 @@ public class WeatherEndpointTest {
 		assertEquals(ais.get(0).getCloudCover(), cloudCoverDp);
 	}
 
+	@Test
+	public void testGetHistory() throws Exception {
+		// setUp has updated the wind of BOS once, add a second reading
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		windDp.setMean(40);
+		_update.updateWeather(BOS.getIata(), WIND, _gson.toJson(windDp));
+
+		JsonElement history = new JsonParser().parse((String) _query
+				.history(BOS.getIata(), WIND, ZERO, "").getEntity());
+		JsonArray means = history.getAsJsonObject().get("means")
+				.getAsJsonArray();
+		assertEquals(2, means.size());
+		assertEquals(_dp.getMean(), means.get(0).getAsDouble(), 0);
+		assertEquals(40, means.get(1).getAsDouble(), 0);
+
+		// check the time range and the unknown airports and point types
+		assertEquals(0, new JsonParser()
+				.parse((String) _query.history(BOS.getIata(), WIND,
+						Long.toString(System.currentTimeMillis() + 1000), "")
+						.getEntity()).getAsJsonObject().get("times")
+				.getAsJsonArray().size());
+		assertEquals(404, _query.history("XXX", WIND, ZERO, "").getStatus());
+		assertEquals(400, _query.history(BOS.getIata(), "rain", ZERO, "")
+				.getStatus());
+		assertEquals(400, _query.history(BOS.getIata(), WIND, "abc", "")
+				.getStatus());
+		assertEquals(400, _query.history(BOS.getIata(), WIND, ZERO, "1.5")
+				.getStatus());
+	}
+
+	@Test
+	public void testGetRollup() throws Exception {
+		// setUp has updated the wind of BOS once, add a second reading
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		windDp.setMean(40);
+		_update.updateWeather(BOS.getIata(), WIND, _gson.toJson(windDp));
+
+		JsonElement rollup = new JsonParser().parse((String) _query.rollup(
+				BOS.getIata(), WIND, "day", ZERO, "").getEntity());
+		assertEquals(2, rollup.getAsJsonObject().get("counts")
+				.getAsJsonArray().get(0).getAsInt());
+		assertEquals(_dp.getMean(), rollup.getAsJsonObject().get("mins")
+				.getAsJsonArray().get(0).getAsDouble(), 0);
+		assertEquals(40, rollup.getAsJsonObject().get("maxs")
+				.getAsJsonArray().get(0).getAsDouble(), 0);
+		assertEquals(404, _query.rollup("XXX", WIND, "day", ZERO, "")
+				.getStatus());
+		assertEquals(400, _query.rollup(BOS.getIata(), WIND, "week", ZERO, "")
+				.getStatus());
+		assertEquals(400, _query.rollup(BOS.getIata(), WIND, "day", "abc", "")
+				.getStatus());
+		assertEquals(400, _query.rollup(BOS.getIata(), WIND, "day", ZERO, "x")
+				.getStatus());
+	}
+
+	@Test
+	public void testGetAggregate() throws Exception {
+		// setUp has updated the wind of BOS, add a windier JFK
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(40)
+				.withMedian(50).withLast(60).withMean(52).build();
+		_update.updateWeather(JFK.getIata(), WIND, _gson.toJson(windDp));
+
+		JsonObject aggregate = new JsonParser().parse((String) _query
+				.aggregate(BOS.getIata(), WIND, "500", "0,0.5,1").getEntity())
+				.getAsJsonObject();
+		assertEquals(2, aggregate.get("airports").getAsInt());
+		assertEquals(20, aggregate.get("count").getAsLong());
+		JsonArray values = aggregate.get("values").getAsJsonArray();
+		assertEquals(10, values.get(0).getAsDouble(), 0);
+		assertTrue(values.get(1).getAsDouble() >= 30
+				&& values.get(1).getAsDouble() <= 40);
+		assertEquals(60, values.get(2).getAsDouble(), 0);
+
+		// check only the airport itself is merged without a radius
+		aggregate = new JsonParser().parse((String) _query.aggregate(
+				BOS.getIata(), WIND, ZERO, "0.5").getEntity())
+				.getAsJsonObject();
+		assertEquals(1, aggregate.get("airports").getAsInt());
+		assertEquals(404, _query.aggregate("XXX", WIND, ZERO, "0.5")
+				.getStatus());
+		assertEquals(400, _query.aggregate(BOS.getIata(), WIND, ZERO, "1.5")
+				.getStatus());
+		assertEquals(400, _query.aggregate(BOS.getIata(), "rain", ZERO, "0.5")
+				.getStatus());
+		assertEquals(400, _query.aggregate(BOS.getIata(), WIND, "far", "0.5")
+				.getStatus());
+	}
+
+	@Test
+	public void testFrameListener() throws Exception {
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		windDp.setMean(42.5);
+		DataPoint humidityDp = new DataPoint.Builder().withCount(10)
+				.withFirst(10).withMedian(20).withLast(30).withMean(22).build();
+		humidityDp.setMean(150);
+		try (WeatherFrameListener listener = new WeatherFrameListener(
+				new InetSocketAddress("localhost", 0))) {
+			listener.start();
+			try (WeatherFrameClient client = new WeatherFrameClient(
+					"localhost", listener.getPort())) {
+				// pipeline several frames on one connection
+				client.send(JFK.getIata(), DataPointType.WIND, windDp);
+				client.send("XXX", DataPointType.WIND, windDp);
+				client.send(JFK.getIata(), DataPointType.HUMIDTY, humidityDp);
+				assertEquals(Arrays.asList(WeatherUpdateResult.APPLIED,
+						WeatherUpdateResult.UNKNOWN_AIRPORT,
+						WeatherUpdateResult.OUT_OF_RANGE), client.flush());
+				// more frames than the client pipelines at once
+				for (int i = 0; i < 3000; i++) {
+					client.send(LGA.getIata(), DataPointType.WIND, windDp);
+				}
+				assertEquals(3000, client.flush().size());
+			}
+		}
+		assertEquals(windDp, WeatherService.getAtmosphericInformation(
+				JFK.getIata()).getWind());
+		assertEquals(windDp, WeatherService.getAtmosphericInformation(
+				LGA.getIata()).getWind());
+		assertNull(WeatherService.getAtmosphericInformation(JFK.getIata())
+				.getHumidity());
+	}
+
+	@Test(timeout = 10000)
+	public void testFrameListenerFailure() throws Exception {
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		// refuse the updates of EWR, as a closed service refuses every update
+		WeatherUpdateListener failure = (iataCode, pointType, dataPoint,
+				version) -> {
+			if (EWR.getIata().equals(iataCode)) {
+				throw new IllegalStateException("Weather service is closed");
+			}
+		};
+		WeatherService.addUpdateListener(failure);
+		try (WeatherFrameListener listener = new WeatherFrameListener(
+				new InetSocketAddress("localhost", 0))) {
+			listener.start();
+			// check the refused connection is closed
+			try (WeatherFrameClient client = new WeatherFrameClient(
+					"localhost", listener.getPort())) {
+				client.send(EWR.getIata(), DataPointType.WIND, windDp);
+				client.flush();
+				fail("The connection of refused frames should be closed");
+			} catch (IOException e) {
+				// expected
+			}
+			// check the other connections are still served
+			try (WeatherFrameClient client = new WeatherFrameClient(
+					"localhost", listener.getPort())) {
+				client.send(JFK.getIata(), DataPointType.WIND, windDp);
+				assertEquals(Arrays.asList(WeatherUpdateResult.APPLIED),
+						client.flush());
+			}
+		} finally {
+			WeatherService.removeUpdateListener(failure);
+		}
+	}
+
+	@Test
+	public void testDatagramListener() throws Exception {
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		windDp.setMean(42.5);
+		try (WeatherDatagramListener listener = new WeatherDatagramListener(
+				new InetSocketAddress("127.0.0.1", 0), 2);
+				DatagramChannel channel = DatagramChannel.open()) {
+			listener.start();
+			channel.connect(new InetSocketAddress("127.0.0.1", listener
+					.getPort()));
+			ByteBuffer datagram = ByteBuffer.allocate(1024);
+			// two readings, one of an unknown airport
+			datagram.putInt(1);
+			WeatherFrames.encode(datagram, JFK.getIata(), DataPointType.WIND,
+					windDp);
+			WeatherFrames.encode(datagram, "XXX", DataPointType.WIND, windDp);
+			datagram.flip();
+			channel.write(datagram);
+			// a datagram after a lost one
+			datagram.clear();
+			datagram.putInt(3);
+			WeatherFrames.encode(datagram, LGA.getIata(), DataPointType.WIND,
+					windDp);
+			datagram.flip();
+			channel.write(datagram);
+			// a truncated frame
+			datagram.clear();
+			datagram.putInt(4).putInt(WeatherFrames.BODY_SIZE).putInt(0);
+			datagram.flip();
+			channel.write(datagram);
+
+			// wait for the datagrams, which are received asynchronously
+			String source = "127.0.0.1:"
+					+ ((InetSocketAddress) channel.getLocalAddress()).getPort();
+			JsonObject sourceStats = null;
+			for (int i = 0; i < 100; i++) {
+				JsonElement stats = new JsonParser().parse(_query.ping())
+						.getAsJsonObject().get(DATAGRAMS).getAsJsonObject()
+						.get(source);
+				if (stats != null
+						&& stats.getAsJsonObject().get("received").getAsLong() == 3) {
+					sourceStats = stats.getAsJsonObject();
+					break;
+				}
+				Thread.sleep(20);
+			}
+			assertNotNull(sourceStats);
+			assertEquals(1, sourceStats.get("rejected").getAsLong());
+			assertEquals(1, sourceStats.get("dropped").getAsLong());
+			assertEquals(1, sourceStats.get("malformed").getAsLong());
+		}
+		assertEquals(windDp, WeatherService.getAtmosphericInformation(
+				JFK.getIata()).getWind());
+		assertEquals(windDp, WeatherService.getAtmosphericInformation(
+				LGA.getIata()).getWind());
+	}
+
+	@Test
+	public void testDatagramSequence() throws Exception {
+		try (WeatherDatagramListener listener = new WeatherDatagramListener(
+				new InetSocketAddress("127.0.0.1", 0), 1);
+				DatagramChannel channel = DatagramChannel.open()) {
+			listener.start();
+			channel.connect(new InetSocketAddress("127.0.0.1", listener
+					.getPort()));
+			// a malformed datagram first, then the sequence numbers 1000,
+			// 1002 and 1002 again
+			ByteBuffer datagram = ByteBuffer.allocate(4);
+			datagram.put((byte) 0).flip();
+			channel.write(datagram);
+			for (int sequence : new int[] { 1000, 1002, 1002 }) {
+				datagram.clear();
+				datagram.putInt(sequence).flip();
+				channel.write(datagram);
+			}
+
+			// check only the datagram between is counted as dropped
+			String source = "127.0.0.1:"
+					+ ((InetSocketAddress) channel.getLocalAddress()).getPort();
+			JsonObject sourceStats = null;
+			for (int i = 0; i < 100; i++) {
+				JsonElement stats = new JsonParser().parse(_query.ping())
+						.getAsJsonObject().get(DATAGRAMS).getAsJsonObject()
+						.get(source);
+				if (stats != null
+						&& stats.getAsJsonObject().get("received").getAsLong() == 4) {
+					sourceStats = stats.getAsJsonObject();
+					break;
+				}
+				Thread.sleep(20);
+			}
+			assertNotNull(sourceStats);
+			assertEquals(1, sourceStats.get("malformed").getAsLong());
+			assertEquals(1, sourceStats.get("dropped").getAsLong());
+		}
+	}
+
+	@Test
+	public void testDatagramListenerFailure() throws Exception {
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		windDp.setMean(42.5);
+		// refuse the updates of EWR, as a closed service refuses every update
+		WeatherUpdateListener failure = (iataCode, pointType, dataPoint,
+				version) -> {
+			if (EWR.getIata().equals(iataCode)) {
+				throw new IllegalStateException("Weather service is closed");
+			}
+		};
+		WeatherService.addUpdateListener(failure);
+		try (WeatherDatagramListener listener = new WeatherDatagramListener(
+				new InetSocketAddress("127.0.0.1", 0), 1);
+				DatagramChannel channel = DatagramChannel.open()) {
+			listener.start();
+			channel.connect(new InetSocketAddress("127.0.0.1", listener
+					.getPort()));
+			// a refused reading and then an accepted one
+			ByteBuffer datagram = ByteBuffer.allocate(1024);
+			datagram.putInt(1);
+			WeatherFrames.encode(datagram, EWR.getIata(), DataPointType.WIND,
+					windDp);
+			datagram.flip();
+			channel.write(datagram);
+			datagram.clear();
+			datagram.putInt(2);
+			WeatherFrames.encode(datagram, LGA.getIata(), DataPointType.WIND,
+					windDp);
+			datagram.flip();
+			channel.write(datagram);
+
+			// check the refused reading is counted and the next datagram is
+			// received
+			String source = "127.0.0.1:"
+					+ ((InetSocketAddress) channel.getLocalAddress()).getPort();
+			JsonObject sourceStats = null;
+			for (int i = 0; i < 100; i++) {
+				JsonElement stats = new JsonParser().parse(_query.ping())
+						.getAsJsonObject().get(DATAGRAMS).getAsJsonObject()
+						.get(source);
+				if (stats != null
+						&& stats.getAsJsonObject().get("received").getAsLong() == 2) {
+					sourceStats = stats.getAsJsonObject();
+					break;
+				}
+				Thread.sleep(20);
+			}
+			assertNotNull(sourceStats);
+			assertEquals(1, sourceStats.get("rejected").getAsLong());
+		} finally {
+			WeatherService.removeUpdateListener(failure);
+		}
+	}
+
+	@Test
+	public void testDatagramSourceEviction() throws Exception {
+		try (WeatherDatagramListener listener = new WeatherDatagramListener(
+				new InetSocketAddress("127.0.0.1", 0), 1)) {
+			listener.start();
+			// send an empty datagram from more senders than are counted, the
+			// channels are kept open so their ports are not reused
+			ByteBuffer datagram = ByteBuffer.allocate(4);
+			String lastSource = null;
+			List<DatagramChannel> channels = new ArrayList<DatagramChannel>();
+			try {
+				for (int i = 0; i <= WeatherDatagramListener.MAX_SOURCES; i++) {
+					DatagramChannel channel = DatagramChannel.open();
+					channels.add(channel);
+					channel.connect(new InetSocketAddress("127.0.0.1",
+							listener.getPort()));
+					datagram.clear();
+					datagram.putInt(1).flip();
+					channel.write(datagram);
+					lastSource = "127.0.0.1:"
+							+ ((InetSocketAddress) channel.getLocalAddress())
+									.getPort();
+				}
+			} finally {
+				for (DatagramChannel channel : channels) {
+					channel.close();
+				}
+			}
+
+			// check the latest sender is counted and the evicted ones are
+			// counted together
+			JsonObject stats = null;
+			for (int i = 0; i < 100; i++) {
+				stats = new JsonParser().parse(_query.ping())
+						.getAsJsonObject().get(DATAGRAMS).getAsJsonObject();
+				if (stats.has(lastSource)) {
+					break;
+				}
+				Thread.sleep(20);
+			}
+			assertTrue(stats.has(lastSource));
+			assertTrue(stats.has("other"));
+			assertTrue(stats.entrySet().size() <= WeatherDatagramListener.MAX_SOURCES
+					+ 1);
+		}
+	}
+
+	@Test
+	public void testUpdateBulk() throws Exception {
+		// create an out of range humidity data point
+		DataPoint humidityDp = new DataPoint.Builder().withCount(10)
+				.withFirst(10).withMedian(20).withLast(30).withMean(22).build();
+		humidityDp.setMean(150);
+		// update several airports and point types at once
+		WeatherUpdate[] updates = {
+				new WeatherUpdate(JFK.getIata(), WIND, _dp),
+				new WeatherUpdate(JFK.getIata(), CLOUDCOVER, _dp),
+				new WeatherUpdate(JFK.getIata(), "humidty", humidityDp),
+				new WeatherUpdate("XXX", WIND, _dp),
+				new WeatherUpdate(JFK.getIata(), "rain", _dp),
+				new WeatherUpdate(JFK.getIata(), WIND, null), null };
+		String results = (String) _update.updateWeatherBulk(
+				_gson.toJson(updates)).getEntity();
+
+		// check the result of every record
+		assertEquals(_gson.toJson(new WeatherUpdateResult[] {
+				WeatherUpdateResult.APPLIED, WeatherUpdateResult.APPLIED,
+				WeatherUpdateResult.OUT_OF_RANGE,
+				WeatherUpdateResult.UNKNOWN_AIRPORT,
+				WeatherUpdateResult.INVALID_POINT_TYPE,
+				WeatherUpdateResult.MISSING_DATA_POINT,
+				WeatherUpdateResult.MISSING_DATA_POINT }), results);
+		// check the applied records have been stored
+		@SuppressWarnings("unchecked")
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query
+				.weather(JFK.getIata(), ZERO).getEntity();
+		assertEquals(_dp, ais.get(0).getWind());
+		assertEquals(_dp, ais.get(0).getCloudCover());
+		assertNull(ais.get(0).getHumidity());
+
+		// check a body which is not a json list is a bad request
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), _update
+				.updateWeatherBulk("").getStatus());
+		assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), _update
+				.updateWeatherBulk("{\"iata\":").getStatus());
+	}
+
 	@Test
 	public void testAddAirport() throws Exception {
 		// create sample airport data
@@ -2,6 +2,19 @@ package com.crossover.trial.weather;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,9 +22,31 @@ import org.junit.Test;
 import com.crossover.trial.weather.exception.WeatherException;
 import com.crossover.trial.weather.pojo.AirportData;
 import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.AtmosphericInformationList;
 import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.pojo.RollupResolution;
+import com.crossover.trial.weather.pojo.WeatherChanges;
+import com.crossover.trial.weather.pojo.WeatherReadings;
+import com.crossover.trial.weather.pojo.WeatherRollup;
+import com.crossover.trial.weather.pojo.WeatherUpdate;
+import com.crossover.trial.weather.pojo.WeatherUpdateResult;
 import com.crossover.trial.weather.util.AirportService;
+import com.crossover.trial.weather.util.DataPointParser;
+import com.crossover.trial.weather.util.MappedWeatherStore;
+import com.crossover.trial.weather.util.QuantileSketch;
+import com.crossover.trial.weather.util.WeatherChangeJournal;
+import com.crossover.trial.weather.util.WeatherColumnStore;
+import com.crossover.trial.weather.util.WeatherHistory;
+import com.crossover.trial.weather.util.WeatherIngestPipeline;
+import com.crossover.trial.weather.util.WeatherRollups;
 import com.crossover.trial.weather.util.WeatherService;
+import com.crossover.trial.weather.util.WeatherSketches;
+import com.crossover.trial.weather.util.WeatherSnapshot;
+import com.crossover.trial.weather.util.WeatherStore;
+import com.crossover.trial.weather.util.WeatherUpdateListener;
+import com.crossover.trial.weather.util.WeatherWriteAheadLog;
+import com.google.gson.Gson;
 
 /**
  * This class asserts critical functionalities of {@link WeatherService} class
@@ -86,6 +121,650 @@ public class WeatherServiceTest {
 		assertNull(atmosphericInformation.getPressure());
 	}
 
+	@Test
+	public void testJsonFragment() throws Exception {
+		// add an airport to airport service, so it will add atmospheric
+		// information and its json fragment too
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		assertNotNull(WeatherService.getJsonFragment(ADB.getIata()));
+
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		WeatherService.addDataPoint(ADB.getIata(), "wind", windDp);
+
+		// check the fragment has been regenerated with the new data point
+		AtmosphericInformation fragment = new Gson().fromJson(new String(
+				WeatherService.getJsonFragment(ADB.getIata()),
+				StandardCharsets.UTF_8), AtmosphericInformation.class);
+		assertEquals(windDp, fragment.getWind());
+		assertNull(fragment.getPressure());
+
+		// check the fragment is removed together with the airport
+		AirportService.deleteAirport(ADB.getIata());
+		assertNull(WeatherService.getJsonFragment(ADB.getIata()));
+	}
+
+	@Test
+	public void testAddDataPointsAtomic() throws Exception {
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		// readers notified of a record of a batch already see the other
+		// records of its airport
+		List<DataPoint> seenTemperatures = new ArrayList<DataPoint>();
+		WeatherUpdateListener listener = (iataCode, pointType, dataPoint,
+				version) -> {
+			if (pointType == DataPointType.WIND) {
+				seenTemperatures.add(WeatherService.getAtmosphericInformation(
+						iataCode).getTemperature());
+			}
+		};
+		WeatherService.addUpdateListener(listener);
+		try {
+			DataPoint dataPoint = new DataPoint.Builder().withCount(10)
+					.withFirst(10).withMedian(20).withLast(30).withMean(22)
+					.build();
+			// an unknown airport between the records of ADB
+			List<WeatherUpdateResult> results = WeatherService
+					.addDataPoints(Arrays.asList(new WeatherUpdate(ADB
+							.getIata(), "wind", dataPoint), new WeatherUpdate(
+							"XXX", "wind", dataPoint), new WeatherUpdate(ADB
+							.getIata(), "temperature", dataPoint)));
+			assertEquals(Arrays.asList(WeatherUpdateResult.APPLIED,
+					WeatherUpdateResult.UNKNOWN_AIRPORT,
+					WeatherUpdateResult.APPLIED), results);
+			assertEquals(Arrays.asList(dataPoint), seenTemperatures);
+		} finally {
+			WeatherService.removeUpdateListener(listener);
+		}
+	}
+
+	@Test
+	public void testAtmosphericInformationList() throws Exception {
+		AtmosphericInformation first = new AtmosphericInformation();
+		AtmosphericInformation second = new AtmosphericInformation();
+		AtmosphericInformation third = new AtmosphericInformation();
+		byte[] firstFragment = { 1 };
+		byte[] secondFragment = { 2 };
+		AtmosphericInformationList atmInfoList = new AtmosphericInformationList();
+		atmInfoList.add(first, firstFragment);
+		atmInfoList.add(second, secondFragment);
+
+		// check the fragments follow their elements as the list changes
+		atmInfoList.add(0, third);
+		assertNull(atmInfoList.getJsonFragment(0));
+		assertSame(firstFragment, atmInfoList.getJsonFragment(1));
+		atmInfoList.remove(third);
+		assertSame(first, atmInfoList.get(0));
+		assertSame(firstFragment, atmInfoList.getJsonFragment(0));
+		atmInfoList.subList(0, 1).clear();
+		assertSame(second, atmInfoList.get(0));
+		assertSame(secondFragment, atmInfoList.getJsonFragment(0));
+
+		// check a replaced element does not keep the fragment of the old one
+		atmInfoList.set(0, third);
+		assertNull(atmInfoList.getJsonFragment(0));
+		atmInfoList.addAll(Arrays.asList(first, second));
+		assertEquals(3, atmInfoList.size());
+		assertNull(atmInfoList.getJsonFragment(2));
+		atmInfoList.clear();
+		assertTrue(atmInfoList.isEmpty());
+	}
+
+	@Test
+	public void testChangesSince() throws Exception {
+		// check a resync is required after the clear, which tells the
+		// current version
+		WeatherChanges resync = WeatherService.getChangesSince(0);
+		assertTrue(resync.isResyncRequired());
+
+		// add an airport, which is a change of its whole information
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		WeatherChanges changes = WeatherService.getChangesSince(resync
+				.getVersion());
+		assertFalse(changes.isResyncRequired());
+		assertTrue(changes.getChangedTypes().get(ADB.getIata()).isEmpty());
+
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		WeatherService.addDataPoint(ADB.getIata(), "wind", windDp);
+
+		// check only the wind change follows the previous version
+		WeatherChanges nextChanges = WeatherService.getChangesSince(changes
+				.getVersion());
+		assertTrue(nextChanges.getVersion() > changes.getVersion());
+		assertEquals(EnumSet.of(DataPointType.WIND), nextChanges
+				.getChangedTypes().get(ADB.getIata()));
+		// check there is nothing after the last version
+		assertTrue(WeatherService.getChangesSince(nextChanges.getVersion())
+				.getChangedTypes().isEmpty());
+		// check versions before a clear require a resync
+		WeatherService.clear();
+		assertTrue(WeatherService.getChangesSince(nextChanges.getVersion())
+				.isResyncRequired());
+	}
+
+	@Test
+	public void testChangeJournalOverflow() throws Exception {
+		WeatherChangeJournal journal = new WeatherChangeJournal(2);
+		long first = journal.append(ADB.getIata(), DataPointType.WIND);
+		long second = journal.append(ADB.getIata(), DataPointType.PRESSURE);
+		journal.append(ADB.getIata(), DataPointType.HUMIDTY);
+
+		// check the changes up to the first one have been dropped
+		assertTrue(journal.getChangesSince(first - 1).isResyncRequired());
+		assertFalse(journal.getChangesSince(first).isResyncRequired());
+		// check the retained changes are still served
+		WeatherChanges changes = journal.getChangesSince(second);
+		assertFalse(changes.isResyncRequired());
+		assertEquals(EnumSet.of(DataPointType.HUMIDTY), changes
+				.getChangedTypes().get(ADB.getIata()));
+	}
+
+	@Test
+	public void testIngestPipeline() throws Exception {
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		WeatherIngestPipeline pipeline = new WeatherIngestPipeline(16, 16);
+
+		// queue three wind updates and a pressure update
+		List<WeatherUpdate> updates = new ArrayList<WeatherUpdate>();
+		for (int mean = 1; mean <= 3; mean++) {
+			DataPoint windDp = new DataPoint.Builder().withCount(10)
+					.withFirst(10).withMedian(20).withLast(30).withMean(22)
+					.build();
+			windDp.setMean(mean);
+			updates.add(new WeatherUpdate(ADB.getIata(), "wind", windDp));
+		}
+		DataPoint pressureDp = new DataPoint.Builder().withCount(10)
+				.withFirst(10).withMedian(700).withLast(30).withMean(22)
+				.build();
+		updates.add(new WeatherUpdate(ADB.getIata(), "pressure", pressureDp));
+		updates.add(null);
+		// an out of range wind update, which does not hide the valid ones
+		DataPoint invalidWindDp = new DataPoint.Builder().withCount(10)
+				.withFirst(10).withMedian(20).withLast(30).withMean(22)
+				.build();
+		invalidWindDp.setMean(-1);
+		updates.add(new WeatherUpdate(ADB.getIata(), "WIND", invalidWindDp));
+		assertEquals(6, pipeline.submit(updates));
+		pipeline.shutdown();
+
+		// check the latest valid wind update and the pressure update have
+		// been applied, the others may have been coalesced
+		AtmosphericInformation atmosphericInformation = WeatherService
+				.getAtmosphericInformation(ADB.getIata());
+		assertEquals(3, atmosphericInformation.getWind().getMean(), 0);
+		assertEquals(pressureDp, atmosphericInformation.getPressure());
+		Map<String, Long> stats = pipeline.getStats();
+		assertEquals(4, stats.get("applied") + stats.get("coalesced"));
+		assertEquals(2, (long) stats.get("failed"));
+		// check a shut down pipeline rejects updates
+		assertEquals(0, pipeline.submit(updates));
+	}
+
+	@Test
+	public void testSnapshotIsolation() throws Exception {
+		AirportService.addAirport(ADB.getIata(), ADB.getLatitude(),
+				ADB.getLongitude());
+		WeatherSnapshot before = WeatherService.getSnapshot(ADB.getIata());
+
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		WeatherService.addDataPoint(ADB.getIata(), "wind", windDp);
+
+		// check the snapshot taken before the update is left unchanged
+		assertNull(before.getAtmosphericInformation().getWind());
+		assertFalse(new String(before.getJsonFragment(),
+				StandardCharsets.UTF_8).contains("\"wind\":{"));
+		// check the new snapshot carries the update with a new version
+		WeatherSnapshot after = WeatherService.getSnapshot(ADB.getIata());
+		assertEquals(windDp, after.getAtmosphericInformation().getWind());
+		assertTrue(after.getVersion() > before.getVersion());
+		assertEquals(after.getVersion(),
+				WeatherService.getVersion(ADB.getIata()));
+	}
+
+	@Test
+	public void testColumnStore() throws Exception {
+		assertStore(new WeatherColumnStore());
+	}
+
+	@Test
+	public void testMappedStore() throws Exception {
+		Path file = Files.createTempFile("weather", ".store");
+		try {
+			MappedWeatherStore store = new MappedWeatherStore(file, 16);
+			assertStore(store);
+			store.close();
+
+			// check a reopened store has the data of the closed one
+			store = new MappedWeatherStore(file, 16);
+			assertEquals(1001, store.size());
+			assertEquals(2000, store.getMaxVersion());
+			assertEquals(42, store.read("A999").getWind().getMean(), 0);
+			assertNull(store.read(ADB.getIata()));
+			List<AirportData> airports = new ArrayList<AirportData>();
+			store.forEachAirport(airports::add);
+			assertEquals(1001, airports.size());
+			store.close();
+
+			// check a store of another number of point types is rejected
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.WRITE)) {
+				ByteBuffer slotCount = ByteBuffer.allocate(4);
+				slotCount.putInt(0, DataPointType.count() + 1);
+				channel.write(slotCount, 16);
+			}
+			try {
+				new MappedWeatherStore(file, 16).close();
+				fail("store of another layout is opened");
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Asserts the common behaviour of the {@link WeatherStore}s
+	 */
+	private void assertStore(WeatherStore store) {
+		DataPoint windDp = new DataPoint.Builder().withCount(10).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		windDp.setMean(20.5);
+		store.put(ADB, new AtmosphericInformation(), 1);
+		assertFalse(store.hasAnyDataPoint(ADB.getIata()));
+		assertTrue(store.write(ADB.getIata(), DataPointType.WIND, windDp, 42,
+				2));
+
+		// check the data point is materialized with all its values
+		AtmosphericInformation atmInfo = store.read(ADB.getIata());
+		assertEquals(windDp, atmInfo.getWind());
+		assertNull(atmInfo.getPressure());
+		assertEquals(42, atmInfo.getLastUpdateTime());
+		assertEquals(2, store.getVersion(ADB.getIata()));
+		assertEquals(1, store.countUpdatedSince(0));
+
+		// check a removed airport is gone even though its id is reused
+		store.remove(ADB.getIata());
+		store.put(new AirportData("BOS", 42.364347, -71.005181),
+				new AtmosphericInformation(), 3);
+		assertNull(store.read(ADB.getIata()));
+		assertEquals(-1, store.getVersion(ADB.getIata()));
+		assertFalse(store.write(ADB.getIata(), DataPointType.WIND, windDp,
+				42, 4));
+		assertNull(store.read("BOS").getWind());
+
+		// check the store grows beyond its initial capacity
+		windDp.setMean(42);
+		for (int i = 0; i < 1000; i++) {
+			store.put(new AirportData("A" + i, 0, 0),
+					new AtmosphericInformation(), 5 + i);
+		}
+		store.write("A999", DataPointType.WIND, windDp, 42, 2000);
+		assertEquals(windDp, store.read("A999").getWind());
+		assertEquals(1001, store.size());
+
+		// check several data points are written together
+		DataPoint pressureDp = new DataPoint.Builder().withCount(10)
+				.withFirst(10).withMedian(20).withLast(30).withMean(700)
+				.build();
+		assertTrue(store.write("A998", new DataPointType[] {
+				DataPointType.WIND, DataPointType.PRESSURE, null },
+				new DataPoint[] { windDp, pressureDp, null }, 2, 43, 2000));
+		atmInfo = store.read("A998");
+		assertEquals(windDp, atmInfo.getWind());
+		assertEquals(pressureDp, atmInfo.getPressure());
+		assertNull(atmInfo.getHumidity());
+		assertEquals(43, atmInfo.getLastUpdateTime());
+		assertFalse(store.write(ADB.getIata(), new DataPointType[] {
+				DataPointType.WIND }, new DataPoint[] { windDp }, 1, 43, 2000));
+	}
+
+	@Test
+	public void testHistory() throws Exception {
+		WeatherHistory history = new WeatherHistory(4);
+		for (int i = 1; i <= 6; i++) {
+			history.record(ADB.getIata(), DataPointType.WIND, i, i * 10);
+		}
+		history.record(ADB.getIata(), DataPointType.PRESSURE, 700, 15);
+
+		// check only the latest readings are kept, oldest first
+		WeatherReadings readings = history.read(ADB.getIata(),
+				DataPointType.WIND, 0, Long.MAX_VALUE);
+		assertArrayEquals(new long[] { 30, 40, 50, 60 }, readings.getTimes());
+		assertArrayEquals(new double[] { 3, 4, 5, 6 }, readings.getMeans(), 0);
+
+		// check the time range is inclusive
+		readings = history.read(ADB.getIata(), DataPointType.WIND, 40, 50);
+		assertArrayEquals(new double[] { 4, 5 }, readings.getMeans(), 0);
+		assertEquals(1, history.read(ADB.getIata(), DataPointType.PRESSURE,
+				0, Long.MAX_VALUE).size());
+
+		history.remove(ADB.getIata());
+		assertEquals(0, history.read(ADB.getIata(), DataPointType.WIND, 0,
+				Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testRollups() throws Exception {
+		long hour = RollupResolution.HOUR.getMillis();
+		WeatherRollups rollups = new WeatherRollups(3, 2);
+		rollups.record(ADB.getIata(), DataPointType.WIND, 10, 0);
+		rollups.record(ADB.getIata(), DataPointType.WIND, 20, hour / 2);
+		rollups.record(ADB.getIata(), DataPointType.WIND, 6, hour);
+
+		// check the hour buckets are aggregated
+		WeatherRollup rollup = rollups.read(ADB.getIata(), DataPointType.WIND,
+				RollupResolution.HOUR, 0, Long.MAX_VALUE, 2 * hour);
+		assertArrayEquals(new long[] { 0, hour }, rollup.getStarts());
+		assertArrayEquals(new int[] { 2, 1 }, rollup.getCounts());
+		assertArrayEquals(new double[] { 10, 6 }, rollup.getMins(), 0);
+		assertArrayEquals(new double[] { 20, 6 }, rollup.getMaxs(), 0);
+		assertArrayEquals(new double[] { 15, 6 }, rollup.getMeans(), 0);
+
+		// check buckets expire after the retention
+		rollup = rollups.read(ADB.getIata(), DataPointType.WIND,
+				RollupResolution.HOUR, 0, Long.MAX_VALUE, 3 * hour);
+		assertArrayEquals(new long[] { hour }, rollup.getStarts());
+		rollups.record(ADB.getIata(), DataPointType.WIND, 3, 4 * hour);
+		rollup = rollups.read(ADB.getIata(), DataPointType.WIND,
+				RollupResolution.HOUR, 0, Long.MAX_VALUE, 4 * hour);
+		assertArrayEquals(new long[] { 4 * hour }, rollup.getStarts());
+
+		// check the day bucket aggregates all readings
+		rollup = rollups.read(ADB.getIata(), DataPointType.WIND,
+				RollupResolution.DAY, 0, Long.MAX_VALUE, 4 * hour);
+		assertArrayEquals(new int[] { 4 }, rollup.getCounts());
+		assertArrayEquals(new double[] { 3 }, rollup.getMins(), 0);
+		assertArrayEquals(new double[] { 20 }, rollup.getMaxs(), 0);
+		assertArrayEquals(new double[] { 9.75 }, rollup.getMeans(), 0);
+
+		// check a reading older than the bucket of its slot is ignored
+		rollups.record(ADB.getIata(), DataPointType.WIND, 100, hour);
+		rollup = rollups.read(ADB.getIata(), DataPointType.WIND,
+				RollupResolution.HOUR, 0, Long.MAX_VALUE, 4 * hour);
+		assertArrayEquals(new int[] { 1 }, rollup.getCounts());
+		assertEquals(0, rollups.read(ADB.getIata(),
+				DataPointType.PRESSURE, RollupResolution.DAY, 0,
+				Long.MAX_VALUE, 4 * hour).size());
+	}
+
+	@Test
+	public void testQuantileSketch() throws Exception {
+		// spread the values 0 to 999 over ten sketches in a scrambled order
+		QuantileSketch[] parts = new QuantileSketch[10];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = new QuantileSketch();
+		}
+		for (int i = 0; i < 1000; i++) {
+			int value = i * 367 % 1000;
+			parts[value % parts.length].add(value, 1);
+		}
+		QuantileSketch merged = new QuantileSketch();
+		for (QuantileSketch part : parts) {
+			merged.merge(part);
+		}
+
+		// check the merged sketch is small and its quantiles accurate
+		assertEquals(1000, merged.getTotalWeight(), 0);
+		assertEquals(0, merged.quantile(0), 0);
+		assertEquals(999, merged.quantile(1), 0);
+		assertEquals(250, merged.quantile(0.25), 10);
+		assertEquals(500, merged.quantile(0.5), 10);
+		assertEquals(990, merged.quantile(0.99), 3);
+		assertTrue(merged.getCentroidCount() <= QuantileSketch.DEFAULT_COMPRESSION
+				+ 1);
+		merged.clear();
+		assertTrue(Double.isNaN(merged.quantile(0.5)));
+	}
+
+	@Test
+	public void testSketches() throws Exception {
+		DataPoint windDp = new DataPoint.Builder().withCount(30).withFirst(10)
+				.withMedian(20).withLast(30).withMean(22).build();
+		WeatherSketches sketches = new WeatherSketches(10);
+		sketches.record(ADB.getIata(), DataPointType.WIND, windDp, 0);
+
+		// check a sketch is merged during its window and the next one
+		QuantileSketch merged = new QuantileSketch();
+		assertTrue(sketches.mergeInto(ADB.getIata(), DataPointType.WIND, 5,
+				merged));
+		assertEquals(30, merged.getTotalWeight(), 1e-9);
+		assertEquals(10, merged.getMin(), 0);
+		assertEquals(30, merged.getMax(), 0);
+		assertTrue(sketches.mergeInto(ADB.getIata(), DataPointType.WIND, 15,
+				new QuantileSketch()));
+		assertFalse(sketches.mergeInto(ADB.getIata(), DataPointType.WIND, 25,
+				new QuantileSketch()));
+		assertFalse(sketches.mergeInto(ADB.getIata(),
+				DataPointType.PRESSURE, 5, new QuantileSketch()));
+
+		// check the previous window is merged with the current one
+		sketches.record(ADB.getIata(), DataPointType.WIND, windDp, 12);
+		merged = new QuantileSketch();
+		sketches.mergeInto(ADB.getIata(), DataPointType.WIND, 15, merged);
+		assertEquals(60, merged.getTotalWeight(), 1e-9);
+
+		// check expired windows are dropped
+		sketches.record(ADB.getIata(), DataPointType.WIND, windDp, 35);
+		merged = new QuantileSketch();
+		sketches.mergeInto(ADB.getIata(), DataPointType.WIND, 35, merged);
+		assertEquals(30, merged.getTotalWeight(), 1e-9);
+		sketches.remove(ADB.getIata());
+		assertFalse(sketches.mergeInto(ADB.getIata(), DataPointType.WIND, 35,
+				new QuantileSketch()));
+	}
+
+	@Test
+	public void testWriteAheadLog() throws Exception {
+		Path file = Files.createTempFile("weather", ".log");
+		try {
+			DataPoint windDp = new DataPoint.Builder().withCount(10)
+					.withFirst(10).withMedian(20).withLast(30).withMean(22)
+					.build();
+			WeatherWriteAheadLog log = new WeatherWriteAheadLog(file, 0);
+			log.appendAirport(ADB, new AtmosphericInformation());
+			log.appendAirport(new AirportData("BOS", 42.364347, -71.005181),
+					new AtmosphericInformation());
+			log.appendDataPoint(ADB.getIata(), DataPointType.WIND, windDp, 42);
+			log.awaitDurable(log.appendRemoval("BOS"));
+			log.close();
+
+			// append an incomplete record as left by a crash
+			Files.write(file, new byte[] { 0, 0, 0, 24, 1, 2 },
+					StandardOpenOption.APPEND);
+
+			// check the complete records are replayed in order
+			log = new WeatherWriteAheadLog(file, 0);
+			WeatherStore store = new WeatherColumnStore();
+			assertEquals(4, replay(log, store));
+			assertEquals(1, store.size());
+			assertEquals(windDp, store.read(ADB.getIata()).getWind());
+			assertEquals(42, store.read(ADB.getIata()).getLastUpdateTime());
+
+			// check a checkpoint compacts the log to the state of the store
+			for (int i = 0; i < 100; i++) {
+				log.appendDataPoint(ADB.getIata(), DataPointType.WIND, windDp,
+						42);
+			}
+			assertEquals(1, log.checkpoint(store, this));
+			assertEquals(0, log.getBytesSinceCheckpoint());
+			log.close();
+
+			log = new WeatherWriteAheadLog(file, 0);
+			store = new WeatherColumnStore();
+			assertEquals(1, replay(log, store));
+			assertEquals(windDp, store.read(ADB.getIata()).getWind());
+			List<AirportData> airports = new ArrayList<AirportData>();
+			store.forEachAirport(airports::add);
+			assertEquals(ADB.getLongitude(), airports.get(0).getLongitude(), 0);
+			log.checkWritable();
+			log.close();
+
+			// check a closed log refuses changes
+			try {
+				log.checkWritable();
+				fail("closed log is writable");
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testWriteAheadLogCheckpointRace() throws Exception {
+		Path file = Files.createTempFile("weather", ".log");
+		try {
+			WeatherWriteAheadLog log = new WeatherWriteAheadLog(file, 0);
+			WeatherStore store = new WeatherColumnStore();
+			Object writerLock = new Object();
+			AirportData bos = new AirportData("BOS", 42.364347, -71.005181);
+			log.awaitDurable(log.appendAirport(ADB,
+					new AtmosphericInformation()));
+			store.put(ADB, new AtmosphericInformation(), 1);
+
+			// checkpoint between the append and the store write of a writer
+			long sequence;
+			Thread checkpoint;
+			synchronized (writerLock) {
+				sequence = log.appendAirport(bos, new AtmosphericInformation());
+				checkpoint = checkpointAsync(log, store, writerLock);
+				store.put(bos, new AtmosphericInformation(), 1);
+			}
+			checkpoint.join();
+			log.awaitDurable(sequence);
+			synchronized (writerLock) {
+				sequence = log.appendRemoval(ADB.getIata());
+				checkpoint = checkpointAsync(log, store, writerLock);
+				store.remove(ADB.getIata());
+			}
+			checkpoint.join();
+			log.awaitDurable(sequence);
+			log.close();
+
+			// check the checkpoints kept the acknowledged changes
+			log = new WeatherWriteAheadLog(file, 0);
+			store = new WeatherColumnStore();
+			replay(log, store);
+			log.close();
+			assertEquals(1, store.size());
+			assertNotNull(store.read(bos.getIata()));
+			assertNull(store.read(ADB.getIata()));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Starts a checkpoint of the given log and gives it time to reach the
+	 * writer lock
+	 */
+	private Thread checkpointAsync(WeatherWriteAheadLog log,
+			WeatherStore store, Object writerLock) throws Exception {
+		Thread checkpoint = new Thread(() -> {
+			try {
+				log.checkpoint(store, writerLock);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		checkpoint.start();
+		checkpoint.join(200);
+		return checkpoint;
+	}
+
+	/**
+	 * Replays the given log into the given store
+	 */
+	private int replay(WeatherWriteAheadLog log, WeatherStore store)
+			throws Exception {
+		return log.replay(new WeatherWriteAheadLog.RecordHandler() {
+
+			@Override
+			public void airportAdded(AirportData airportData,
+					AtmosphericInformation atmInfo) {
+				store.put(airportData, atmInfo, 1);
+			}
+
+			@Override
+			public void dataPointAdded(String iataCode,
+					DataPointType pointType, DataPoint dataPoint,
+					long updateTime) {
+				store.write(iataCode, pointType, dataPoint, updateTime, 1);
+			}
+
+			@Override
+			public void airportRemoved(String iataCode) {
+				store.remove(iataCode);
+			}
+		});
+	}
+
+	@Test
+	public void testPointTypeRegistry() throws Exception {
+		for (DataPointType pointType : DataPointType.values()) {
+			assertEquals(pointType, DataPointType.find(pointType.name()
+					.toLowerCase()));
+			assertEquals(pointType, DataPointType.fromSlot(pointType.getSlot()));
+		}
+		assertNull(DataPointType.find("SNOW"));
+		assertNull(DataPointType.find(null));
+		assertNull(DataPointType.fromSlot(-1));
+		assertNull(DataPointType.fromSlot(DataPointType.count()));
+
+		// minimums are inclusive, maximums exclusive
+		assertTrue(DataPointType.TEMPERATURE.isInRange(-50));
+		assertFalse(DataPointType.TEMPERATURE.isInRange(100));
+		assertFalse(DataPointType.PRESSURE.isInRange(649.9));
+		assertTrue(DataPointType.WIND.isInRange(1000));
+		assertFalse(DataPointType.WIND.isInRange(-1));
+		assertFalse(DataPointType.HUMIDTY.isInRange(Double.NaN));
+
+		DataPoint[] dataPoints = new DataPoint[DataPointType.count()];
+		dataPoints[DataPointType.PRESSURE.getSlot()] = new DataPoint.Builder()
+				.withFirst(700).withMean(720).withLast(740).withCount(5)
+				.build();
+		AtmosphericInformation atmInfo = AtmosphericInformation.fromDataPoints(
+				dataPoints, 1000);
+		assertEquals(dataPoints[DataPointType.PRESSURE.getSlot()],
+				atmInfo.getPressure());
+		assertNull(atmInfo.getWind());
+		assertEquals(1000, atmInfo.getLastUpdateTime());
+	}
+
+	@Test
+	public void testDataPointParser() throws Exception {
+		DataPointParser parser = new DataPointParser();
+		Gson gson = new Gson();
+		// check plain dicts are parsed like gson does
+		String[] plain = {
+				"{\"mean\":22.5,\"first\":10,\"second\":20,\"third\":30,\"count\":10}",
+				" { \"count\" : 7 ,\n\"mean\":-0.125 , \"third\":3e1 } ",
+				"{\"mean\":3.141592653589793,\"first\":-2147483648}",
+				"{\"mean\":123456789012345E-20,\"second\":1.0}", "{}" };
+		for (String json : plain) {
+			assertTrue(json, parser.parse(json));
+			assertEquals(json, gson.fromJson(json, DataPoint.class),
+					parser.toDataPoint());
+		}
+		// check anything else is left to gson
+		String[] other = { "", "null", "[]", "{\"mean\":1}x",
+				"{\"mean\":\"1\"}", "{\"first\":1.5}",
+				"{\"first\":2147483648}", "{\"mean\":01}",
+				"{\"mean\":1e400}", "{\"mean\":12345678901234567890}",
+				"{\"unknown\":1}", "{\"mea\\u006e\":1}", "{\"mean\":1,}",
+				"{\"mean\":null}", "{\"mean\":1" };
+		for (String json : other) {
+			assertFalse(json, parser.parse(json));
+		}
+	}
+
 	@Test(expected = WeatherException.class)
 	public void testAddNonTypedDataPoint() throws Exception {
 		// add an airport to airport service, so it will add atmospheric
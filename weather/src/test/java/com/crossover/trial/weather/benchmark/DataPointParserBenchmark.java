@@ -0,0 +1,81 @@
+package com.crossover.trial.weather.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.ToDoubleFunction;
+
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.util.DataPointParser;
+import com.google.gson.Gson;
+
+/**
+ * Compares the ways of parsing the json dict of a data point posted to the
+ * collector: a new gson per request, a shared gson, and the
+ * {@link DataPointParser} of the thread, with and without creating the data
+ * point. The benchmark reports the time and the allocated bytes per parse.
+ *
+ * Run it with the test classpath:
+ * <code>java com.crossover.trial.weather.benchmark.DataPointParserBenchmark</code>
+ *
+ * @author burak
+ */
+public class DataPointParserBenchmark {
+
+	private static final long WARMUP_MILLIS = 2000;
+
+	private static final long MEASURED_MILLIS = 3000;
+
+	/** distinct bodies, as sent by different collectors */
+	private static final String[] BODIES = {
+			"{\"mean\":22.5,\"first\":10,\"second\":20,\"third\":30,\"count\":10}",
+			"{\"count\":12,\"first\":-5,\"second\":0,\"third\":5,\"mean\":0.25}",
+			"{ \"mean\": 1013.25, \"first\": 1010, \"second\": 1013, \"third\": 1016, \"count\": 60 }",
+			"{\"mean\":71,\"first\":60,\"second\":70,\"third\":80,\"count\":3}" };
+
+	/** keeps the results alive */
+	private static double sink;
+
+	public static void main(String[] args) {
+		Gson gson = new Gson();
+		DataPointParser parser = new DataPointParser();
+		System.out.println("variant\tns/parse\tbytes/parse");
+		run("gson per request",
+				json -> new Gson().fromJson(json, DataPoint.class).getMean());
+		run("shared gson", json -> gson.fromJson(json, DataPoint.class)
+				.getMean());
+		run("parser", json -> parser.parse(json) ? parser.toDataPoint()
+				.getMean() : 0);
+		run("parser, no data point", json -> parser.parse(json) ? 1 : 0);
+		System.out.println(sink);
+	}
+
+	private static void run(String variant, ToDoubleFunction<String> parse) {
+		measure(parse, WARMUP_MILLIS);
+		long[] counts = measure(parse, MEASURED_MILLIS);
+		System.out.println(String.format("%s\t%.1f\t%.1f", variant,
+				MEASURED_MILLIS * 1e6 / counts[0], (double) counts[1]
+						/ counts[0]));
+	}
+
+	/**
+	 * @return number of parses and allocated bytes
+	 */
+	private static long[] measure(ToDoubleFunction<String> parse, long millis) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(threadId);
+		long end = System.currentTimeMillis() + millis;
+		long count = 0;
+		double sum = 0;
+		while (System.currentTimeMillis() < end) {
+			// a batch between clock reads keeps their cost out
+			for (int i = 0; i < 1024; i++) {
+				sum += parse.applyAsDouble(BODIES[i & (BODIES.length - 1)]);
+			}
+			count += 1024;
+		}
+		allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+		sink += sum;
+		return new long[] { count, allocated };
+	}
+}
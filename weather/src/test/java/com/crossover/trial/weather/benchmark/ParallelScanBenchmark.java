@@ -0,0 +1,113 @@
+package com.crossover.trial.weather.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.crossover.trial.weather.index.AirportCoordinateStore;
+import com.crossover.trial.weather.pojo.AirportData;
+import com.crossover.trial.weather.util.AirportService;
+
+/**
+ * Compares sequential and parallel full radius scans of the airport
+ * coordinate store for growing airport counts, and reports the smallest count
+ * from which the parallel scan stays faster. This is the crossover point to
+ * use for the weather.scan.parallel.threshold system property on the target
+ * machine.
+ *
+ * Run it with the test classpath, optionally passing the parallelism:
+ * <code>java com.crossover.trial.weather.benchmark.ParallelScanBenchmark 8</code>
+ *
+ * @author burak
+ */
+public class ParallelScanBenchmark {
+
+	private static final double EARTH_RADIUS_KM = 6372.8;
+
+	private static final int[] AIRPORT_COUNTS = { 1024, 4096, 16384, 32768,
+			65536, 131072, 262144 };
+
+	private static final int RANGE_SIZE = 8192;
+
+	private static final double RADIUS = 5000;
+
+	private static final int WARMUP_ROUNDS = 50;
+
+	private static final int MEASURED_ROUNDS = 200;
+
+	public static void main(String[] args) {
+		int parallelism = args.length > 0 ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		System.out.println("parallelism: " + parallelism);
+		System.out.println("airports\tsequential(us)\tparallel(us)");
+		int crossover = -1;
+		for (int airportCount : AIRPORT_COUNTS) {
+			AirportCoordinateStore store = createStore(airportCount);
+			AirportData reference = new AirportData("REF", 48.35, 11.78);
+			double sequential = measure(() -> scanSequential(store, reference));
+			double parallel = measure(() -> store.findInRadiusParallel(
+					reference.getLatitude(), reference.getLongitude(), RADIUS,
+					candidate -> AirportService.calculateDistance(reference,
+							candidate) <= RADIUS, pool, RANGE_SIZE).size());
+			System.out.println(String.format("%d\t%.1f\t%.1f", airportCount,
+					sequential, parallel));
+			// the crossover is where parallel starts to stay faster
+			if (parallel >= sequential) {
+				crossover = -1;
+			} else if (crossover < 0) {
+				crossover = airportCount;
+			}
+		}
+		System.out.println(crossover < 0 ? "parallel scan never paid off"
+				: "parallel scan pays off from " + crossover + " airports");
+		pool.shutdown();
+	}
+
+	private static int scanSequential(AirportCoordinateStore store,
+			AirportData reference) {
+		List<AirportData> matches = new ArrayList<AirportData>();
+		store.forEachInRadius(reference.getLatitude(),
+				reference.getLongitude(), RADIUS, candidate -> {
+					if (AirportService.calculateDistance(reference, candidate) <= RADIUS) {
+						matches.add(candidate);
+					}
+				});
+		return matches.size();
+	}
+
+	/**
+	 * @return mean duration of a round in microseconds
+	 */
+	private static double measure(Round round) {
+		int blackhole = 0;
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			blackhole += round.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			blackhole += round.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (blackhole == 42) {
+			System.out.print("");
+		}
+		return elapsed / 1000.0 / MEASURED_ROUNDS;
+	}
+
+	private static AirportCoordinateStore createStore(int airportCount) {
+		Random random = new Random(airportCount);
+		AirportCoordinateStore store = new AirportCoordinateStore(
+				EARTH_RADIUS_KM);
+		for (int i = 0; i < airportCount; i++) {
+			store.add(new AirportData("A" + i, random.nextDouble() * 180 - 90,
+					random.nextDouble() * 360 - 180));
+		}
+		return store;
+	}
+
+	private interface Round {
+		int run();
+	}
+}
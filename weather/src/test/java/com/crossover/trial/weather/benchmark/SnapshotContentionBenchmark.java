@@ -0,0 +1,222 @@
+package com.crossover.trial.weather.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+
+/**
+ * Compares readers of an airport's weather while a writer keeps updating it,
+ * for three ways of sharing it: a mutable object guarded by its monitor, the
+ * same mutable object read without locking, and immutable
+ * {@link AtmosphericInformation} snapshots published by a reference swap.
+ *
+ * Every write replaces all six data points with the same mean, so a reader
+ * seeing different means has read a torn state. The benchmark reports the
+ * reads and writes per second and the number of torn reads of each variant.
+ *
+ * Run it with the test classpath, optionally passing the number of readers:
+ * <code>java com.crossover.trial.weather.benchmark.SnapshotContentionBenchmark 8</code>
+ *
+ * @author burak
+ */
+public class SnapshotContentionBenchmark {
+
+	private static final long WARMUP_MILLIS = 1000;
+
+	private static final long MEASURED_MILLIS = 3000;
+
+	private static final DataPointType[] POINT_TYPES = DataPointType.values();
+
+	public static void main(String[] args) throws InterruptedException {
+		int readers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+				.getRuntime().availableProcessors();
+		System.out.println("readers: " + readers);
+		System.out.println("variant\treads/s\twrites/s\ttorn reads");
+		run("mutable, locked", readers, new LockedMutableWeather());
+		run("mutable, unlocked", readers, new MutableWeather());
+		run("snapshot", readers, new SnapshotWeather());
+	}
+
+	private static void run(String variant, int readers, Weather weather)
+			throws InterruptedException {
+		measure(readers, weather, WARMUP_MILLIS);
+		long[] counts = measure(readers, weather, MEASURED_MILLIS);
+		double seconds = MEASURED_MILLIS / 1000.0;
+		System.out.println(String.format("%s\t%.0f\t%.0f\t%d", variant,
+				counts[0] / seconds, counts[1] / seconds, counts[2]));
+	}
+
+	/**
+	 * @return number of reads, writes and torn reads
+	 */
+	private static long[] measure(int readers, Weather weather, long millis)
+			throws InterruptedException {
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong reads = new AtomicLong();
+		AtomicLong writes = new AtomicLong();
+		AtomicLong tornReads = new AtomicLong();
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(new Thread(() -> {
+			long count = 0;
+			while (running.get()) {
+				weather.write(++count);
+			}
+			writes.addAndGet(count);
+		}));
+		for (int i = 0; i < readers; i++) {
+			threads.add(new Thread(() -> {
+				long count = 0;
+				long torn = 0;
+				while (running.get()) {
+					if (!weather.readConsistent()) {
+						torn++;
+					}
+					count++;
+				}
+				reads.addAndGet(count);
+				tornReads.addAndGet(torn);
+			}));
+		}
+		threads.forEach(Thread::start);
+		Thread.sleep(millis);
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return new long[] { reads.get(), writes.get(), tornReads.get() };
+	}
+
+	private static DataPoint dataPoint(long mean) {
+		DataPoint dataPoint = new DataPoint.Builder().withCount(1).build();
+		dataPoint.setMean(mean);
+		return dataPoint;
+	}
+
+	/**
+	 * @return <code>true</code> if all data points have the same mean
+	 */
+	private static boolean isConsistent(DataPoint... dataPoints) {
+		for (DataPoint dataPoint : dataPoints) {
+			if (dataPoint == null) {
+				return dataPoints[0] == null;
+			}
+			if (dataPoints[0] == null
+					|| dataPoint.getMean() != dataPoints[0].getMean()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private interface Weather {
+
+		/** replaces all data points with the given mean */
+		void write(long mean);
+
+		/** reads all data points and checks they are of the same write */
+		boolean readConsistent();
+	}
+
+	/**
+	 * The atmospheric information as it was before the snapshots: six data
+	 * points and the last update time changed in place by setters
+	 */
+	private static class MutableWeather implements Weather {
+
+		private DataPoint temperature;
+
+		private DataPoint wind;
+
+		private DataPoint humidity;
+
+		private DataPoint precipitation;
+
+		private DataPoint pressure;
+
+		private DataPoint cloudCover;
+
+		private long lastUpdateTime;
+
+		@Override
+		public void write(long mean) {
+			// one update per data point, as the collectors send them
+			for (DataPointType pointType : POINT_TYPES) {
+				DataPoint dataPoint = dataPoint(mean);
+				switch (pointType) {
+				case WIND:
+					wind = dataPoint;
+					break;
+				case TEMPERATURE:
+					temperature = dataPoint;
+					break;
+				case HUMIDTY:
+					humidity = dataPoint;
+					break;
+				case PRESSURE:
+					pressure = dataPoint;
+					break;
+				case CLOUDCOVER:
+					cloudCover = dataPoint;
+					break;
+				case PRECIPITATION:
+					precipitation = dataPoint;
+					break;
+				}
+				lastUpdateTime = mean;
+			}
+		}
+
+		@Override
+		public boolean readConsistent() {
+			return isConsistent(temperature, wind, humidity, precipitation,
+					pressure, cloudCover)
+					&& (wind == null || (long) wind.getMean() == lastUpdateTime);
+		}
+	}
+
+	private static class LockedMutableWeather extends MutableWeather {
+
+		@Override
+		public synchronized void write(long mean) {
+			super.write(mean);
+		}
+
+		@Override
+		public synchronized boolean readConsistent() {
+			return super.readConsistent();
+		}
+	}
+
+	private static class SnapshotWeather implements Weather {
+
+		private final AtomicReference<AtmosphericInformation> reference = new AtomicReference<AtmosphericInformation>(
+				new AtmosphericInformation());
+
+		@Override
+		public void write(long mean) {
+			// build the next snapshot privately and publish it at once
+			AtmosphericInformation atmInfo = reference.get();
+			for (DataPointType pointType : POINT_TYPES) {
+				atmInfo = atmInfo.withDataPoint(pointType, dataPoint(mean),
+						mean);
+			}
+			reference.set(atmInfo);
+		}
+
+		@Override
+		public boolean readConsistent() {
+			AtmosphericInformation atmInfo = reference.get();
+			return isConsistent(atmInfo.getTemperature(), atmInfo.getWind(),
+					atmInfo.getHumidity(), atmInfo.getPrecipitation(),
+					atmInfo.getPressure(), atmInfo.getCloudCover())
+					&& (atmInfo.getWind() == null || (long) atmInfo.getWind()
+							.getMean() == atmInfo.getLastUpdateTime());
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.crossover.trial.weather.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.crossover.trial.weather.pojo.AirportData;
+import com.crossover.trial.weather.pojo.AtmosphericInformation;
+import com.crossover.trial.weather.pojo.DataPoint;
+import com.crossover.trial.weather.pojo.DataPointType;
+import com.crossover.trial.weather.util.WeatherColumnStore;
+import com.crossover.trial.weather.util.WeatherStore;
+import com.crossover.trial.weather.util.WeatherWriteAheadLog;
+
+/**
+ * Measures the ingest throughput of data point updates with the write-ahead
+ * log disabled and enabled, for an increasing number of concurrent writers.
+ *
+ * Writers follow the protocol of the weather service: they log and apply an
+ * update while holding the writer lock, and wait for it to be durable after
+ * releasing it. The benchmark reports the updates per second and, with the
+ * log enabled, the mean number of updates forced by a single fsync.
+ *
+ * Run it with the test classpath, optionally passing the directory of the
+ * log file and the commit window in milliseconds:
+ * <code>java com.crossover.trial.weather.benchmark.WriteAheadLogBenchmark /tmp 0</code>
+ *
+ * @author burak
+ */
+public class WriteAheadLogBenchmark {
+
+	private static final long WARMUP_MILLIS = 1000;
+
+	private static final long MEASURED_MILLIS = 3000;
+
+	private static final int[] WRITERS = { 1, 4, 16, 64 };
+
+	private static final int AIRPORTS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		Path directory = args.length > 0 ? Files.createTempDirectory(
+				Paths.get(args[0]), "weather-log") : Files
+				.createTempDirectory("weather-log");
+		long commitWindowMillis = args.length > 1 ? Long.parseLong(args[1])
+				: 0;
+		System.out.println("commit window: " + commitWindowMillis + " ms");
+		System.out.println("writers\tlog\tupdates/s\tupdates/fsync");
+		for (int writers : WRITERS) {
+			run(writers, null);
+			Path file = directory.resolve("weather.log");
+			try (WeatherWriteAheadLog log = new WeatherWriteAheadLog(file,
+					commitWindowMillis)) {
+				run(writers, log);
+			} finally {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	private static void run(int writers, WeatherWriteAheadLog log)
+			throws InterruptedException {
+		WeatherStore store = new WeatherColumnStore();
+		for (int i = 0; i < AIRPORTS; i++) {
+			store.put(new AirportData("A" + i, 0, 0),
+					new AtmosphericInformation(), 0);
+		}
+		measure(writers, store, log, WARMUP_MILLIS);
+		long commits = log == null ? 0 : log.getCommitCount();
+		long updates = measure(writers, store, log, MEASURED_MILLIS);
+		commits = log == null ? 0 : log.getCommitCount() - commits;
+		System.out.println(String.format("%d\t%s\t%.0f\t%s", writers,
+				log == null ? "off" : "on", updates * 1000.0
+						/ MEASURED_MILLIS, log == null ? "-" : String.format(
+						"%.1f", (double) updates / Math.max(1, commits))));
+	}
+
+	/**
+	 * @return number of durable updates
+	 */
+	private static long measure(int writers, WeatherStore store,
+			WeatherWriteAheadLog log, long millis) throws InterruptedException {
+		Object writerLock = new Object();
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong updates = new AtomicLong();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < writers; i++) {
+			int writer = i;
+			threads.add(new Thread(() -> {
+				DataPoint dataPoint = new DataPoint.Builder().withFirst(10)
+						.withMean(20).withLast(30).withCount(10).build();
+				long count = 0;
+				try {
+					while (running.get()) {
+						String iataCode = "A" + (writer + count * writers)
+								% AIRPORTS;
+						long now = System.currentTimeMillis();
+						long sequence = 0;
+						synchronized (writerLock) {
+							if (log != null) {
+								sequence = log.appendDataPoint(iataCode,
+										DataPointType.WIND, dataPoint, now);
+							}
+							store.write(iataCode, DataPointType.WIND,
+									dataPoint, now, 0);
+						}
+						if (log != null) {
+							log.awaitDurable(sequence);
+						}
+						count++;
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				updates.addAndGet(count);
+			}));
+		}
+		threads.forEach(Thread::start);
+		Thread.sleep(millis);
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return updates.get();
+	}
+}